@@ -0,0 +1,260 @@
+package com.easy.iso8583;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The bitmap of an ISO8583 message, held in two longs. Bit 0 of the low word is field 1
+ * (the secondary bitmap indicator) and bit 63 is field 64; the high word holds fields 65 to 128.
+ * This is the reverse of the wire order, where field 1 is the most significant bit of the first byte,
+ * so words are converted with {@link Long#reverse(long)} when they are read or written.
+ */
+public final class Bitmap {
+
+    private long low;
+    private long high;
+
+    /**
+     * Creates an empty bitmap.
+     */
+    public Bitmap() {
+    }
+
+    /**
+     * Creates a bitmap with the specified words.
+     *
+     * @param low  Fields 1 to 64, field 1 being bit 0.
+     * @param high Fields 65 to 128, field 65 being bit 0.
+     */
+    public Bitmap(long low, long high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Reads 8 bytes of a binary bitmap from the buffer and returns them as a word
+     * with the first field in bit 0.
+     */
+    public static long readWord(byte[] buf, int pos) {
+        long l = 0;
+        for (int i = pos; i < pos + 8; i++) {
+            l = (l << 8) | (buf[i] & 0xff);
+        }
+        return Long.reverse(l);
+    }
+
+    /**
+     * Same as {@link #readWord(byte[], int)}, at the index of a Netty buffer. The bytes are read one
+     * by one, so that the buffer's byte order doesn't matter.
+     */
+    public static long readWord(ByteBuf buf, int index) {
+        long l = 0;
+        for (int i = index; i < index + 8; i++) {
+            l = (l << 8) | buf.getUnsignedByte(i);
+        }
+        return Long.reverse(l);
+    }
+
+    /**
+     * Writes a word with the first field in bit 0 as 8 bytes of a binary bitmap.
+     *
+     * @return The position after the word.
+     */
+    public static int writeWord(long word, byte[] buf, int pos) {
+        long l = Long.reverse(word);
+        for (int i = pos + 7; i >= pos; i--) {
+            buf[i] = (byte) l;
+            l >>>= 8;
+        }
+        return pos + 8;
+    }
+
+    /**
+     * Same as {@link #writeWord(long, byte[], int)}, at the index of a Netty buffer whatever its byte order.
+     *
+     * @return The index after the word.
+     */
+    public static int writeWord(long word, ByteBuf buf, int index) {
+        long l = Long.reverse(word);
+        for (int i = index + 7; i >= index; i--) {
+            buf.setByte(i, (int) l);
+            l >>>= 8;
+        }
+        return index + 8;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns true if the specified field is set. Field 1 is only set if it was read that way.
+     */
+    public boolean get(int field) {
+        if (field < 1 || field > 128) {
+            return false;
+        }
+        return field <= 64 ? (low & (1L << (field - 1))) != 0 : (high & (1L << (field - 65))) != 0;
+    }
+
+    public void set(int field) {
+        if (field <= 64) {
+            low |= 1L << (field - 1);
+        } else {
+            high |= 1L << (field - 65);
+        }
+    }
+
+    public void clear(int field) {
+        if (field <= 64) {
+            low &= ~(1L << (field - 1));
+        } else {
+            high &= ~(1L << (field - 65));
+        }
+    }
+
+    public void set(int field, boolean flag) {
+        if (flag) {
+            set(field);
+        } else {
+            clear(field);
+        }
+    }
+
+    /**
+     * Clears every field.
+     */
+    public void clear() {
+        low = 0;
+        high = 0;
+    }
+
+    /**
+     * Returns true if no field is set.
+     */
+    public boolean isEmpty() {
+        return (low | high) == 0;
+    }
+
+    /**
+     * Returns true if any of the fields 65 to 128 is set.
+     */
+    public boolean hasSecondary() {
+        return high != 0;
+    }
+
+    /**
+     * Returns the first field that is set starting at the specified field (inclusive),
+     * or -1 if there is none. Iterate with
+     * {@code for (int i = bm.nextField(2); i > 0; i = bm.nextField(i + 1))}.
+     */
+    public int nextField(int from) {
+        if (from < 1) {
+            from = 1;
+        }
+        if (from <= 64) {
+            final long w = low & (-1L << (from - 1));
+            if (w != 0) {
+                return Long.numberOfTrailingZeros(w) + 1;
+            }
+            from = 65;
+        }
+        if (from <= 128) {
+            final long w = high & (-1L << (from - 65));
+            if (w != 0) {
+                return Long.numberOfTrailingZeros(w) + 65;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes of the binary bitmap, 8 or 16.
+     */
+    public int binaryLength(boolean forceSecondary) {
+        return forceSecondary || high != 0 ? 16 : 8;
+    }
+
+    /**
+     * Writes the binary bitmap to the buffer. Field 1 is set when the secondary bitmap is
+     * written, which happens if forceSecondary is set or there are fields above 64.
+     *
+     * @return The position after the bitmap.
+     */
+    public int write(byte[] buf, int pos, boolean forceSecondary) {
+        if (forceSecondary || high != 0) {
+            pos = writeWord(low | 1L, buf, pos);
+            return writeWord(high, buf, pos);
+        }
+        return writeWord(low & ~1L, buf, pos);
+    }
+
+    /**
+     * Same as {@link #write(byte[], int, boolean)}, at the index of a Netty buffer.
+     *
+     * @return The index after the bitmap.
+     */
+    public int write(ByteBuf buf, int index, boolean forceSecondary) {
+        if (forceSecondary || high != 0) {
+            index = writeWord(low | 1L, buf, index);
+            return writeWord(high, buf, index);
+        }
+        return writeWord(low & ~1L, buf, index);
+    }
+
+    /**
+     * Writes the binary bitmap to the stream, same as {@link #write(byte[], int, boolean)}.
+     */
+    public void write(OutputStream outs, boolean forceSecondary) throws IOException {
+        byte[] buf = new byte[binaryLength(forceSecondary)];
+        write(buf, 0, forceSecondary);
+        outs.write(buf);
+    }
+
+    /**
+     * Appends the bitmap in hexadecimal (uppercase), 16 or 32 characters.
+     */
+    public void appendHex(StringBuilder sb, boolean forceSecondary) {
+        final boolean secondary = forceSecondary || high != 0;
+        appendHexWord(sb, Long.reverse(secondary ? low | 1L : low & ~1L));
+        if (secondary) {
+            appendHexWord(sb, Long.reverse(high));
+        }
+    }
+
+    private static void appendHexWord(StringBuilder sb, long l) {
+        for (int shift = 60; shift >= 0; shift -= 4) {
+            sb.append((char) IsoMessage.HEX[(int) (l >>> shift) & 0xf]);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Bitmap)) {
+            return false;
+        }
+        Bitmap other = (Bitmap) o;
+        return low == other.low && high == other.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(low) * 31 + Long.hashCode(high);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(32);
+        appendHex(sb, high != 0);
+        return sb.toString();
+    }
+}
@@ -2,14 +2,27 @@
 package com.easy.iso8583;
 
 
+import com.easy.iso8583.parse.DateTimeParseInfo;
+import com.easy.iso8583.parse.FieldParseInfo;
+import com.easy.iso8583.parse.ParseGuide;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Recycler;
+import io.netty.util.ResourceLeakTracker;
 import org.apache.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Date;
 import java.util.Map;
+import java.util.TimeZone;
 
 /**
  * Represents an ISO8583 message. This is the core class of the framework.
@@ -37,6 +50,18 @@ public class IsoMessage {
      * This is where the values are stored.
      */
     private IsoValue[] fields = new IsoValue[129];
+    /**
+     * The fields that are present, kept up to date as fields are set and removed.
+     */
+    private final Bitmap bitmap = new Bitmap();
+
+    /**
+     * For lazily parsed messages, the buffer the message was parsed from and the
+     * position of each field in it. A position of 0 means there is no pending field.
+     */
+    private byte[] lazyBuf;
+    private int[] lazyPos;
+    private ParseGuide lazyGuide;
 
 
     /**
@@ -46,6 +71,17 @@ public class IsoMessage {
     private boolean encodeVariableLengthFieldsInHex;
     private String encoding = "ISO-8859-1";
 
+    /**
+     * For messages taken from an {@link IsoMessagePool}: the handle to return the message to the pool,
+     * the leak tracker while the message is in use, the array the message's frame is copied to, and
+     * the values of the fields, which are refilled by parsing and {@link #setValue} instead of allocated.
+     */
+    private Recycler.Handle<IsoMessage> recycleHandle;
+    private ResourceLeakTracker<IsoMessage> leak;
+    private boolean inUse;
+    private byte[] frame;
+    private IsoValue<Object>[] slots;
+
     /**
      * Creates a new empty message with no values set.
      */
@@ -156,19 +192,236 @@ public class IsoMessage {
      *              real fields go from 2 to 128.
      */
     public <T> T getObjectValue(int field) {
-        @SuppressWarnings("unchecked")
-        IsoValue<T> v = fields[field];
+        IsoValue<T> v = getField(field);
         return v == null ? null : v.getValue();
     }
 
     /**
      * Returns the IsoValue for the specified field. First real field is 2.
+     * If the message was parsed lazily, the field is decoded on the first call.
      */
     @SuppressWarnings("unchecked")
     public <T> IsoValue<T> getField(int field) {
+        if (fields[field] == null && lazyPos != null && lazyPos[field] != 0) {
+            decodeLazyField(field);
+        }
         return fields[field];
     }
 
+    /**
+     * Returns the value of the specified field as a long, without boxing. NUMERIC and AMOUNT values,
+     * and text values made only of digits, are supported. If the message was parsed lazily and the
+     * field has not been decoded yet, the digits are read straight from the buffer and the field
+     * stays pending.
+     *
+     * @throws IllegalArgumentException if the field is not set or does not contain a number.
+     */
+    public long getLong(int field) {
+        if (fields[field] == null && lazyPos != null && lazyPos[field] != 0) {
+            final FieldParseInfo fpi = lazyGuide.get(field);
+            final int pos = lazyPos[field];
+            try {
+                return binaryFields ? fpi.parseLongBinary(field, lazyBuf, pos) : fpi.parseLong(field, lazyBuf, pos);
+            } catch (ParseException | UnsupportedEncodingException ex) {
+                throw new IllegalArgumentException(String.format("Cannot decode field %d at pos %d as a number",
+                        field, pos), ex);
+            }
+        }
+        IsoValue<?> v = fields[field];
+        if (v == null) {
+            throw new IllegalArgumentException(String.format("Field %d is not set", field));
+        }
+        try {
+            return v.longValue();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException(String.format("Field %d does not fit in a long", field), ex);
+        }
+    }
+
+    /**
+     * Same as {@link #getLong(int)}, returning the default value if the field is not set.
+     */
+    public long getLong(int field, long defaultValue) {
+        return hasField(field) ? getLong(field) : defaultValue;
+    }
+
+    /**
+     * Returns the value of the specified date field as epoch milliseconds. If the message was parsed
+     * lazily and the field has not been decoded yet, the date is computed straight from the buffer
+     * without creating a Date, and the field stays pending.
+     *
+     * @throws IllegalArgumentException if the field is not set or is not a date.
+     */
+    public long getEpochMillis(int field) {
+        if (fields[field] == null && lazyPos != null && lazyPos[field] != 0
+                && lazyGuide.get(field) instanceof DateTimeParseInfo) {
+            final DateTimeParseInfo fpi = (DateTimeParseInfo) lazyGuide.get(field);
+            final int pos = lazyPos[field];
+            try {
+                return binaryFields ? fpi.parseEpochMillisBinary(field, lazyBuf, pos)
+                        : fpi.parseEpochMillis(field, lazyBuf, pos);
+            } catch (ParseException ex) {
+                throw new IllegalArgumentException(String.format("Cannot decode field %d at pos %d as a date",
+                        field, pos), ex);
+            }
+        }
+        IsoValue<?> v = getField(field);
+        if (v == null) {
+            throw new IllegalArgumentException(String.format("Field %d is not set", field));
+        } else if (v.getValue() instanceof Date) {
+            return ((Date) v.getValue()).getTime();
+        }
+        throw new IllegalArgumentException(String.format("Field %d is not a date", field));
+    }
+
+    /**
+     * Returns the value of the specified date field as an Instant, same as {@link #getEpochMillis(int)}.
+     */
+    public Instant getInstant(int field) {
+        return Instant.ofEpochMilli(getEpochMillis(field));
+    }
+
+    /**
+     * Sets up lazy parsing: the fields are read from the buffer only when they are requested.
+     * The buffer is referenced, not copied, so it must not be modified while the message is in use.
+     */
+    void setLazySource(byte[] buf, ParseGuide guide) {
+        lazyBuf = buf;
+        lazyGuide = guide;
+        if (lazyPos == null) {
+            lazyPos = new int[129];
+        }
+    }
+
+    /**
+     * Returns true if the message was parsed lazily and references the buffer it was parsed from.
+     */
+    boolean isLazy() {
+        return lazyBuf != null;
+    }
+
+    /**
+     * Returns an array of at least the specified size that belongs to the message, to copy its
+     * frame to before parsing. The array is kept across {@link #reset()}.
+     */
+    byte[] frameBuffer(int size) {
+        if (frame == null || frame.length < size) {
+            frame = new byte[Math.max(size, frame == null ? 256 : frame.length * 2)];
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the reusable value of the field, or null if the message is not pooled.
+     */
+    private IsoValue<Object> slot(int index) {
+        if (recycleHandle == null) {
+            return null;
+        }
+        if (slots == null) {
+            slots = newSlots();
+        }
+        IsoValue<Object> s = slots[index];
+        if (s == null) {
+            slots[index] = s = new IsoValue<>(IsoType.LLVAR, "");
+        }
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static IsoValue<Object>[] newSlots() {
+        return (IsoValue<Object>[]) new IsoValue<?>[129];
+    }
+
+    /**
+     * Sets a copy of the value in the field; pooled messages copy it into the field's slot.
+     */
+    IsoMessage setFieldCopy(int index, IsoValue<?> value) {
+        final IsoValue<Object> slot = slot(index);
+        return setField(index, slot == null ? value.clone() : slot.reuse(value));
+    }
+
+    /**
+     * Clears the message back to the state of a newly created one: no type, no fields and
+     * the default flags and encoding. The field and lazy position arrays, and the values of a pooled
+     * message's fields, are kept and refilled by the next use of the message, instead of being
+     * allocated again.
+     */
+    public void reset() {
+        type = 0;
+        binaryFields = false;
+        Arrays.fill(fields, null);
+        bitmap.clear();
+        lazyBuf = null;
+        lazyGuide = null;
+        if (lazyPos != null) {
+            Arrays.fill(lazyPos, 0);
+        }
+        forceb2 = false;
+        encodeVariableLengthFieldsInHex = false;
+        encoding = "ISO-8859-1";
+    }
+
+    /**
+     * Returns the message to the pool it was taken from, after {@link #reset()}. Neither the message
+     * nor its fields may be used after it is released. Messages that were not taken from a pool
+     * are left alone.
+     *
+     * @return true if the message went back to a pool.
+     * @throws IllegalStateException if the message was already released.
+     */
+    public boolean release() {
+        if (recycleHandle == null) {
+            return false;
+        }
+        if (!inUse) {
+            throw new IllegalStateException("Message already released");
+        }
+        inUse = false;
+        if (leak != null) {
+            leak.close(this);
+            leak = null;
+        }
+        reset();
+        recycleHandle.recycle(this);
+        return true;
+    }
+
+    void setRecycleHandle(Recycler.Handle<IsoMessage> handle) {
+        recycleHandle = handle;
+    }
+
+    void acquired(ResourceLeakTracker<IsoMessage> tracker) {
+        inUse = true;
+        leak = tracker;
+    }
+
+    /**
+     * Records the position of a lazily parsed field in the source buffer.
+     */
+    void setLazyField(int index, int pos) {
+        lazyPos[index] = pos;
+        bitmap.set(index);
+    }
+
+    private void decodeLazyField(int index) {
+        final FieldParseInfo fpi = lazyGuide.get(index);
+        final int pos = lazyPos[index];
+        try {
+            final IsoValue<Object> slot = binaryFields ? null : slot(index);
+            IsoValue<?> v = binaryFields ? fpi.parseBinary(index, lazyBuf, pos)
+                    : slot == null ? fpi.parse(index, lazyBuf, pos) : fpi.parse(index, lazyBuf, pos, slot);
+            if (v != null) {
+                v.setCharacterEncoding(encoding);
+            }
+            fields[index] = v;
+            bitmap.set(index, v != null);
+            lazyPos[index] = 0;
+        } catch (ParseException | UnsupportedEncodingException ex) {
+            throw new IllegalStateException(String.format("Cannot decode field %d at pos %d", index, pos), ex);
+        }
+    }
+
     /**
      * Stored the field in the specified index. The first field is the secondary bitmap and has index 1,
      * so the first valid value for index must be 2.
@@ -183,6 +436,10 @@ public class IsoMessage {
             field.setCharacterEncoding(encoding);
         }
         fields[index] = field;
+        bitmap.set(index, field != null);
+        if (lazyPos != null) {
+            lazyPos[index] = 0;
+        }
         return this;
     }
 
@@ -199,6 +456,8 @@ public class IsoMessage {
 
     /**
      * Sets the specified value in the specified field, creating an IsoValue internally.
+     * A pooled message refills the IsoValue of the field instead of creating one, so a value
+     * returned by {@link #getField(int)} before must be cloned to be kept.
      *
      * @param index  The field number (2 to 128)
      * @param value  The value to be stored.
@@ -214,8 +473,11 @@ public class IsoMessage {
         if (value == null) {
             fields[index] = null;
         } else {
-            IsoValue<T> v = null;
-            if (t.needsLength()) {
+            final IsoValue<Object> slot = slot(index);
+            final IsoValue<?> v;
+            if (slot != null) {
+                v = t.needsLength() ? slot.reuse(t, value, length) : slot.reuse(t, value);
+            } else if (t.needsLength()) {
                 v = new IsoValue<>(t, value, length);
             } else {
                 v = new IsoValue<>(t, value);
@@ -223,6 +485,10 @@ public class IsoMessage {
             v.setCharacterEncoding(encoding);
             fields[index] = v;
         }
+        bitmap.set(index, value != null);
+        if (lazyPos != null) {
+            lazyPos[index] = 0;
+        }
         return this;
     }
 
@@ -242,9 +508,12 @@ public class IsoMessage {
         if (current == null) {
             throw new IllegalArgumentException("Value-only field setter can only be used on existing fields");
         } else {
+            //read before setValue, which refills current in pooled messages
+            final String enc = current.getCharacterEncoding();
+            final TimeZone tz = current.getTimeZone();
             setValue(index, value, current.getType(), current.getLength());
-            getField(index).setCharacterEncoding(current.getCharacterEncoding());
-            getField(index).setTimeZone(current.getTimeZone());
+            getField(index).setCharacterEncoding(enc);
+            getField(index).setTimeZone(tz);
         }
         return this;
     }
@@ -255,15 +524,14 @@ public class IsoMessage {
      * @param idx The field number.
      */
     public boolean hasField(int idx) {
-        return fields[idx] != null;
+        return bitmap.get(idx);
     }
 
     /**
      * Writes a message to a stream, after writing the specified number of bytes indicating
-     * the message's length. The message will first be written to an internal memory stream
-     * which will then be dumped into the specified stream. This method flushes the stream
-     * after the write. There are at most three write operations to the stream: one for the
-     * length header, one for the message, and the last one with for the ETX.
+     * the message's length. The length header and the message are written into one array
+     * of the exact size, which is written to the stream in a single operation. This method
+     * flushes the stream after the write.
      *
      * @param outs        The stream to write the message to.
      * @param lengthBytes The size of the message length header. Valid ranges are 0 to 4.
@@ -274,28 +542,11 @@ public class IsoMessage {
         if (lengthBytes > 4) {
             throw new IllegalArgumentException("The length header can have at most 4 bytes");
         }
-        byte[] data = writeData();
-
-        if (lengthBytes > 0) {
-            int l = data.length;
-            byte[] buf = new byte[lengthBytes];
-            int pos = 0;
-            if (lengthBytes == 4) {
-                buf[0] = (byte) ((l & 0xff000000) >> 24);
-                pos++;
-            }
-            if (lengthBytes > 2) {
-                buf[pos] = (byte) ((l & 0xff0000) >> 16);
-                pos++;
-            }
-            if (lengthBytes > 1) {
-                buf[pos] = (byte) ((l & 0xff00) >> 8);
-                pos++;
-            }
-            buf[pos] = (byte) (l & 0xff);
-            outs.write(buf);
-        }
-        outs.write(data);
+        final int l = encodedLength();
+        byte[] buf = new byte[lengthBytes + l];
+        putLength(buf, 0, lengthBytes, l);
+        writeData(buf, lengthBytes);
+        outs.write(buf);
         outs.flush();
     }
 
@@ -307,91 +558,221 @@ public class IsoMessage {
         if (lengthBytes > 4) {
             throw new IllegalArgumentException("The length header can have at most 4 bytes");
         }
+        return ByteBuffer.wrap(toBytes(lengthBytes));
+    }
 
-        byte[] data = writeData();
-        ByteBuffer buf = ByteBuffer.allocate(lengthBytes + data.length);
-        if (lengthBytes > 0) {
-            int l = data.length;
-            if (lengthBytes == 4) {
-                buf.put((byte) ((l & 0xff000000) >> 24));
+    /**
+     * Creates a BitSet for the bitmap.
+     */
+    protected BitSet createBitmapBitSet() {
+        final boolean secondary = forceb2 || bitmap.hasSecondary();
+        BitSet bs = new BitSet(secondary ? 128 : 64);
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            bs.set(i - 1);
+        }
+        if (secondary) {
+            bs.set(0);
+        }
+        return bs;
+    }
+
+    /**
+     * Returns a copy of the bitmap with the fields present in the message. Field 1 is not set;
+     * it is added when the message is written, if the secondary bitmap is needed.
+     */
+    public Bitmap getBitmap() {
+        return new Bitmap(bitmap.getLow(), bitmap.getHigh());
+    }
+
+    /**
+     * Returns the number of bytes of the message type, bitmap and fields, as written by
+     * {@link #writeData()}. Text fields are only encoded to find out their length if they
+     * have characters outside ASCII.
+     *
+     * @throws UnsupportedEncodingException if the message's encoding is not supported.
+     */
+    public int encodedLength() throws UnsupportedEncodingException {
+        int l = IsoValue.asciiCompatible(encoding) && (type & ~0xffff) == 0
+                ? 4 : String.format("%04x", type).getBytes(encoding).length;
+        l += bitmap.binaryLength(forceb2);
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            IsoValue<?> v = getField(i);
+            if (v != null) {
+                l += v.encodedLength(binaryFields, false);
             }
-            if (lengthBytes > 2) {
-                buf.put((byte) ((l & 0xff0000) >> 16));
+        }
+        return l;
+    }
+
+    /**
+     * Writes the message type, bitmap and fields into the buffer, without a length header.
+     * The buffer must have room for {@link #encodedLength()} bytes.
+     *
+     * @param buf The buffer to write to.
+     * @param pos The position of the first byte to write.
+     * @return The position after the message.
+     * @throws UnsupportedEncodingException if the message's encoding is not supported.
+     */
+    public int writeData(byte[] buf, int pos) throws UnsupportedEncodingException {
+        if (IsoValue.asciiCompatible(encoding) && (type & ~0xffff) == 0) {
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                buf[pos++] = (byte) Character.forDigit((type >> shift) & 0xf, 16);
             }
-            if (lengthBytes > 1) {
-                buf.put((byte) ((l & 0xff00) >> 8));
+        } else {
+            final byte[] mti = String.format("%04x", type).getBytes(encoding);
+            System.arraycopy(mti, 0, buf, pos, mti.length);
+            pos += mti.length;
+        }
+        //Bitmap
+        pos = bitmap.write(buf, pos, forceb2);
+        //Fields
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            IsoValue<?> v = getField(i);
+            if (v != null) {
+                pos = v.encode(buf, pos, binaryFields, false);
             }
-            buf.put((byte) (l & 0xff));
         }
-        buf.put(data);
-        buf.flip();
-        return buf;
+        return pos;
     }
 
     /**
-     * Creates a BitSet for the bitmap.
+     * Same as {@link #writeData(byte[], int)}, writing at the index of the Netty buffer through its
+     * index API, so that direct and composite buffers are written in place. The writer index is not
+     * moved.
+     *
+     * @return The index after the message.
+     * @throws UnsupportedEncodingException if the message's encoding is not supported.
      */
-    protected BitSet createBitmapBitSet() {
-        BitSet bs = new BitSet(forceb2 ? 128 : 64);
-        for (int i = 2; i < 129; i++) {
-            if (fields[i] != null) {
-                bs.set(i - 1);
+    public int writeData(ByteBuf buf, int index) throws UnsupportedEncodingException {
+        if (IsoValue.asciiCompatible(encoding) && (type & ~0xffff) == 0) {
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                buf.setByte(index++, Character.forDigit((type >> shift) & 0xf, 16));
             }
+        } else {
+            final byte[] mti = String.format("%04x", type).getBytes(encoding);
+            buf.setBytes(index, mti);
+            index += mti.length;
         }
-        if (forceb2) {
-            bs.set(0);
-        } else if (bs.length() > 64) {
-            //Extend to 128 if needed
-            BitSet b2 = new BitSet(128);
-            b2.or(bs);
-            bs = b2;
-            bs.set(0);
+        //Bitmap
+        index = bitmap.write(buf, index, forceb2);
+        //Fields
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            IsoValue<?> v = getField(i);
+            if (v != null) {
+                index = v.encode(buf, index, binaryFields, false);
+            }
         }
-        return bs;
+        return index;
     }
 
     /**
-     * Writes the message to a memory stream and returns a byte array with the result.
+     * Writes the message into an array of the exact size and returns it.
      */
     public byte[] writeData() {
-        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        return toBytes(0);
+    }
+
+    /**
+     * Writes the message type, bitmap and fields to the stream, without a length header.
+     */
+    protected void writeData(OutputStream outs) throws IOException {
+        outs.write(writeData());
+    }
+
+    /**
+     * Returns an array with the binary length header of the specified size, followed by the message.
+     */
+    private byte[] toBytes(int lengthBytes) {
         try {
-            bout.write(String.format("%04x", type).getBytes(encoding));
-        } catch (IOException ex) {
-            //should never happen, writing to a ByteArrayOutputStream
+            final int l = encodedLength();
+            final byte[] buf = new byte[lengthBytes + l];
+            putLength(buf, 0, lengthBytes, l);
+            writeData(buf, lengthBytes);
+            return buf;
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("Cannot encode message with " + encoding, ex);
         }
-        //Bitmap
-        BitSet bs = createBitmapBitSet();
-        //Write bitmap to stream
-
-        int pos = 128;
-        int b = 0;
-        for (int i = 0; i < bs.size(); i++) {
-            if (bs.get(i)) {
-                b |= pos;
-            }
-            pos >>= 1;
-            if (pos == 0) {
-                bout.write(b);
-                pos = 128;
-                b = 0;
-            }
+    }
 
+    /**
+     * Writes the length as a big-endian binary header of the specified number of bytes.
+     */
+    private static void putLength(byte[] buf, int pos, int lengthBytes, int l) {
+        for (int i = pos + lengthBytes - 1; i >= pos; i--) {
+            buf[i] = (byte) l;
+            l >>= 8;
+        }
+    }
 
+    private static void putLength(ByteBuf buf, int index, int lengthBytes, int l) {
+        for (int i = index + lengthBytes - 1; i >= index; i--) {
+            buf.setByte(i, l);
+            l >>= 8;
         }
+    }
 
-        //Fields
-        for (int i = 2; i < 129; i++) {
-            IsoValue<?> v = fields[i];
-            if (v != null) {
-                try {
-                    v.write(bout, binaryFields, false);
-                } catch (IOException ex) {
-                    //should never happen, writing to a ByteArrayOutputStream
-                }
+    /**
+     * Writes the message at the buffer's position, after a binary length header of the specified
+     * number of bytes, and advances the position. The message is encoded straight into the
+     * backing array of heap buffers, and into direct buffers through {@link #writeData(ByteBuf, int)}.
+     *
+     * @param buf         The buffer to write to.
+     * @param lengthBytes The size of the message length header. Valid ranges are 0 to 4.
+     * @throws java.nio.BufferOverflowException if the message does not fit in the buffer.
+     */
+    public void write(final ByteBuffer buf, int lengthBytes) {
+        if (lengthBytes > 4) {
+            throw new IllegalArgumentException("The length header can have at most 4 bytes");
+        }
+        try {
+            final int l = encodedLength();
+            if (buf.remaining() < lengthBytes + l) {
+                throw new BufferOverflowException();
+            }
+            if (!buf.hasArray()) {
+                final ByteBuf view = Unpooled.wrappedBuffer(buf);
+                putLength(view, 0, lengthBytes, l);
+                writeData(view, lengthBytes);
+                buf.position(buf.position() + lengthBytes + l);
+                return;
+            }
+            final int start = buf.arrayOffset() + buf.position();
+            putLength(buf.array(), start, lengthBytes, l);
+            writeData(buf.array(), start + lengthBytes);
+            buf.position(buf.position() + lengthBytes + l);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("Cannot encode message with " + encoding, ex);
+        }
+    }
+
+    /**
+     * Writes the message at the Netty buffer's writer index, after a binary length header of the
+     * specified number of bytes, and advances the writer index. The buffer grows as needed. Heap
+     * buffers are written through their array, direct and composite buffers through their index API.
+     *
+     * @param buf         The buffer to write to.
+     * @param lengthBytes The size of the message length header. Valid ranges are 0 to 4.
+     */
+    public void write(ByteBuf buf, int lengthBytes) {
+        if (lengthBytes > 4) {
+            throw new IllegalArgumentException("The length header can have at most 4 bytes");
+        }
+        try {
+            final int l = encodedLength();
+            buf.ensureWritable(lengthBytes + l);
+            if (!buf.hasArray()) {
+                putLength(buf, buf.writerIndex(), lengthBytes, l);
+                writeData(buf, buf.writerIndex() + lengthBytes);
+                buf.writerIndex(buf.writerIndex() + lengthBytes + l);
+                return;
             }
+            final int start = buf.arrayOffset() + buf.writerIndex();
+            putLength(buf.array(), start, lengthBytes, l);
+            writeData(buf.array(), start + lengthBytes);
+            buf.writerIndex(buf.writerIndex() + lengthBytes + l);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException("Cannot encode message with " + encoding, ex);
         }
-        return bout.toByteArray();
     }
 
 
@@ -411,25 +792,11 @@ public class IsoMessage {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("%04x", type));
         //Bitmap
-        BitSet bs = createBitmapBitSet();
-        int pos = 0;
-        int lim = bs.size() / 4;
-        for (int i = 0; i < lim; i++) {
-            int nibble = 0;
-            if (bs.get(pos++))
-                nibble |= 8;
-            if (bs.get(pos++))
-                nibble |= 4;
-            if (bs.get(pos++))
-                nibble |= 2;
-            if (bs.get(pos++))
-                nibble |= 1;
-            sb.append(new String(HEX, nibble, 1));
-        }
+        bitmap.appendHex(sb, forceb2);
 
         //Fields
-        for (int i = 2; i < 129; i++) {
-            IsoValue<?> v = fields[i];
+        for (int i = bitmap.nextField(2); i > 0; i = bitmap.nextField(i + 1)) {
+            IsoValue<?> v = getField(i);
             if (v != null) {
                 String desc = v.toString();
                 if (v.getType() == IsoType.LLBIN || v.getType() == IsoType.LLBCD || v.getType() == IsoType.LLVAR) {
@@ -535,6 +902,10 @@ public class IsoMessage {
     }
 
     public void printMsg() {
+        if (!logger.isDebugEnabled()) {
+            //don't decode lazy fields just to throw the text away
+            return;
+        }
         StringBuilder stringBuilder = new StringBuilder("\n-----------------------------------------------------").append('\n');
         stringBuilder.append("Message TypeID = [").append(Integer.toHexString(getType())).append("]").append('\n');
         for (int i = 2; i <= 128; i++) {
@@ -0,0 +1,51 @@
+package com.easy.iso8583;
+
+import io.netty.util.Recycler;
+import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakDetectorFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * A pool of recyclable messages. Messages are taken with {@link #acquire()} and go back to the pool
+ * with {@link IsoMessage#release()}, which resets them but keeps their field arrays, lazy field
+ * positions and frame copy, so once a link has warmed up the pool a message costs next to no
+ * allocation. The pool is backed by a Netty {@link Recycler}, which keeps a cache per thread;
+ * messages may be released by a different thread than the one that acquired them.
+ * <p>
+ * Messages that are garbage collected without being released are reported as leaks by a Netty
+ * {@link ResourceLeakDetector}, sampled according to the {@code io.netty.leakDetection.level}
+ * system property, same as Netty buffers.
+ */
+public final class IsoMessagePool<T extends IsoMessage> {
+
+    private static final ResourceLeakDetector<IsoMessage> LEAK_DETECTOR =
+            ResourceLeakDetectorFactory.instance().newResourceLeakDetector(IsoMessage.class);
+
+    private final Recycler<T> recycler;
+
+    /**
+     * Creates a pool that fills itself with the messages created by the specified supplier.
+     */
+    public IsoMessagePool(final Supplier<T> supplier) {
+        recycler = new Recycler<T>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected T newObject(Handle<T> handle) {
+                final T m = supplier.get();
+                m.setRecycleHandle((Handle<IsoMessage>) (Handle<?>) handle);
+                return m;
+            }
+        };
+    }
+
+    /**
+     * Takes an empty message from the pool, creating it if the pool is empty.
+     * The message must be given back with {@link IsoMessage#release()}.
+     */
+    public T acquire() {
+        final T m = recycler.get();
+        m.acquired(LEAK_DETECTOR.track(m));
+        return m;
+    }
+}
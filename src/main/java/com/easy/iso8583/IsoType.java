@@ -18,7 +18,11 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.easy.iso8583;
 
-import java.text.SimpleDateFormat;
+import com.easy.iso8583.util.DateCodec;
+import com.easy.iso8583.util.ZoneClock;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -155,32 +159,110 @@ public enum IsoType {
     }
 
     /**
-     * Formats a Date if the receiver is DATE10, DATE4, DATE_EXP, DATE12, DATE14 or TIME; throws an exception
+     * Formats a Date if the receiver is DATE10, DATE4, DATE_EXP, DATE12, DATE14, DATE6 or TIME; throws an exception
      * otherwise.
      */
     public String format(final Date value, TimeZone tz) {
-        final SimpleDateFormat sdf;
-        if (this == DATE10) {
-            sdf = new SimpleDateFormat("MMddHHmmss");
-        } else if (this == DATE4) {
-            sdf = new SimpleDateFormat("MMdd");
-        } else if (this == DATE_EXP) {
-            sdf = new SimpleDateFormat("yyMM");
-        } else if (this == TIME) {
-            sdf = new SimpleDateFormat("HHmmss");
-        } else if (this == DATE12) {
-            sdf = new SimpleDateFormat("yyMMddHHmmss");
-        } else if (this == DATE14) {
-            sdf = new SimpleDateFormat("YYYYMMddHHmmss");
-        } else if (this == DATE6) {
-            sdf = new SimpleDateFormat("yyMMdd");
-        } else {
-            throw new IllegalArgumentException("Cannot format date as " + this);
+        final byte[] buf = new byte[14];
+        final int len = format(value.getTime(), tz, buf, 0, false);
+        return new String(buf, 0, len, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes the date in the format of the receiver, which must be DATE10, DATE4, DATE_EXP, DATE12,
+     * DATE14, DATE6 or TIME, straight into the buffer as ASCII digits or BCD.
+     *
+     * @param millis The date as epoch milliseconds.
+     * @param tz     The time zone for the date, or null for the JVM default.
+     * @param bcd    Write two digits per byte instead of ASCII.
+     * @return The position after the date.
+     */
+    public int format(long millis, TimeZone tz, byte[] buf, int pos, boolean bcd) {
+        final ZoneClock.LocalFields f = ZoneClock.of(tz).getLocalFields(millis);
+        switch (this) {
+            case DATE14:
+                pos = DateCodec.put2(buf, pos, f.year / 100, bcd);
+                pos = DateCodec.put2(buf, pos, f.year % 100, bcd);
+                pos = DateCodec.put2(buf, pos, f.month, bcd);
+                pos = DateCodec.put2(buf, pos, f.day, bcd);
+                return putTime(f, buf, pos, bcd);
+            case DATE12:
+                pos = DateCodec.put2(buf, pos, f.year % 100, bcd);
+                pos = DateCodec.put2(buf, pos, f.month, bcd);
+                pos = DateCodec.put2(buf, pos, f.day, bcd);
+                return putTime(f, buf, pos, bcd);
+            case DATE10:
+                pos = DateCodec.put2(buf, pos, f.month, bcd);
+                pos = DateCodec.put2(buf, pos, f.day, bcd);
+                return putTime(f, buf, pos, bcd);
+            case DATE6:
+                pos = DateCodec.put2(buf, pos, f.year % 100, bcd);
+                pos = DateCodec.put2(buf, pos, f.month, bcd);
+                return DateCodec.put2(buf, pos, f.day, bcd);
+            case DATE4:
+                pos = DateCodec.put2(buf, pos, f.month, bcd);
+                return DateCodec.put2(buf, pos, f.day, bcd);
+            case DATE_EXP:
+                pos = DateCodec.put2(buf, pos, f.year % 100, bcd);
+                return DateCodec.put2(buf, pos, f.month, bcd);
+            case TIME:
+                return putTime(f, buf, pos, bcd);
+            default:
+                throw new IllegalArgumentException("Cannot format date as " + this);
         }
-        if (tz != null) {
-            sdf.setTimeZone(tz);
+    }
+
+    private static int putTime(ZoneClock.LocalFields f, byte[] buf, int pos, boolean bcd) {
+        pos = DateCodec.put2(buf, pos, f.hour, bcd);
+        pos = DateCodec.put2(buf, pos, f.minute, bcd);
+        return DateCodec.put2(buf, pos, f.second, bcd);
+    }
+
+    /**
+     * Same as {@link #format(long, TimeZone, byte[], int, boolean)} in ASCII digits, at the index
+     * of the Netty buffer.
+     *
+     * @return The index after the date.
+     */
+    public int format(long millis, TimeZone tz, ByteBuf buf, int index) {
+        final ZoneClock.LocalFields f = ZoneClock.of(tz).getLocalFields(millis);
+        switch (this) {
+            case DATE14:
+                index = DateCodec.put2(buf, index, f.year / 100);
+                index = DateCodec.put2(buf, index, f.year % 100);
+                index = DateCodec.put2(buf, index, f.month);
+                index = DateCodec.put2(buf, index, f.day);
+                return putTime(f, buf, index);
+            case DATE12:
+                index = DateCodec.put2(buf, index, f.year % 100);
+                index = DateCodec.put2(buf, index, f.month);
+                index = DateCodec.put2(buf, index, f.day);
+                return putTime(f, buf, index);
+            case DATE10:
+                index = DateCodec.put2(buf, index, f.month);
+                index = DateCodec.put2(buf, index, f.day);
+                return putTime(f, buf, index);
+            case DATE6:
+                index = DateCodec.put2(buf, index, f.year % 100);
+                index = DateCodec.put2(buf, index, f.month);
+                return DateCodec.put2(buf, index, f.day);
+            case DATE4:
+                index = DateCodec.put2(buf, index, f.month);
+                return DateCodec.put2(buf, index, f.day);
+            case DATE_EXP:
+                index = DateCodec.put2(buf, index, f.year % 100);
+                return DateCodec.put2(buf, index, f.month);
+            case TIME:
+                return putTime(f, buf, index);
+            default:
+                throw new IllegalArgumentException("Cannot format date as " + this);
         }
-        return sdf.format(value);
+    }
+
+    private static int putTime(ZoneClock.LocalFields f, ByteBuf buf, int index) {
+        index = DateCodec.put2(buf, index, f.hour);
+        index = DateCodec.put2(buf, index, f.minute);
+        return DateCodec.put2(buf, index, f.second);
     }
 
     /**
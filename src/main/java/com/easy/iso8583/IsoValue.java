@@ -19,17 +19,28 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 package com.easy.iso8583;
 
 
+import com.easy.iso8583.util.AsciiDigits;
 import com.easy.iso8583.util.Bcd;
 import com.easy.iso8583.util.DateUtils;
 import com.easy.iso8583.util.HexCodec;
+import io.netty.buffer.ByteBuf;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a value that is stored in a field inside an ISO8583 message.
@@ -44,8 +55,21 @@ import java.util.TimeZone;
 
 public class IsoValue<T> implements Cloneable {
 
-    private final IsoType type;
-    private final T value;
+    private static final Set<IsoType> DATE_TYPES = EnumSet.of(IsoType.DATE10, IsoType.DATE4, IsoType.DATE_EXP,
+            IsoType.TIME, IsoType.DATE12, IsoType.DATE14, IsoType.DATE6);
+    private static final String ASCII;
+    private static final Map<String, Boolean> ASCII_ENCODINGS = new ConcurrentHashMap<>();
+
+    static {
+        final char[] c = new char[0x80];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = (char) i;
+        }
+        ASCII = new String(c);
+    }
+
+    private IsoType type;
+    private T value;
     private int length;
     private String encoding;
     private TimeZone tz;
@@ -60,6 +84,10 @@ public class IsoValue<T> implements Cloneable {
      * @param value The value to be stored.
      */
     public IsoValue(IsoType t, T value) {
+        assign(t, value);
+    }
+
+    private void assign(IsoType t, T value) {
         if (t.needsLength()) {
             throw new IllegalArgumentException("Fixed-value types must use constructor that specifies length");
         }
@@ -108,6 +136,10 @@ public class IsoValue<T> implements Cloneable {
      * @param len The length for the value.
      */
     public IsoValue(IsoType t, T val, int len) {
+        assign(t, val, len);
+    }
+
+    private void assign(IsoType t, T val, int len) {
         type = t;
         value = val;
         length = len;
@@ -136,6 +168,48 @@ public class IsoValue<T> implements Cloneable {
         }
     }
 
+    /**
+     * Replaces the contents of the value, as if it had just been created with
+     * {@link #IsoValue(IsoType, Object)}. For the field slots of pooled messages, which are
+     * refilled instead of allocated on every parse and {@link IsoMessage#setValue}; a value that
+     * other code may hold must not be changed.
+     *
+     * @return The receiver.
+     */
+    public IsoValue<T> reuse(IsoType t, T value) {
+        encoding = null;
+        tz = null;
+        assign(t, value);
+        return this;
+    }
+
+    /**
+     * Same as {@link #reuse(IsoType, Object)}, as if created with {@link #IsoValue(IsoType, Object, int)}.
+     *
+     * @return The receiver.
+     */
+    public IsoValue<T> reuse(IsoType t, T value, int len) {
+        encoding = null;
+        tz = null;
+        assign(t, value, len);
+        return this;
+    }
+
+    /**
+     * Same as {@link #reuse(IsoType, Object)}, copying the type, value, length, encoding and time zone
+     * of the other value.
+     *
+     * @return The receiver.
+     */
+    public IsoValue<T> reuse(IsoValue<? extends T> other) {
+        type = other.type;
+        value = other.value;
+        length = other.length;
+        encoding = other.encoding;
+        tz = other.tz;
+        return this;
+    }
+
     /**
      * Returns the ISO type to which the value must be formatted.
      */
@@ -159,6 +233,26 @@ public class IsoValue<T> implements Cloneable {
         return value;
     }
 
+    /**
+     * Returns the stored value as a long. Numbers are converted (BigInteger and BigDecimal
+     * only if they fit exactly), and Strings must contain only digits.
+     *
+     * @throws IllegalArgumentException if the value is not a number.
+     * @throws ArithmeticException      if the value does not fit in a long.
+     */
+    public long longValue() {
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).longValueExact();
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).longValueExact();
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof CharSequence) {
+            return AsciiDigits.parseLong((CharSequence) value);
+        }
+        throw new IllegalArgumentException(String.format("%s value is not a number", type));
+    }
+
     public void setCharacterEncoding(String value) {
         encoding = value;
     }
@@ -269,47 +363,67 @@ public class IsoValue<T> implements Cloneable {
                                      final boolean binary,
                                      final boolean forceHexadecimalLength)
             throws IOException {
-        final int digits;
-        if (type == IsoType.LLLLBIN || type == IsoType.LLLLVAR || type == IsoType.LLLLBCD) {
-            digits = 4;
-        } else if (type == IsoType.LLLBIN || type == IsoType.LLLVAR || type == IsoType.LLLBCD) {
-            digits = 3;
-        } else {
-            digits = 2;
-        }
-
+        final byte[] buf = new byte[4];
+        outs.write(buf, 0, putLengthHeader(l, type, buf, 0, binary, forceHexadecimalLength));
+    }
 
+    /**
+     * Writes the length header into the buffer, same as
+     * {@link #writeLengthHeader(int, OutputStream, IsoType, boolean, boolean)}.
+     *
+     * @return The position after the header.
+     */
+    private static int putLengthHeader(final int l, final IsoType type, final byte[] buf, int pos,
+                                       final boolean binary, final boolean forceHexadecimalLength) {
+        final int digits = Math.max(headerDigits(type), 2);
         if (binary) {
             if (forceHexadecimalLength) {
                 if (digits > 2) {
-                    outs.write(new byte[]{(byte) (l >>> 8), (byte) l});
-                } else {
-                    outs.write(new byte[]{(byte) l});
+                    buf[pos++] = (byte) (l >>> 8);
                 }
+                buf[pos++] = (byte) l;
             } else {
                 if (digits == 4) {
-                    outs.write((((l % 10000) / 1000) << 4) | ((l % 1000) / 100));
+                    buf[pos++] = (byte) ((((l % 10000) / 1000) << 4) | ((l % 1000) / 100));
                 } else if (digits == 3) {
-                    outs.write(l / 100); //00 to 09 automatically in BCD
+                    buf[pos++] = (byte) (l / 100); //00 to 09 automatically in BCD
                 }
                 //BCD encode the rest of the length
-                outs.write((((l % 100) / 10) << 4) | (l % 10));
+                buf[pos++] = (byte) ((((l % 100) / 10) << 4) | (l % 10));
             }
-
         } else {
             //write the length in ASCII
             if (digits == 4) {
-                outs.write((l / 1000) + 48);
-                outs.write(((l % 1000) / 100) + 48);
+                buf[pos++] = (byte) ((l / 1000) + 48);
+                buf[pos++] = (byte) (((l % 1000) / 100) + 48);
             } else if (digits == 3) {
-                outs.write((l / 100) + 48);
+                buf[pos++] = (byte) ((l / 100) + 48);
             }
-            if (l >= 10) {
-                outs.write(((l % 100) / 10) + 48);
-            } else {
-                outs.write(48);
-            }
-            outs.write((l % 10) + 48);
+            buf[pos++] = (byte) (((l % 100) / 10) + 48);
+            buf[pos++] = (byte) ((l % 10) + 48);
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the number of digits in the length header of the type, or 0 if it has a fixed length.
+     */
+    private static int headerDigits(final IsoType type) {
+        switch (type) {
+            case LLVAR:
+            case LLBCD:
+            case LLBIN:
+                return 2;
+            case LLLVAR:
+            case LLLBCD:
+            case LLLBIN:
+                return 3;
+            case LLLLVAR:
+            case LLLLBCD:
+            case LLLLBIN:
+                return 4;
+            default:
+                return 0;
         }
     }
 
@@ -329,62 +443,273 @@ public class IsoValue<T> implements Cloneable {
 
     public byte[] valueToBytes(final boolean binary,
                                final boolean forceHexadecimalLength) throws IOException {
-        ByteArrayOutputStream outs = new ByteArrayOutputStream();
-        if (type == IsoType.LLLVAR || type == IsoType.LLVAR || type == IsoType.LLLLVAR) {
-            writeLengthHeader(length, outs, type, binary, forceHexadecimalLength);
-        } else if (type == IsoType.LLBCD || type == IsoType.LLLBCD || type == IsoType.LLLLBCD) {
-            writeLengthHeader(length, outs, type, binary, forceHexadecimalLength);
-        } else if (type == IsoType.LLBIN || type == IsoType.LLLBIN || type == IsoType.LLLLBIN) {
-            writeLengthHeader(length, outs, type, binary, forceHexadecimalLength);
+        final byte[] buf = new byte[encodedLength(binary, forceHexadecimalLength)];
+        encode(buf, 0, binary, forceHexadecimalLength);
+        return buf;
+    }
+
+    /**
+     * Returns the number of bytes that {@link #encode(byte[], int, boolean, boolean)} writes,
+     * including the length header. Text is only encoded to find out its length if it has
+     * characters outside ASCII, or the encoding doesn't write ASCII as one byte per character.
+     */
+    public int encodedLength(final boolean binary,
+                             final boolean forceHexadecimalLength) throws UnsupportedEncodingException {
+        if (isDateValue()) {
+            if (binary && type != IsoType.DATE6) {
+                return type.getLength() / 2;
+            } else if (asciiCompatible(encoding)) {
+                return type.getLength();
+            }
+        }
+        final int digits = headerDigits(type);
+        int header = 0;
+        if (digits > 0) {
+            header = binary ? (digits > 2 ? 2 : 1) : digits;
         } else if (binary) {
-            //numeric types in binary are coded like this
-            byte[] buf = null;
             if (type == IsoType.NUMERIC) {
-                buf = new byte[(length / 2) + (length % 2)];
-            } else if (type == IsoType.DATE10 || type == IsoType.DATE4 ||
-                    type == IsoType.DATE_EXP || type == IsoType.TIME ||
-                    type == IsoType.DATE12 || type == IsoType.DATE14) {
-                buf = new byte[length / 2];
+                return (length / 2) + (length % 2);
+            } else if (DATE_TYPES.contains(type) && type != IsoType.DATE6) {
+                return length / 2;
             }
-            //Encode in BCD if it's one of these types
-            if (buf != null) {
-                Bcd.encode(toString(), buf);
-                outs.write(buf);
-                return outs.toByteArray();
+        }
+        if (binary && (type == IsoType.BINARY || IsoType.VARIABLE_LENGTH_BIN_TYPES.contains(type))) {
+            //odd hex strings are padded with a zero before decoding
+            final int l = value instanceof byte[] ? ((byte[]) value).length : (value.toString().length() + 1) / 2;
+            return header + (type == IsoType.BINARY ? Math.max(l, length) : l);
+        } else if (value instanceof byte[]) {
+            return header + ((byte[]) value).length;
+        }
+        if (value != null && asciiCompatible(encoding)) {
+            if (type == IsoType.ALPHA || type == IsoType.NUMERIC) {
+                final String v = value.toString();
+                if (isAscii(v)) {
+                    checkNumericLength(v);
+                    return header + length;
+                }
+            } else {
+                final String s = toString();
+                if (isAscii(s)) {
+                    return header + s.length();
+                }
             }
         }
+        return header + textBytes().length;
+    }
+
+    /**
+     * Writes the formatted value into the buffer, with the length header if it's a variable
+     * length type. The bytes are the same as those of {@link #valueToBytes(boolean, boolean)}.
+     * The buffer must have room for {@link #encodedLength(boolean, boolean)} bytes.
+     *
+     * @param buf    The buffer to write to.
+     * @param pos    The position of the first byte to write.
+     * @param binary Specifies whether the value should be written in binary or text format.
+     * @return The position after the value.
+     */
+    public int encode(final byte[] buf, int pos, final boolean binary,
+                      final boolean forceHexadecimalLength) throws UnsupportedEncodingException {
+        if (isDateValue()) {
+            //Dates are written straight as digits, without formatting a String
+            if (binary && type != IsoType.DATE6) {
+                return type.format(dateMillis(), tz, buf, pos, true);
+            } else if (asciiCompatible(encoding)) {
+                return type.format(dateMillis(), tz, buf, pos, false);
+            }
+        }
+        if (headerDigits(type) > 0) {
+            pos = putLengthHeader(length, type, buf, pos, binary, forceHexadecimalLength);
+        } else if (binary && (type == IsoType.NUMERIC || (DATE_TYPES.contains(type) && type != IsoType.DATE6))) {
+            //numeric types in binary are coded in BCD
+            final int l = type == IsoType.NUMERIC ? (length / 2) + (length % 2) : length / 2;
+            final String s = toString();
+            if (s.length() > l * 2) {
+                throw new IllegalArgumentException(String.format(
+                        "Value %s is too long for %d BCD bytes", s, l));
+            }
+            Arrays.fill(buf, pos, pos + l, (byte) 0);
+            Bcd.encode(s, buf, pos);
+            return pos + l;
+        }
         if (binary && (type == IsoType.BINARY || IsoType.VARIABLE_LENGTH_BIN_TYPES.contains(type))) {
-            int missing;
+            final byte[] binval;
             if (value instanceof byte[]) {
-                outs.write((byte[]) value);
-                missing = length - ((byte[]) value).length;
+                binval = (byte[]) value;
+            } else if (value.toString().length() % 2 == 1) {
+                binval = HexCodec.hexDecode(value.toString() + "0");
             } else {
-                byte[] binval;
-                if (value.toString().length() % 2 == 1) {
-                    binval = HexCodec.hexDecode(value.toString() + "0");
-                } else {
-                    binval = HexCodec.hexDecode(value.toString());
-                }
-                outs.write(binval);
-                missing = length - binval.length;
+                binval = HexCodec.hexDecode(value.toString());
             }
+            System.arraycopy(binval, 0, buf, pos, binval.length);
+            pos += binval.length;
+            final int missing = length - binval.length;
             if (type == IsoType.BINARY && missing > 0) {
-                for (int i = 0; i < missing; i++) {
-                    outs.write(0);
+                Arrays.fill(buf, pos, pos + missing, (byte) 0);
+                pos += missing;
+            }
+            return pos;
+        } else if (value instanceof byte[]) {
+            final byte[] b = (byte[]) value;
+            System.arraycopy(b, 0, buf, pos, b.length);
+            return pos + b.length;
+        }
+        if (value != null && asciiCompatible(encoding)) {
+            if (type == IsoType.ALPHA || type == IsoType.NUMERIC) {
+                //pad or truncate as IsoType.format does, without the intermediate String
+                final String v = value.toString();
+                if (isAscii(v)) {
+                    checkNumericLength(v);
+                    final int l = Math.min(v.length(), length);
+                    if (type == IsoType.ALPHA) {
+                        pos = putAscii(v, l, buf, pos);
+                        Arrays.fill(buf, pos, pos + length - l, (byte) ' ');
+                        return pos + length - l;
+                    }
+                    Arrays.fill(buf, pos, pos + length - l, (byte) '0');
+                    return putAscii(v, l, buf, pos + length - l);
+                }
+            } else {
+                final String s = toString();
+                if (isAscii(s)) {
+                    return putAscii(s, s.length(), buf, pos);
                 }
             }
-        } else {
+        }
+        final byte[] b = textBytes();
+        System.arraycopy(b, 0, buf, pos, b.length);
+        return pos + b.length;
+    }
 
-            if (value instanceof byte[]) {
-                outs.write((byte[]) value);
-                //missing = length - ((byte[]) value).length;
-            } 
-            else
-            {
-            	outs.write(encoding == null ? toString().getBytes() : toString().getBytes(encoding));
+    /**
+     * Same as {@link #encode(byte[], int, boolean, boolean)}, writing at the index of the Netty
+     * buffer through its index API, so that direct and composite buffers are written in place.
+     * The buffer must have room for {@link #encodedLength(boolean, boolean)} bytes; its writer
+     * index is not moved. Values in binary format are encoded into an array first.
+     *
+     * @return The index after the value.
+     */
+    public int encode(final ByteBuf buf, int index, final boolean binary,
+                      final boolean forceHexadecimalLength) throws UnsupportedEncodingException {
+        if (binary) {
+            final byte[] b = new byte[encodedLength(true, forceHexadecimalLength)];
+            encode(b, 0, true, forceHexadecimalLength);
+            buf.setBytes(index, b);
+            return index + b.length;
+        }
+        if (isDateValue() && asciiCompatible(encoding)) {
+            return type.format(dateMillis(), tz, buf, index);
+        }
+        final int digits = headerDigits(type);
+        if (digits > 0) {
+            //write the length in ASCII
+            int l = length;
+            for (int i = index + digits - 1; i >= index; i--) {
+                buf.setByte(i, '0' + l % 10);
+                l /= 10;
+            }
+            index += digits;
+        }
+        if (value instanceof byte[]) {
+            final byte[] b = (byte[]) value;
+            buf.setBytes(index, b);
+            return index + b.length;
+        }
+        if (value != null && asciiCompatible(encoding)) {
+            if (type == IsoType.ALPHA || type == IsoType.NUMERIC) {
+                final String v = value.toString();
+                if (isAscii(v)) {
+                    checkNumericLength(v);
+                    final int l = Math.min(v.length(), length);
+                    if (type == IsoType.ALPHA) {
+                        index = putAscii(v, l, buf, index);
+                        return fill(buf, index, length - l, ' ');
+                    }
+                    return putAscii(v, l, buf, fill(buf, index, length - l, '0'));
+                }
+            } else {
+                final String s = toString();
+                if (isAscii(s)) {
+                    return putAscii(s, s.length(), buf, index);
+                }
+            }
+        }
+        final byte[] b = textBytes();
+        buf.setBytes(index, b);
+        return index + b.length;
+    }
+
+    private boolean isDateValue() {
+        return DATE_TYPES.contains(type) && (value instanceof Date || value instanceof LocalDateTime
+                || value instanceof LocalDate);
+    }
+
+    private void checkNumericLength(String v) {
+        if (type == IsoType.NUMERIC && v.length() > length) {
+            throw new IllegalArgumentException("Numeric value is larger than intended length: " + v + " LEN " + length);
+        }
+    }
+
+    private byte[] textBytes() throws UnsupportedEncodingException {
+        return encoding == null ? toString().getBytes() : toString().getBytes(encoding);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int putAscii(String s, int len, byte[] buf, int pos) {
+        for (int i = 0; i < len; i++) {
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+    private static int putAscii(String s, int len, ByteBuf buf, int index) {
+        for (int i = 0; i < len; i++) {
+            buf.setByte(index++, s.charAt(i));
+        }
+        return index;
+    }
+
+    private static int fill(ByteBuf buf, int index, int count, char c) {
+        for (int i = 0; i < count; i++) {
+            buf.setByte(index++, c);
+        }
+        return index;
+    }
+
+    private long dateMillis() {
+        if (value instanceof LocalDateTime) {
+            return DateUtils.asDate((LocalDateTime) value).getTime();
+        } else if (value instanceof LocalDate) {
+            return DateUtils.asDate((LocalDate) value).getTime();
+        }
+        return ((Date) value).getTime();
+    }
+
+    /**
+     * Returns true if the encoding (null being the platform default) writes every ASCII character
+     * as the same single byte, so ASCII text can be written without encoding a String.
+     */
+    static boolean asciiCompatible(String encoding) {
+        if (encoding == null) {
+            encoding = Charset.defaultCharset().name();
+        }
+        Boolean ascii = ASCII_ENCODINGS.get(encoding);
+        if (ascii == null) {
+            try {
+                ascii = Arrays.equals(ASCII.getBytes(encoding), ASCII.getBytes(StandardCharsets.US_ASCII));
+            } catch (UnsupportedEncodingException ex) {
+                ascii = false;
             }
+            ASCII_ENCODINGS.put(encoding, ascii);
         }
-        return outs.toByteArray();
+        return ascii;
     }
 
     private void validateTypeWithVariableLength() {
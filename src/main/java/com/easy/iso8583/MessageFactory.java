@@ -22,10 +22,14 @@ package com.easy.iso8583;
 import com.easy.iso8583.parse.ConfigParser;
 import com.easy.iso8583.parse.DateTimeParseInfo;
 import com.easy.iso8583.parse.FieldParseInfo;
+import com.easy.iso8583.parse.ParseGuide;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.*;
@@ -39,13 +43,19 @@ public class MessageFactory<T extends IsoMessage> {
     Logger log = Logger.getLogger(MessageFactory.class);
 
     /**
-     * Stores the information needed to parse messages sorted by type.
+     * Stores the information needed to parse messages sorted by type. Parsing uses the guides
+     * compiled from it, so a subclass that changes it directly calls {@link #compileParseGuides()}.
      */
     protected Map<Integer, Map<Integer, FieldParseInfo>> parseMap = new HashMap<>();
     /**
      * Stores the field numbers to be parsed, in order of appearance.
      */
     protected Map<Integer, List<Integer>> parseOrder = new HashMap<>();
+    /**
+     * The parsing guides compiled from parseMap, indexed by message type: 256 pages of 256 types,
+     * allocated as types are added.
+     */
+    private volatile ParseGuide[][] parseGuides = new ParseGuide[256][];
 
 
     /**
@@ -63,6 +73,10 @@ public class MessageFactory<T extends IsoMessage> {
     /* Flag specifying that variable length fields have the length header encoded in hexadecimal format */
     private boolean variableLengthFieldsInHex;
     private String encoding = Charset.forName("ISO8859-1").displayName();
+    /* Flag specifying that parsed messages only record field positions and decode on demand */
+    private boolean lazyParsing;
+    /* The pool messages are taken from, if pooling is on */
+    private IsoMessagePool<T> pool;
 
     /**
      * This flag gets passed on to newly created messages and also sets this value for all
@@ -162,6 +176,42 @@ public class MessageFactory<T extends IsoMessage> {
         return binaryFields;
     }
 
+    /**
+     * If set, parsed messages only record where each field is in the buffer, and each field
+     * is decoded the first time it is requested. The message keeps a reference to the buffer
+     * passed to parseMessage, so the buffer must not be reused while the message is in use.
+     * Default is false.
+     */
+    public void setLazyParsing(boolean flag) {
+        lazyParsing = flag;
+    }
+
+    public boolean isLazyParsing() {
+        return lazyParsing;
+    }
+
+    /**
+     * Sets pooling on or off. When it's on, the messages returned by {@link #newMessage(int)},
+     * {@link #createResponse(IsoMessage)} and the parse methods are taken from an {@link IsoMessagePool}
+     * and must be given back with {@link IsoMessage#release()} when they are no longer needed.
+     * Parsed messages copy their frame into an array of their own, which they keep from one use to the
+     * next, and are always parsed lazily, so the buffer they were parsed from can be reused right away.
+     */
+    public void setPooling(boolean flag) {
+        pool = flag ? new IsoMessagePool<>(this::createIsoMessage) : null;
+    }
+
+    public boolean isPooling() {
+        return pool != null;
+    }
+
+    /**
+     * Returns an empty message from the pool if pooling is on, or a new one otherwise.
+     */
+    private T obtainMessage() {
+        return pool == null ? createIsoMessage() : pool.acquire();
+    }
+
 
     /**
      * Creates a new message of the specified type, with optional trace and date values as well
@@ -171,7 +221,7 @@ public class MessageFactory<T extends IsoMessage> {
      * @param type The message type, for example 0x200, 0x400, etc.
      */
     public T newMessage(int type) {
-        T m = createIsoMessage();
+        T m = obtainMessage();
         m.setType(type);
         m.setBinaryFields(isBinaryFields());
         m.setForceSecondaryBitmap(forceb2);
@@ -202,7 +252,7 @@ public class MessageFactory<T extends IsoMessage> {
      *                      the request are copied even in this flag is false.
      */
     public T createResponse(T request, boolean copyAllFields) {
-        T resp = createIsoMessage();
+        T resp = obtainMessage();
         resp.setCharacterEncoding(request.getCharacterEncoding());
         resp.setBinaryFields(request.isBinaryFields());
         resp.setType(request.getType() + 16);
@@ -212,13 +262,13 @@ public class MessageFactory<T extends IsoMessage> {
 
         for (int i = 2; i < 128; i++) {
             if (request.hasField(i)) {
-                resp.setField(i, request.getField(i).clone());
+                resp.setFieldCopy(i, request.getField(i));
             }
         }
         if (copyAllFields) {
             for (int i = 2; i < 128; i++) {
                 if (request.hasField(i)) {
-                    resp.setField(i, request.getField(i).clone());
+                    resp.setFieldCopy(i, request.getField(i));
                 }
             }
         }
@@ -251,50 +301,216 @@ public class MessageFactory<T extends IsoMessage> {
      */
     public T parseMessage(byte[] buf, int begin)
             throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, begin, buf.length, -1L, -1L);
+    }
+
+    /**
+     * Creates a new message instance from the remaining bytes of the buffer, which must contain
+     * exactly one message starting at its position, without the length header. Array backed
+     * buffers are parsed in place, and so are direct buffers as in {@link #parseMessage(ByteBuf)}.
+     * The position is moved to the limit.
+     */
+    public T parseMessage(ByteBuffer buf) throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, -1L, -1L);
+    }
+
+    /**
+     * Same as {@link #parseMessage(ByteBuffer)}, decoding only the specified fields
+     * as in {@link #parseMessage(byte[], int, Bitmap)}.
+     */
+    public T parseMessage(ByteBuffer buf, Bitmap wantedFields) throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, wantedFields.getLow(), wantedFields.getHigh());
+    }
+
+    /**
+     * Creates a new message instance from the readable bytes of the Netty buffer, which must contain
+     * exactly one message starting at its reader index, without the length header. Heap buffers are
+     * parsed in place through their array; direct and composite buffers are parsed in place too,
+     * through the buffer's index API, when the fields are in text. Binary fields in such buffers are
+     * copied once, as are all messages when lazy parsing or pooling is on, because the message keeps
+     * a reference to the bytes. The reader index is moved to the writer index. The buffer is not
+     * released.
+     */
+    public T parseMessage(ByteBuf buf) throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, -1L, -1L);
+    }
+
+    /**
+     * Same as {@link #parseMessage(ByteBuf)}, decoding only the specified fields
+     * as in {@link #parseMessage(byte[], int, Bitmap)}.
+     */
+    public T parseMessage(ByteBuf buf, Bitmap wantedFields) throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, wantedFields.getLow(), wantedFields.getHigh());
+    }
+
+    private T parseMessage(ByteBuffer buf, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = buf.remaining();
+        final T m;
+        if (pool != null) {
+            final T pooled = pool.acquire();
+            final byte[] frame = pooled.frameBuffer(len);
+            buf.duplicate().get(frame, 0, len);
+            m = parsePooled(pooled, frame, len, wantedLow, wantedHigh);
+        } else if (buf.hasArray() && !lazyParsing) {
+            final int begin = buf.arrayOffset() + buf.position();
+            m = parseMessage(buf.array(), begin, begin + len, wantedLow, wantedHigh);
+        } else if (!lazyParsing && !binaryFields) {
+            final ByteBuf view = Unpooled.wrappedBuffer(buf.duplicate());
+            m = parseMessage(createIsoMessage(), view, 0, len, wantedLow, wantedHigh);
+        } else {
+            final byte[] data = new byte[len];
+            buf.duplicate().get(data);
+            m = parseMessage(data, 0, len, wantedLow, wantedHigh);
+        }
+        buf.position(buf.limit());
+        return m;
+    }
+
+    private T parseMessage(ByteBuf buf, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = buf.readableBytes();
+        final T m;
+        if (pool != null) {
+            final T pooled = pool.acquire();
+            final byte[] frame = pooled.frameBuffer(len);
+            buf.getBytes(buf.readerIndex(), frame, 0, len);
+            m = parsePooled(pooled, frame, len, wantedLow, wantedHigh);
+        } else if (buf.hasArray() && !lazyParsing) {
+            final int begin = buf.arrayOffset() + buf.readerIndex();
+            m = parseMessage(buf.array(), begin, begin + len, wantedLow, wantedHigh);
+        } else if (!lazyParsing && !binaryFields) {
+            m = parseMessage(createIsoMessage(), buf, buf.readerIndex(), buf.writerIndex(), wantedLow, wantedHigh);
+        } else {
+            final byte[] data = new byte[len];
+            buf.getBytes(buf.readerIndex(), data);
+            m = parseMessage(data, 0, len, wantedLow, wantedHigh);
+        }
+        buf.skipBytes(len);
+        return m;
+    }
+
+    /**
+     * Creates a new message instance from the buffer, decoding only the specified fields.
+     * The other fields are skipped by reading their length from the parsing guide (and their
+     * length header for variable length types), without decoding their values, and parsing stops
+     * after the last wanted field in the message. Skipped fields are not set in the returned message.
+     * Useful for routing a message on a few fields before doing a full parse.
+     *
+     * @param buf          The byte buffer containing the message. Must not include the length header.
+     * @param wantedFields The numbers of the fields to decode.
+     */
+    public T parseMessage(byte[] buf, int begin, int... wantedFields)
+            throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, begin, fieldMask(wantedFields));
+    }
+
+    /**
+     * Same as {@link #parseMessage(byte[], int, int...)}, with the wanted fields in a bitmap
+     * that can be created once with {@link #fieldMask(int...)} and reused for every message.
+     */
+    public T parseMessage(byte[] buf, int begin, Bitmap wantedFields)
+            throws ParseException, UnsupportedEncodingException {
+        return parseMessage(buf, begin, buf.length, wantedFields.getLow(), wantedFields.getHigh());
+    }
+
+    /**
+     * Returns a bitmap with the specified fields set, to use with
+     * {@link #parseMessage(byte[], int, Bitmap)}.
+     */
+    public static Bitmap fieldMask(int... fields) {
+        Bitmap mask = new Bitmap();
+        for (int i : fields) {
+            if (i < 2 || i > 128) {
+                throw new IndexOutOfBoundsException("Field index must be between 2 and 128");
+            }
+            mask.set(i);
+        }
+        return mask;
+    }
+
+    /**
+     * Parses the message between begin and end; the buffer may extend past end.
+     */
+    private T parseMessage(byte[] buf, int begin, int end, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
+        if (pool == null) {
+            return parseMessage(createIsoMessage(), buf, begin, end, wantedLow, wantedHigh);
+        }
+        final T m = pool.acquire();
+        final byte[] frame = m.frameBuffer(end - begin);
+        System.arraycopy(buf, begin, frame, 0, end - begin);
+        return parsePooled(m, frame, end - begin, wantedLow, wantedHigh);
+    }
+
+    /**
+     * Parses the message copied to the start of the pooled message's frame buffer,
+     * giving the message back to the pool if it cannot be parsed.
+     */
+    private T parsePooled(T m, byte[] frame, int len, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
+        try {
+            return parseMessage(m, frame, 0, len, wantedLow, wantedHigh);
+        } catch (Exception ex) {
+            m.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Parses the message between begin and end into the empty message m.
+     */
+    private T parseMessage(T m, byte[] buf, int begin, int end, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
         final int minlength = (binaryFields ? 2 : 4) + 8;
-        if (buf.length < minlength) {
+        if (end < begin + minlength) {
             throw new ParseException("Insufficient buffer length, needs to be at least " + minlength, 0);
         }
-        final T m = createIsoMessage();
         m.setCharacterEncoding(encoding);
         final int type;
         if (binaryFields) {
             type = ((buf[begin] & 0xff) << 8) | (buf[begin + 1] & 0xff);
         } else {
-            type = Integer.parseInt(new String(buf, begin, 4, encoding), 16);
+            type = (hexDigit(buf, begin) << 12) | (hexDigit(buf, begin + 1) << 8)
+                    | (hexDigit(buf, begin + 2) << 4) | hexDigit(buf, begin + 3);
         }
         m.setType(type);
-        //Parse the bitmap (primary first)
-        final BitSet bitMap = new BitSet(128);
-        int pos = parseBitMap(buf, begin, minlength, bitMap);
-        log.warn(String.format("parseMap {%s} parseOrder {%s} ", parseMap, parseOrder));
-           
-        //Parse each field
-        Map<Integer, FieldParseInfo> parseGuide = parseMap.get(type);
-        List<Integer> index = parseOrder.get(type);
-        if (index == null) {
+        //Parse the bitmap (primary first); bit 0 of the low word is field 1
+        final int bitmapStart = begin + minlength - 8;
+        final long low = Bitmap.readWord(buf, bitmapStart);
+        final long high;
+        int pos;
+        if ((low & 1L) != 0) {
+            if (end < begin + minlength + 8) {
+                throw new ParseException("Insufficient length for secondary bitmap", minlength);
+            }
+            high = Bitmap.readWord(buf, bitmapStart + 8);
+            pos = begin + minlength + 8;
+        } else {
+            high = 0L;
+            pos = begin + minlength;
+        }
+
+        final ParseGuide guide = parseGuide(type);
+        if (guide == null) {
             throw new ParseException(String.format(
                     "ISO8583 MessageFactory has no parsing guide for message type %04x [%s]",
                     type,
-                    new String(buf)), 0);
+                    new String(buf, begin, end - begin)), 0);
         }
-        //First we check if the message contains fields not specified in the parsing template
-        boolean abandon = false;
-        for (int i = 1; i < bitMap.length(); i++) {
-            if (bitMap.get(i) && !index.contains(i + 1)) {
-                log.warn(String.format("ISO8583 MessageFactory cannot parse field {%d}: unspecified in parsing guide for type {%s}",
-                        i + 1, Integer.toString(type, 16)));
-                abandon = true;
-            }
+        checkFields(guide, type, low, high);
+        //Now we parse each field
+        if (lazyParsing || pool != null) {
+            m.setLazySource(buf, guide);
         }
-        if (abandon) {
-            throw new ParseException("ISO8583 MessageFactory cannot parse fields", 0);
+        final boolean wantsHigh = (high & wantedHigh) != 0;
+        pos = parseFields(buf, end, m, guide, low & ~1L, wantedLow, !wantsHigh, 1, pos);
+        if (wantsHigh) {
+            pos = parseFields(buf, end, m, guide, high, wantedHigh, true, 65, pos);
         }
-        //Now we parse each field
-        if (binaryFields) {
-            parseBinaryMsg(buf, m, bitMap, pos, parseGuide, index);
-        } else {
-            innerParseMsg(buf, m, bitMap, pos, parseGuide, index);
+        if (pos > end) {
+            throw new ParseException(String.format("Message fields end at %d, past the end of the message %d",
+                    pos - begin, end - begin), end);
         }
 
         m.setBinaryFields(binaryFields);
@@ -302,34 +518,221 @@ public class MessageFactory<T extends IsoMessage> {
         return m;
     }
 
-    private void innerParseMsg(byte[] buf, T m, BitSet bs, int pos, Map<Integer,
-            FieldParseInfo> parseGuide, List<Integer> index) throws ParseException, UnsupportedEncodingException {
-        for (Integer i : index) {
-            FieldParseInfo fpi = parseGuide.get(i);
-            if (bs.get(i - 1)) {
-                if (pos >= buf.length && i.intValue() == index.get(index.size() - 1)) {
-                    log.warn(String.format("Field {%d} is not really in the message even though it's in the bitmap", i));
-                    bs.clear(i - 1);
-                } else {
-                    IsoValue<?> val = fpi.parse(i, buf, pos);
-                    m.setField(i, val);
-                    if (val != null) {
-                        pos += val.getLength();
-                        if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN || val.getType() == IsoType.LLBCD) {
-                            pos += 2;
-                        } else if (val.getType() == LLLVAR || val.getType() == LLLBIN || val.getType() == IsoType.LLLBCD) {
-                            pos += 3;
-                        } else if (val.getType() == IsoType.LLLLVAR || val.getType() == IsoType.LLLLBIN || val.getType() == IsoType.LLLLBCD) {
-                            pos += 4;
-                        }
+    /**
+     * Parses the text message between begin and end of the Netty buffer into the empty message m,
+     * through the buffer's index API. Same as parsing an array, without lazy parsing.
+     */
+    private T parseMessage(T m, ByteBuf buf, int begin, int end, long wantedLow, long wantedHigh)
+            throws ParseException, UnsupportedEncodingException {
+        final int minlength = 4 + 8;
+        if (end < begin + minlength) {
+            throw new ParseException("Insufficient buffer length, needs to be at least " + minlength, 0);
+        }
+        m.setCharacterEncoding(encoding);
+        final int type = (hexDigit(buf.getByte(begin), begin) << 12) | (hexDigit(buf.getByte(begin + 1), begin + 1) << 8)
+                | (hexDigit(buf.getByte(begin + 2), begin + 2) << 4) | hexDigit(buf.getByte(begin + 3), begin + 3);
+        m.setType(type);
+        final long low = Bitmap.readWord(buf, begin + 4);
+        final long high;
+        int pos;
+        if ((low & 1L) != 0) {
+            if (end < begin + minlength + 8) {
+                throw new ParseException("Insufficient length for secondary bitmap", minlength);
+            }
+            high = Bitmap.readWord(buf, begin + minlength);
+            pos = begin + minlength + 8;
+        } else {
+            high = 0L;
+            pos = begin + minlength;
+        }
+        final ParseGuide guide = parseGuide(type);
+        if (guide == null) {
+            throw new ParseException(String.format(
+                    "ISO8583 MessageFactory has no parsing guide for message type %04x [%s]",
+                    type,
+                    buf.toString(begin, end - begin, Charset.defaultCharset())), 0);
+        }
+        checkFields(guide, type, low, high);
+        final boolean wantsHigh = (high & wantedHigh) != 0;
+        pos = parseFields(buf, end, m, guide, low & ~1L, wantedLow, !wantsHigh, 1, pos);
+        if (wantsHigh) {
+            pos = parseFields(buf, end, m, guide, high, wantedHigh, true, 65, pos);
+        }
+        if (pos > end) {
+            throw new ParseException(String.format("Message fields end at %d, past the end of the message %d",
+                    pos - begin, end - begin), end);
+        }
+
+        m.setBinaryFields(false);
+        m.setEncodeVariableLengthFieldsInHex(variableLengthFieldsInHex);
+        return m;
+    }
+
+    /**
+     * Checks that the guide has every field of the bitmap.
+     */
+    private void checkFields(ParseGuide guide, int type, long low, long high) throws ParseException {
+        //First we check if the message contains fields not specified in the parsing template
+        final long unknownLow = guide.unknownLow(low);
+        final long unknownHigh = guide.unknownHigh(high);
+        if ((unknownLow | unknownHigh) != 0) {
+            logUnknownFields(unknownLow, 1, type);
+            logUnknownFields(unknownHigh, 65, type);
+            throw new ParseException("ISO8583 MessageFactory cannot parse fields", 0);
+        }
+    }
+
+    /**
+     * Parses the fields present in one word of the bitmap of a text message in a Netty buffer,
+     * as for an array.
+     */
+    private int parseFields(ByteBuf buf, int end, T m, ParseGuide guide, long bits, long wanted, boolean last,
+                            int base, int pos) throws ParseException, UnsupportedEncodingException {
+        for (; bits != 0; bits &= bits - 1) {
+            if (last && (bits & wanted) == 0) {
+                break;
+            }
+            final int i = Long.numberOfTrailingZeros(bits) + base;
+            final FieldParseInfo fpi = guide.get(i);
+            if (pos >= end && i == guide.getLastField()) {
+                log.warn(String.format("Field {%d} is not really in the message even though it's in the bitmap", i));
+            } else if ((wanted & Long.lowestOneBit(bits)) == 0) {
+                pos = fpi.skip(i, buf, pos);
+            } else {
+                IsoValue<?> val = fpi.parse(i, buf, pos);
+                m.setField(i, val);
+                if (val != null) {
+                    pos = IsoType.VARIABLE_LENGTH_BIN_TYPES.contains(val.getType())
+                            ? fpi.skip(i, buf, pos) : textFieldEnd(val, pos);
+                    if (log.isTraceEnabled()) {
+                        testLog(val, i);
                     }
+                }
+            }
+        }
+        return pos;
+    }
 
-                    if (log.isTraceEnabled() && val != null) {
+    /**
+     * Parses the fields present in one word of the bitmap, in ascending order.
+     *
+     * @param bits   The bitmap word, bit 0 being field number base.
+     * @param wanted The fields to decode in this word; the others are skipped.
+     * @param last   Whether to stop after the last wanted field, instead of skipping to the end of the word.
+     * @param base   The field number of bit 0.
+     * @return The position after the last field parsed.
+     */
+    private int parseFields(byte[] buf, int end, T m, ParseGuide guide, long bits, long wanted, boolean last,
+                            int base, int pos) throws ParseException, UnsupportedEncodingException {
+        for (; bits != 0; bits &= bits - 1) {
+            if (last && (bits & wanted) == 0) {
+                break;
+            }
+            final int i = Long.numberOfTrailingZeros(bits) + base;
+            final FieldParseInfo fpi = guide.get(i);
+            if (pos >= end && i == guide.getLastField()) {
+                log.warn(String.format("Field {%d} is not really in the message even though it's in the bitmap", i));
+            } else if ((wanted & Long.lowestOneBit(bits)) == 0) {
+                pos = binaryFields ? fpi.skipBinary(i, buf, pos) : fpi.skip(i, buf, pos);
+            } else if (m.isLazy()) {
+                m.setLazyField(i, pos);
+                pos = binaryFields ? fpi.skipBinary(i, buf, pos) : fpi.skip(i, buf, pos);
+            } else {
+                IsoValue<?> val = binaryFields ? fpi.parseBinary(i, buf, pos) : fpi.parse(i, buf, pos);
+                m.setField(i, val);
+                if (val != null) {
+                    pos = binaryFields ? binaryFieldEnd(val, pos) : fieldEnd(fpi, i, buf, val, pos);
+                    if (log.isTraceEnabled()) {
                         testLog(val, i);
                     }
                 }
             }
         }
+        return pos;
+    }
+
+    /**
+     * Returns the compiled guide for the type, null if there is none.
+     */
+    private ParseGuide parseGuide(int type) {
+        final ParseGuide[] page = parseGuides[type >>> 8];
+        return page == null ? null : page[type & 0xff];
+    }
+
+    private static void putGuide(ParseGuide[][] guides, int type, ParseGuide guide) {
+        ParseGuide[] page = guides[type >>> 8];
+        if (page == null) {
+            page = new ParseGuide[256];
+            guides[type >>> 8] = page;
+        }
+        page[type & 0xff] = guide;
+    }
+
+    private static void checkType(int type) {
+        if (type < 0 || type > 0xffff) {
+            throw new IllegalArgumentException(String.format("Invalid message type %x, MTIs have 4 digits", type));
+        }
+    }
+
+    /**
+     * Compiles the parsing guides again from parseMap. {@link #setParseMap(int, Map)} compiles the
+     * guide of its type; this is only needed after parseMap, or one of its maps, is changed directly.
+     */
+    public void compileParseGuides() {
+        final ParseGuide[][] guides = new ParseGuide[256][];
+        for (Map.Entry<Integer, Map<Integer, FieldParseInfo>> e : parseMap.entrySet()) {
+            final int type = e.getKey();
+            checkType(type);
+            putGuide(guides, type, new ParseGuide(type, e.getValue()));
+        }
+        parseGuides = guides;
+    }
+
+    private void logUnknownFields(long bits, int base, int type) {
+        for (; bits != 0; bits &= bits - 1) {
+            log.warn(String.format("ISO8583 MessageFactory cannot parse field {%d}: unspecified in parsing guide for type {%s}",
+                    Long.numberOfTrailingZeros(bits) + base, Integer.toString(type, 16)));
+        }
+    }
+
+    private static int hexDigit(byte[] buf, int pos) throws ParseException {
+        return hexDigit(buf[pos], pos);
+    }
+
+    private static int hexDigit(byte b, int pos) throws ParseException {
+        final int d = Character.digit((char) b, 16);
+        if (d < 0) {
+            throw new ParseException(String.format("Invalid message type digit at pos %d", pos), pos);
+        }
+        return d;
+    }
+
+    /**
+     * Returns the position after a text field, using the length of the parsed value.
+     * Binary values are decoded from hex, so their length is not that of the field; the
+     * field is skipped instead, the same as when it isn't wanted or is parsed lazily.
+     */
+    private int fieldEnd(FieldParseInfo fpi, int field, byte[] buf, IsoValue<?> val, int pos)
+            throws ParseException, UnsupportedEncodingException {
+        if (IsoType.VARIABLE_LENGTH_BIN_TYPES.contains(val.getType())) {
+            return fpi.skip(field, buf, pos);
+        }
+        return textFieldEnd(val, pos);
+    }
+
+    /**
+     * Returns the position after a text field that is not binary, using the length of the parsed value.
+     */
+    private static int textFieldEnd(IsoValue<?> val, int pos) {
+        pos += val.getLength();
+        if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN || val.getType() == IsoType.LLBCD) {
+            pos += 2;
+        } else if (val.getType() == LLLVAR || val.getType() == LLLBIN || val.getType() == IsoType.LLLBCD) {
+            pos += 3;
+        } else if (val.getType() == IsoType.LLLLVAR || val.getType() == IsoType.LLLLBIN || val.getType() == IsoType.LLLLBCD) {
+            pos += 4;
+        }
+        return pos;
     }
 
     private void testLog(IsoValue<?> value, int num) {
@@ -362,68 +765,29 @@ public class MessageFactory<T extends IsoMessage> {
 
     }
 
-    private void parseBinaryMsg(byte[] buf, T m, BitSet bs, int pos, Map<Integer, FieldParseInfo> parseGuide, List<Integer> index) throws ParseException, UnsupportedEncodingException {
-        for (Integer i : index) {
-            FieldParseInfo fpi = parseGuide.get(i);
-            if (bs.get(i - 1)) {
-                if (pos >= buf.length && i.intValue() == index.get(index.size() - 1)) {
-                    log.warn(String.format("Field {%d} is not really in the message even though it's in the bitmap", i));
-                    bs.clear(i - 1);
-                } else {
-                    IsoValue<?> val = fpi.parseBinary(i, buf, pos);
-                    m.setField(i, val);
-                    if (val != null) {
-                        if (halfLen(val)) {
-                            pos += (val.getLength() / 2) + (val.getLength() % 2);
-                        } else if (val.getType() == IsoType.LLBCD || val.getType() == IsoType.LLLBCD || val.getType() == IsoType.LLLLBCD) {
-                            pos += val.getLength() / 2 + (val.getLength() % 2);
-                        } else {
-                            pos += val.getLength();
-                        }
-                        if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN || val.getType() == IsoType.LLBCD) {
-                            pos++;
-                        } else if (val.getType() == LLLVAR
-                                || val.getType() == LLLBIN
-                                || val.getType() == IsoType.LLLBCD
-                                || val.getType() == IsoType.LLLLVAR
-                                || val.getType() == IsoType.LLLLBIN
-                                || val.getType() == IsoType.LLLLBCD
-                        ) {
-                            pos += 2;
-                        }
-                    }
-                }
-            }
-        }
-    }
-
-    private int parseBitMap(byte[] buf, int begin, int minlength, BitSet bs) throws ParseException {
-        int pos = 0;
-        final int bitmapStart = begin + (binaryFields ? 2 : 4);
-        for (int i = bitmapStart; i < 8 + bitmapStart; i++) {
-            int bit = 128;
-            for (int b = 0; b < 8; b++) {
-                bs.set(pos++, (buf[i] & bit) != 0);
-                bit >>= 1;
-            }
-        }
-        //Check for secondary bitmap and parse if necessary
-        if (bs.get(0)) {
-            if (buf.length < minlength + 8) {
-                throw new ParseException("Insufficient length for secondary bitmap", minlength);
-            }
-            for (int i = 8 + bitmapStart; i < 16 + bitmapStart; i++) {
-                int bit = 128;
-                for (int b = 0; b < 8; b++) {
-                    bs.set(pos++, (buf[i] & bit) != 0);
-                    bit >>= 1;
-                }
-            }
-            pos = minlength + 8;
+    /**
+     * Returns the position after a binary field, using the length of the parsed value.
+     */
+    private int binaryFieldEnd(IsoValue<?> val, int pos) {
+        if (halfLen(val)) {
+            pos += (val.getLength() / 2) + (val.getLength() % 2);
+        } else if (val.getType() == IsoType.LLBCD || val.getType() == IsoType.LLLBCD || val.getType() == IsoType.LLLLBCD) {
+            pos += val.getLength() / 2 + (val.getLength() % 2);
         } else {
-            pos = minlength;
+            pos += val.getLength();
+        }
+        if (val.getType() == IsoType.LLVAR || val.getType() == IsoType.LLBIN || val.getType() == IsoType.LLBCD) {
+            pos++;
+        } else if (val.getType() == LLLVAR
+                || val.getType() == LLLBIN
+                || val.getType() == IsoType.LLLBCD
+                || val.getType() == IsoType.LLLLVAR
+                || val.getType() == IsoType.LLLLBIN
+                || val.getType() == IsoType.LLLLBCD
+        ) {
+            pos += 2;
         }
-        return pos + begin;
+        return pos;
     }
 
 
@@ -452,22 +816,25 @@ public class MessageFactory<T extends IsoMessage> {
     public void freeze() {
         parseMap = Collections.unmodifiableMap(parseMap);
         parseOrder = Collections.unmodifiableMap(parseOrder);
+        compileParseGuides();
     }
 
     /**
      * Sets a map with the fields that are to be expected when parsing a certain type of
      * message.
      *
-     * @param type The message type.
+     * @param type The message type, 0 to 0xffff.
      * @param map  A map of FieldParseInfo instances, each of which define what type and length
      *             of field to expect. The keys will be the field numbers.
      */
     public void setParseMap(int type, Map<Integer, FieldParseInfo> map) {
+        checkType(type);
+        final ParseGuide guide = new ParseGuide(type, map);
         parseMap.put(type, map);
         ArrayList<Integer> index = new ArrayList<>(map.keySet());
         Collections.sort(index);
-        log.warn(String.format(" type {%d} index {%s} ",   type, index));
         parseOrder.put(type, index);
+        putGuide(parseGuides, type, guide);
     }
 
 
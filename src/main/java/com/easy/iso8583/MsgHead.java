@@ -2,6 +2,7 @@ package com.easy.iso8583;
 
 
 import com.gd.magic.util.StringUtil;
+import io.netty.buffer.ByteBuf;
 
 import java.nio.charset.StandardCharsets;
 
@@ -97,57 +98,123 @@ public class MsgHead {
     }
 
     public byte[] toResponseByteArray(int length) {
+        writeResponse(head, 0, length);
+        return head;
+    }
 
+    /**
+     * Writes the header of the response to this message into the buffer, without intermediate
+     * Strings or arrays. Source and destination are swapped, and the reject code is all zeros.
+     *
+     * @param buf    The buffer to write to, with room for {@link #HEAD_LEN} bytes.
+     * @param pos    The position of the header in the buffer.
+     * @param length The length of the message body, without the header.
+     * @return The position after the header.
+     */
+    public int writeResponse(byte[] buf, int pos, int length) {
         //head length
-        int pos = 0;
-        head[pos] = HEAD_LEN;
+        buf[pos] = HEAD_LEN;
         pos += 1;
 
         // version
-        head[pos] = headVersion;
+        buf[pos] = headVersion;
         pos += 1;
 
         //msg length
-        String strLen = StringUtil.lengthFix(String.valueOf(length + headLen), 4, '0', false);
-        System.arraycopy(strLen.getBytes(StandardCharsets.US_ASCII), 0, head, pos, 4);
-        pos += 4;
-
-        String tmp = "";
+        pos = putDigits(length + headLen, buf, pos, 4);
 
 //       The purpose and resource are exchanged when returning
 
         //source
-        tmp = StringUtil.lengthFix(source, 11, ' ', true);
-        System.arraycopy(tmp.getBytes(StandardCharsets.UTF_8), 0, head, pos, 11);
-        pos += 11;
-
+        pos = putPadded(source, buf, pos, 11);
 
         //destinationId
-        tmp = StringUtil.lengthFix(destinationId, 11, ' ', true);
-        System.arraycopy(tmp.getBytes(StandardCharsets.US_ASCII), 0, head, pos, 11);
-        pos += 11;
-
+        pos = putPadded(destinationId, buf, pos, 11);
 
         //reserve  00 00 00
+        buf[pos] = 0;
+        buf[pos + 1] = 0;
+        buf[pos + 2] = 0;
         pos += 3;
 
         //batchNumber
-        head[pos] = batchNumber;
+        buf[pos] = batchNumber;
         pos += 1;
 
         //transactionInfo
-        tmp = StringUtil.lengthFix(transactionInfo, 11, ' ', true);
-        System.arraycopy(tmp.getBytes(StandardCharsets.US_ASCII), 0, head, pos, 8);
-        pos += 8;
+        pos = putPadded(transactionInfo, buf, pos, 8);
 
         //user info
-        head[pos] = userInfo;
+        buf[pos] = userInfo;
         pos += 1;
 
         // rejectCode  Members cannot generate but may receive the Reject Code field with non-all-zero.
+        return putDigits(0, buf, pos, 5);
+    }
 
-        System.arraycopy("00000".getBytes(StandardCharsets.US_ASCII), 0, head, pos, 5);
-        return head;
+    /**
+     * Same as {@link #writeResponse(byte[], int, int)}, at the index of the Netty buffer.
+     *
+     * @return The index after the header.
+     */
+    public int writeResponse(ByteBuf buf, int index, int length) {
+        buf.setByte(index, HEAD_LEN);
+        buf.setByte(index + 1, headVersion);
+        index = putDigits(length + headLen, buf, index + 2, 4);
+        //source and destination are exchanged when returning
+        index = putPadded(source, buf, index, 11);
+        index = putPadded(destinationId, buf, index, 11);
+        buf.setMedium(index, 0);
+        buf.setByte(index + 3, batchNumber);
+        index = putPadded(transactionInfo, buf, index + 4, 8);
+        buf.setByte(index, userInfo);
+        return putDigits(0, buf, index + 1, 5);
+    }
+
+    /**
+     * Writes the value as ASCII digits, left padded with zeros.
+     *
+     * @return The position after the digits.
+     */
+    public static int putDigits(int value, byte[] buf, int pos, int digits) {
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    /**
+     * Writes the value truncated or right padded with spaces to the specified length.
+     * Header fields are ASCII; other characters are written as '?'.
+     */
+    private static int putPadded(String value, byte[] buf, int pos, int length) {
+        final int n = value == null ? 0 : Math.min(value.length(), length);
+        for (int i = 0; i < length; i++) {
+            final char c = i < n ? value.charAt(i) : ' ';
+            buf[pos + i] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        return pos + length;
+    }
+
+    /**
+     * Same as {@link #putDigits(int, byte[], int, int)}, at the index of the Netty buffer.
+     */
+    public static int putDigits(int value, ByteBuf buf, int index, int digits) {
+        for (int i = index + digits - 1; i >= index; i--) {
+            buf.setByte(i, '0' + value % 10);
+            value /= 10;
+        }
+        return index + digits;
+    }
+
+    private static int putPadded(String value, ByteBuf buf, int index, int length) {
+        final int n = value == null ? 0 : Math.min(value.length(), length);
+        for (int i = 0; i < length; i++) {
+            final char c = i < n ? value.charAt(i) : ' ';
+            buf.setByte(index + i, c < 0x80 ? c : '?');
+        }
+        return index + length;
     }
 
     public byte[] toByteArray() {
@@ -11,7 +11,7 @@ import java.io.IOException;
  * @Copyright: 2021 wepay.mpay.cn Inc. All rights reserved.
  */
 public abstract class ProtocolFactory {
-    static MessageFactory<IsoMessage> factory;
+    static volatile MessageFactory<IsoMessage> factory;
     static public MessageFactory<IsoMessage> createUPIFactory(String protocol) throws IOException {
         if (factory == null) {
             synchronized (ProtocolFactory.class) {
@@ -1,36 +1,76 @@
 package com.easy.iso8583.communicate;
 
 import com.easy.iso8583.AsyncBusinessHandle;
+import com.easy.iso8583.Bitmap;
 import com.easy.iso8583.IsoMessage;
 import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
 import com.easy.iso8583.ProtocolFactory;
 import com.gd.magic.MagicFactory;
 import com.gd.magic.rmi.RemoteInterceptor;
 import com.gd.magic.rmi.SocketConnect;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.text.ParseException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import net.sf.cglib.proxy.MethodProxy;
 import org.apache.log4j.Logger;
 
+/**
+ * Sends messages to UPI over a long connection and hands the messages UPI sends to the
+ * {@link AsyncBusinessHandle}. A second connection is kept open as a hot standby (property
+ * upi.standby, true by default) with heartbeats of its own; when the active connection fails the
+ * standby is promoted at once and a new standby is opened in the background. Both connections are
+ * read, each on a thread of its own, so that a standby on which UPI has stopped answering is
+ * noticed by the read timeout, as the active connection is. A sign-on can be set to be written on
+ * each connection that becomes the active one, the promoted standby included. Messages sent while
+ * there is no connection at all are held in a bounded buffer (upi.hold.size, 1000 by default) and
+ * written as soon as a connection opens, unless they have waited longer than upi.hold.millis
+ * (5000 by default). Only the connect thread opens connections; a caller never waits for one.
+ * <p>
+ * Every 0100 and 0200 sent is registered with a {@link RequestCorrelator} until its response comes
+ * back, which still goes to the handler. With the property upi.autoReversal set to true, one that
+ * gets no response in time is reversed with an 0420. A held message is registered when it is
+ * written, and one that fails to be written leaves the correlator at once, so that a message UPI
+ * never saw is never reversed.
+ */
 public class AsyncUpiInterceptor extends RemoteInterceptor {
     private static Logger logger = org.apache.log4j.Logger.getLogger(AsyncUpiInterceptor.class);
+    private static final Bitmap LANE_KEY = MessageFactory.fieldMask(11);
+    /* Seconds between attempts to open the standby after one failed */
+    private static final int STANDBY_RETRY_SECONDS = 10;
 
-    private boolean hasInit = false;
-    private SocketConnect socketConnect;
-    private OutputStream outputStream;
-    private InputStream inputStream;
+    private volatile Link active;
+    private volatile Link standby;
     private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor();
     private final AtomicInteger retryCount = new AtomicInteger(0);
     AsyncBusinessHandle handle = (AsyncBusinessHandle) MagicFactory.getProxy(AsyncBusinessHandle.class);
     private MessageFactory<IsoMessage> factory;
+    private final KeyedExecutor lanes = new KeyedExecutor(BusinessExecutor.getDefault(),
+            Runtime.getRuntime().availableProcessors() * 2, intProperty("upi.lane.queue", KeyedExecutor.DEFAULT_CAPACITY));
+    private volatile int heartbeatSeconds = intProperty("upi.heartbeat.seconds", 30);
+    private volatile int readIdleSeconds = intProperty("upi.readIdle.seconds", 90);
+    private volatile boolean standbyEnabled = !"false".equals(MagicFactory.getProperty("upi.standby"));
+    private final BlockingQueue<Held> held = new ArrayBlockingQueue<>(intProperty("upi.hold.size", 1000));
+    private final long holdNanos = TimeUnit.MILLISECONDS.toNanos(intProperty("upi.hold.millis", 5000));
+    private volatile Supplier<Message> signOn;
+    private final RequestCorrelator correlator = new RequestCorrelator();
+    private volatile boolean closed;
+    private Thread connectThread;
+    /* Only used by the connect thread */
+    private long nextStandbyAttempt;
 
     public AsyncUpiInterceptor() {
         try {
@@ -38,148 +78,507 @@ public class AsyncUpiInterceptor extends RemoteInterceptor {
         } catch (IOException e) {
             logger.debug("read file error :conf/j8583.xml not found");
         }
+        correlator.setTimeoutMillis(60000);
+        if (factory != null && "true".equals(MagicFactory.getProperty("upi.autoReversal"))) {
+            //Off the timer's thread, which must not block on the socket
+            correlator.setReversalHandler(factory, reversal -> heartbeatScheduler.execute(() -> {
+                logger.warn("Reversal sent for timed out request: " + reversal.body.getObjectValue(90));
+                write(reversal);
+            }));
+        }
 
         this.startListen();
         this.startHeartbeat();
     }
 
+    private static int intProperty(String name, int defaultValue) {
+        final String s = MagicFactory.getProperty(name);
+        return s == null ? defaultValue : Integer.parseInt(s.trim());
+    }
+
+    /**
+     * Sets the seconds without writes after which a heartbeat is sent (upi.heartbeat.seconds, 30 by default).
+     */
+    public void setHeartbeatSeconds(int seconds) {
+        heartbeatSeconds = seconds;
+    }
+
+    /**
+     * Sets the seconds without reads after which UPI is presumed dead and the connection is reset
+     * (upi.readIdle.seconds, 90 by default), 0 to wait for TCP to notice. Applies to the next connection.
+     */
+    public void setReadIdleSeconds(int seconds) {
+        readIdleSeconds = seconds;
+    }
+
+    /**
+     * Sets whether a standby connection is kept open. Turning it off closes the standby.
+     */
+    public void setStandbyEnabled(boolean enabled) {
+        standbyEnabled = enabled;
+        if (!enabled) {
+            synchronized (this) {
+                final Link s = standby;
+                standby = null;
+                if (s != null) {
+                    discard(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how long an 0100 or 0200 waits for its response before it's reversed (60000 by default).
+     */
+    public void setResponseTimeoutMillis(long millis) {
+        correlator.setTimeoutMillis(millis);
+    }
+
+    /**
+     * Returns the correlator of the 0100 and 0200 sent, to set their reversals.
+     */
+    public RequestCorrelator getCorrelator() {
+        return correlator;
+    }
+
+    /**
+     * Sets the message written on a connection each time it becomes the active one, a new connection
+     * or the standby promoted, before any other message; usually an 0800 with field 70 set to 001.
+     *
+     * @param signOn Creates a new sign-on message each time, or null to write none.
+     */
+    public void setSignOn(Supplier<Message> signOn) {
+        this.signOn = signOn;
+    }
+
+    /**
+     * Closes both connections and stops the threads of the interceptor.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            final Link a = active;
+            final Link s = standby;
+            active = null;
+            standby = null;
+            if (a != null) {
+                discard(a);
+            }
+            if (s != null) {
+                discard(s);
+            }
+            notifyAll();
+        }
+        heartbeatScheduler.shutdownNow();
+        if (connectThread != null) {
+            connectThread.interrupt();
+        }
+    }
+
+    /**
+     * Checks every second whether the links have been idle for writing long enough to send a heartbeat,
+     * so that heartbeats are only sent when there is no traffic.
+     */
     private void startHeartbeat() {
-        heartbeatScheduler.scheduleAtFixedRate(() -> {
-            try {
-                if (hasInit && outputStream != null) {
-                    synchronized (this) {
-                        outputStream.write(new byte[]{48, 48, 48, 48});
-                        outputStream.flush();
-                        logger.debug("Heartbeat packet sent.");
-                    }
+        heartbeatScheduler.scheduleWithFixedDelay(() -> {
+            final Link link = active;
+            if (link != null) {
+                try {
+                    heartbeatIfIdle(link);
+                } catch (IOException e) {
+                    logger.error("Heartbeat packet delivery failure", e);
+                    resetConn(link);
+                }
+            }
+            final Link s = standby;
+            if (s != null) {
+                try {
+                    heartbeatIfIdle(s);
+                } catch (IOException e) {
+                    logger.error("Heartbeat packet delivery failure on standby connection", e);
+                    dropStandby(s);
                 }
-            } catch (IOException e) {
-                logger.error("Heartbeat packet delivery failure", e);
-                resetConn();
             }
-        }, 30, 30, TimeUnit.SECONDS);
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private void heartbeatIfIdle(Link link) throws IOException {
+        if (System.nanoTime() - link.writer.getLastWriteNanos() >= TimeUnit.SECONDS.toNanos(heartbeatSeconds)) {
+            link.writer.writeHeartbeat();
+            logger.debug("Heartbeat packet sent.");
+        }
     }
 
+    /**
+     * Starts the thread that opens the active connection whenever there is none, and the standby,
+     * so that connecting never holds up the heartbeats.
+     */
     void startListen() {
-        Thread t = new Thread("upi receive thread") {
+        Thread t = new Thread("upi connect thread") {
             public void run() {
-                while (true) {
-                    if (!AsyncUpiInterceptor.this.hasInit) {
+                while (!closed) {
+                    if (AsyncUpiInterceptor.this.active == null) {
                         logger.warn("Connection not yet initialized, ready to wait for retry...");
                         AsyncUpiInterceptor.this.waitBeforeReconnect();
+                        AsyncUpiInterceptor.this.initConn();
                         continue;
                     }
-
-                    try {
-                        final Message msg = TestServer.receiveMessage(AsyncUpiInterceptor.this.inputStream, AsyncUpiInterceptor.this.factory);
-                        if (Message.NullMessage.equals(msg)) {
-                            logger.warn("Heartbeat packet received");
-                        } else if (msg != null) {
-                            MagicFactory.getGlobalThreadPool().execute(() -> {
-                                try {
-                                    TestServer.innerHandler(AsyncUpiInterceptor.this.handle, msg);
-                                } catch (Throwable e) {
-                                    logger.error("Business Processing Exception:", e);
-                                }
-                            });
+                    AsyncUpiInterceptor.this.prepareStandby();
+                    synchronized (AsyncUpiInterceptor.this) {
+                        if (!closed && AsyncUpiInterceptor.this.active != null) {
+                            try {
+                                AsyncUpiInterceptor.this.wait(1000);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
                         }
-                    } catch (ParseException | IOException e) {
-                        logger.error("Communication anomaly, preparing to reconnect...", e);
-                        AsyncUpiInterceptor.this.resetConn();
-                    } catch (Throwable ex) {
-                        logger.error("Receive thread exit exception:", ex);
                     }
                 }
             }
         };
+        connectThread = t;
         t.start();
-        logger.debug("Start the upi receiver thread");
+        logger.debug("Start the upi connect thread");
     }
 
-    void initConn() {
-        if (!this.hasInit) {
-            synchronized (this) {
-                if (!this.hasInit) {
-                    try {
-                        if (this.socketConnect != null) {
-                            this.socketConnect.setInvalid(true);
-                            this.closeConnect(this.socketConnect);
-                        }
+    /**
+     * Starts the thread that reads the link until it fails or is closed, whether it's the active
+     * link or the standby.
+     */
+    private void startReading(Link link) {
+        new Thread(() -> read(link), "upi receive thread").start();
+    }
 
-                        this.socketConnect = this.getConnect();
-                        Socket socket = this.socketConnect.getSocket();
-                        socket.setSoTimeout(0);
-                        socket.setKeepAlive(true);
-                        this.inputStream = socket.getInputStream();
-                        this.outputStream = socket.getOutputStream();
-                        this.hasInit = true;
-                        retryCount.set(0);
-                        logger.debug(">>>Connection initialized successfully: " + this.socketConnect);
-                    } catch (Exception e) {
-                        logger.error(">>>Connection initialization exception:", e);
-                        this.hasInit = false;
-                        if (this.socketConnect != null) {
-                            this.socketConnect.setInvalid(true);
-                            try {
-                                this.closeConnect(this.socketConnect);
-                            } catch (Exception ignored) {
-                            }
+    private void read(Link link) {
+        try {
+            while (true) {
+                //Only framing here; parsing, MAC and business run in the lane of the STAN
+                final byte[] frame = link.reader.next();
+                if (frame == null) {
+                    throw new EOFException("Connection closed by UPI");
+                } else if (frame.length == 0) {
+                    logger.warn("Heartbeat packet received");
+                    continue;
+                }
+                try {
+                    this.lanes.execute(laneKey(frame), () -> {
+                        try {
+                            Message msg = TestServer.toMessage(frame, this.factory);
+                            this.correlator.complete(msg);
+                            TestServer.innerHandler(this.handle, msg);
+                        } catch (Throwable e) {
+                            logger.error("Business Processing Exception:", e);
                         }
-                        this.socketConnect = null;
-                    }
+                    });
+                } catch (RejectedExecutionException e) {
+                    logger.error("Ordered lanes (" + this.lanes.pending()
+                            + " waiting) or business executor full, message dropped: "
+                            + BusinessExecutor.getDefault(), e);
                 }
             }
+        } catch (SocketTimeoutException e) {
+            if (!link.closed) {
+                logger.error("Nothing received from UPI for " + this.readIdleSeconds + " seconds on " + link
+                        + ", peer presumed dead, preparing to reconnect...");
+                linkFailed(link);
+            }
+        } catch (IOException e) {
+            if (!link.closed) {
+                logger.error("Communication anomaly on " + link + ", preparing to reconnect...", e);
+                linkFailed(link);
+            }
+        } catch (Throwable ex) {
+            logger.error("Receive thread exit exception:", ex);
+            linkFailed(link);
         }
     }
 
-    private void resetConn() {
-        this.hasInit = false;
-        int count = retryCount.incrementAndGet();
-        logger.warn("resetConn begin " + count + " count , presen socketConnect: " + this.socketConnect);
-        if (this.socketConnect != null) {
-            this.socketConnect.setInvalid(true);
+    /**
+     * Returns the STAN of the frame, so that messages of the same transaction are handled in order.
+     * Only the bitmap and the fields before field 11 are read.
+     */
+    private Object laneKey(byte[] frame) {
+        try {
+            IsoMessage m = factory.parseMessage(frame, MsgHead.HEAD_LEN, LANE_KEY);
+            Object stan = m.getObjectValue(11);
+            m.release();
+            return stan;
+        } catch (ParseException | IOException | RuntimeException e) {
+            //Let the full parse report it
+            return null;
+        }
+    }
+
+    /**
+     * Opens a link on a connection from the pool of the configured connection.
+     */
+    Link openLink() throws Exception {
+        final SocketConnect conn = this.getConnect();
+        try {
+            return link(conn.getSocket(), () -> {
+                conn.setInvalid(true);
+                this.closeConnect(conn);
+            });
+        } catch (Exception e) {
+            conn.setInvalid(true);
+            this.closeConnect(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * Sets up the socket for a link.
+     *
+     * @param close Closes the socket, and gives it back where it came from.
+     */
+    Link link(Socket socket, Runnable close) throws IOException {
+        //UPI sends heartbeats when idle, so a read timeout means the peer is gone
+        socket.setSoTimeout(this.readIdleSeconds * 1000);
+        socket.setKeepAlive(true);
+        return new Link(socket, close, new UpiFrameReader(socket.getInputStream()),
+                new UpiFrameWriter(socket.getOutputStream()));
+    }
+
+    /**
+     * Opens the active link if there is none. Runs on the connect thread, and connects without
+     * holding the lock, so that writers and the failover never wait for a connect.
+     */
+    private void initConn() {
+        if (this.active != null || closed) {
+            return;
+        }
+        final Link link;
+        try {
+            link = openLink();
+        } catch (Exception e) {
+            logger.error(">>>Connection initialization exception:", e);
+            return;
+        }
+        synchronized (this) {
+            if (closed || this.active != null) {
+                discard(link);
+                return;
+            }
+            activate(link);
+        }
+        startReading(link);
+        logger.debug(">>>Connection initialized successfully: " + link);
+    }
+
+    /**
+     * Makes the link the active one and writes the messages held meanwhile. Called holding the lock.
+     */
+    private void activate(Link link) {
+        this.active = link;
+        retryCount.set(0);
+        final Supplier<Message> s = signOn;
+        if (s != null) {
             try {
-                this.closeConnect(this.socketConnect);
-            } catch (Exception e) {
-                logger.error("resetConn closeConnect exceptions:", e);
+                link.writer.write(s.get());
+                logger.info("Sign-on sent on " + link);
+            } catch (IOException e) {
+                //The reader or the heartbeat notices the broken connection
+                logger.error("Failed to send sign-on on " + link, e);
             }
-            this.socketConnect = null;
         }
+        flushHeld(link);
     }
 
+    /**
+     * Opens the standby connection if it's enabled and missing. Runs on the connect thread.
+     */
+    private void prepareStandby() {
+        if (!standbyEnabled || active == null || standby != null || System.nanoTime() - nextStandbyAttempt < 0) {
+            return;
+        }
+        try {
+            final Link link = openLink();
+            synchronized (this) {
+                if (closed) {
+                    discard(link);
+                    return;
+                } else if (this.active == null) {
+                    activate(link);
+                } else if (this.standby == null && standbyEnabled) {
+                    this.standby = link;
+                } else {
+                    discard(link);
+                    return;
+                }
+            }
+            startReading(link);
+            logger.debug(">>>Standby connection initialized successfully: " + link);
+        } catch (Exception e) {
+            logger.error(">>>Standby connection initialization exception:", e);
+            nextStandbyAttempt = System.nanoTime() + TimeUnit.SECONDS.toNanos(STANDBY_RETRY_SECONDS);
+        }
+    }
+
+    private synchronized void dropStandby(Link link) {
+        if (this.standby == link) {
+            this.standby = null;
+            discard(link);
+        }
+    }
+
+    private synchronized void linkFailed(Link link) {
+        if (this.active == link) {
+            resetConn(link);
+        } else {
+            dropStandby(link);
+        }
+    }
+
+    /**
+     * Closes the link if it's still the active one, and promotes the standby in its place.
+     */
+    private synchronized void resetConn(Link failed) {
+        if (failed == null || this.active != failed) {
+            //Already replaced
+            return;
+        }
+        int count = retryCount.incrementAndGet();
+        logger.warn("resetConn begin " + count + " count , presen socketConnect: " + failed);
+        discard(failed);
+        final Link s = this.standby;
+        this.standby = null;
+        if (s != null && !s.socket.isClosed()) {
+            logger.warn("Promoting standby connection: " + s);
+            activate(s);
+        } else {
+            this.active = null;
+            notifyAll();
+        }
+    }
+
+    private void discard(Link link) {
+        link.closed = true;
+        try {
+            link.close.run();
+        } catch (RuntimeException e) {
+            logger.error("resetConn closeConnect exceptions:", e);
+        }
+    }
+
+    /**
+     * Waits before the next connect, longer after each failure, or until a message is held.
+     */
     private void waitBeforeReconnect() {
         int count = retryCount.get();
         int waitTime = Math.min((int) Math.pow(2, count), 60);
-        try {
-            logger.debug("wait for " + waitTime + " Retry connection in seconds...");
-            Thread.sleep(waitTime * 1000L);
-        } catch (InterruptedException ignored) {
+        logger.debug("wait for " + waitTime + " Retry connection in seconds...");
+        synchronized (this) {
+            if (!closed && this.active == null) {
+                try {
+                    wait(waitTime * 1000L);
+                } catch (InterruptedException ignored) {
+                    //Closed
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds a message until a connection opens; a heartbeat is not worth holding. The first message
+     * held wakes the connect thread, so that it doesn't wait out the backoff with messages waiting.
+     */
+    private void hold(Message message) {
+        if (message == null || message == Message.NullMessage) {
+            return;
+        }
+        final boolean first = held.isEmpty();
+        if (held.offer(new Held(message))) {
+            logger.warn("intercept No connection, message held until one opens");
+            //The connection may have opened between the check and the offer
+            final Link link = this.active;
+            if (link != null) {
+                flushHeld(link);
+            } else if (first) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        } else {
+            logger.error("intercept Abnormal connection and hold buffer full, message dropped. Please try again later.");
+        }
+    }
+
+    private void flushHeld(Link link) {
+        Held h;
+        while ((h = held.poll()) != null) {
+            if (System.nanoTime() - h.since > holdNanos) {
+                logger.error("Message held too long without a connection, dropped: " + h.message);
+                continue;
+            }
+            final CompletableFuture<Message> response = track(h.message);
+            try {
+                link.writer.write(h.message);
+            } catch (IOException e) {
+                logger.error("Failed to send a held message:", e);
+                fail(response, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registers the message with the correlator if it's an 0100 or 0200; called right before it's
+     * written, as the response may come back at once.
+     *
+     * @return The response, or null if the message is not tracked.
+     */
+    private CompletableFuture<Message> track(Message message) {
+        if (!RequestCorrelator.isReversible(message)) {
+            return null;
+        }
+        final CompletableFuture<Message> response = correlator.register(message);
+        response.whenComplete((r, e) -> {
+            if (e instanceof TimeoutException) {
+                logger.warn("No response to " + Integer.toHexString(message.body.getType()) + " STAN="
+                        + message.body.getObjectValue(11));
+            } else if (e instanceof IllegalStateException) {
+                logger.warn(e.getMessage());
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Takes a message that was not written out of the correlator, so that it is not reversed.
+     */
+    private static void fail(CompletableFuture<Message> response, Throwable cause) {
+        if (response != null) {
+            response.completeExceptionally(cause);
         }
     }
 
     public Object intercept(Method method, Object[] objects, MethodProxy methodProxy) throws Throwable {
         Message message = (Message) objects[0];
         logger.info("intercept method = [" + method + "] message=" + message);
-        this.initConn();
+        write(message);
+        return null;
+    }
 
+    /**
+     * Writes the message on the active link, or holds it until there is one.
+     */
+    private void write(Message message) {
+        final Link link = this.active;
+        if (link == null) {
+            hold(message);
+            return;
+        }
+        final CompletableFuture<Message> response = track(message);
         try {
-            synchronized (this) {
-                if (this.hasInit) {
-                    if (message == null) {
-                        this.outputStream.write(new byte[]{48, 48, 48, 48});
-                    } else {
-                        TestServer.sendIsoMessage(message, this.outputStream);
-                    }
-                } else {
-                    logger.error("intercept Abnormal connection. Please try again later.");
-                }
+            if (message != null) {
+                message.body.printMsg();
             }
+            link.writer.write(message);
         } catch (IOException e) {
             logger.error("intercept Failed to send a message, triggering a reconnect:", e);
-            this.resetConn();
+            fail(response, e);
+            this.resetConn(link);
         }
-
-        return null;
     }
 
     public void closeConnect(SocketConnect conn) {
@@ -194,4 +593,37 @@ public class AsyncUpiInterceptor extends RemoteInterceptor {
             logger.error("closeConnect Close Connection Exception:", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A connection with its frame reader and writer.
+     */
+    static final class Link {
+        final Socket socket;
+        final Runnable close;
+        final UpiFrameReader reader;
+        final UpiFrameWriter writer;
+        /* Set when the link is closed on purpose, so that its reader leaves quietly */
+        volatile boolean closed;
+
+        Link(Socket socket, Runnable close, UpiFrameReader reader, UpiFrameWriter writer) {
+            this.socket = socket;
+            this.close = close;
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(socket);
+        }
+    }
+
+    private static final class Held {
+        final Message message;
+        final long since = System.nanoTime();
+
+        Held(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.easy.iso8583.communicate;
+
+import com.gd.magic.MagicFactory;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the business handling of inbound messages with a bound on the work waiting, so that a slow
+ * handler pushes back on the connection instead of piling up messages. With platform threads, tasks
+ * wait in a queue of fixed capacity; with virtual threads (Java 21 and later), every task gets its own
+ * thread and the bound is on the tasks running at once. What happens to a task over the bound
+ * depends on the {@link RejectPolicy}. The executor counts submitted, rejected and completed tasks,
+ * and measures how long tasks wait before they start.
+ * <p>
+ * The default executor is configured with these properties:
+ * <ul>
+ * <li>upi.business.threads: the number of platform threads, twice the processors by default.</li>
+ * <li>upi.business.queue: the capacity of the queue, or of virtual threads; 1000 by default.</li>
+ * <li>upi.business.reject: ABORT, CALLER_RUNS (the default) or DISCARD_OLDEST.</li>
+ * <li>upi.business.virtual: true to use virtual threads when the JVM has them.</li>
+ * </ul>
+ */
+public class BusinessExecutor implements Executor {
+
+    static Logger logger = Logger.getLogger(BusinessExecutor.class);
+
+    public enum RejectPolicy {
+        /** Throw {@link RejectedExecutionException}. */
+        ABORT,
+        /**
+         * Run the task on the submitting thread, which slows down the receiver; same as ABORT through
+         * {@link #nonBlocking()}.
+         */
+        CALLER_RUNS,
+        /**
+         * Drop the task that has waited longest, to make room; same as ABORT with virtual threads.
+         * The lanes of a {@link KeyedExecutor} are never dropped, the next task waiting is instead, and
+         * the new task is rejected if only lanes are waiting.
+         */
+        DISCARD_OLDEST
+    }
+
+    private static volatile BusinessExecutor defaultExecutor;
+
+    private final RejectPolicy policy;
+    private final int capacity;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtual;
+    private final Semaphore permits;
+    private final Executor nonBlocking = task -> execute(task, false);
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Creates an executor with platform threads.
+     *
+     * @param threads  The number of threads.
+     * @param capacity The number of tasks that can wait for a thread.
+     * @param policy   What to do with a task when the queue is full.
+     */
+    public BusinessExecutor(int threads, int capacity, RejectPolicy policy) {
+        this(threads, capacity, policy, false);
+    }
+
+    /**
+     * Creates an executor with virtual threads if asked for and available, or with platform threads.
+     *
+     * @param threads  The number of platform threads; not used with virtual threads.
+     * @param capacity The number of tasks that can wait for a platform thread, or run on virtual threads.
+     */
+    public BusinessExecutor(int threads, int capacity, RejectPolicy policy, boolean useVirtualThreads) {
+        this.policy = policy;
+        this.capacity = capacity;
+        final ExecutorService v = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        if (v != null) {
+            virtual = v;
+            permits = new Semaphore(capacity);
+            pool = null;
+        } else {
+            if (useVirtualThreads) {
+                logger.warn("Virtual threads are not available in this JVM, using " + threads + " platform threads");
+            }
+            virtual = null;
+            permits = null;
+            pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(capacity), new NamedThreadFactory(), rejectHandler(policy));
+        }
+    }
+
+    /**
+     * Returns the executor configured with the upi.business properties, creating it on first use.
+     */
+    public static BusinessExecutor getDefault() {
+        BusinessExecutor e = defaultExecutor;
+        if (e == null) {
+            synchronized (BusinessExecutor.class) {
+                e = defaultExecutor;
+                if (e == null) {
+                    defaultExecutor = e = fromProperties();
+                }
+            }
+        }
+        return e;
+    }
+
+    private static BusinessExecutor fromProperties() {
+        final int threads = intProperty("upi.business.threads", Runtime.getRuntime().availableProcessors() * 2);
+        final int capacity = intProperty("upi.business.queue", 1000);
+        final String reject = MagicFactory.getProperty("upi.business.reject");
+        final RejectPolicy policy = reject == null ? RejectPolicy.CALLER_RUNS
+                : RejectPolicy.valueOf(reject.trim().toUpperCase());
+        final boolean useVirtual = Boolean.parseBoolean(MagicFactory.getProperty("upi.business.virtual"));
+        logger.info("Business executor: threads=" + threads + " capacity=" + capacity + " reject=" + policy
+                + " virtual=" + useVirtual);
+        return new BusinessExecutor(threads, capacity, policy, useVirtual);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        final String s = MagicFactory.getProperty(name);
+        return s == null ? defaultValue : Integer.parseInt(s.trim());
+    }
+
+    /**
+     * Returns Executors.newVirtualThreadPerTaskExecutor() if the JVM has it. The library is built for
+     * Java 8, so it's looked up by reflection instead of linked to.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private RejectedExecutionHandler rejectHandler(RejectPolicy policy) {
+        //The caller runs the rejected task in execute(), unless it must not block
+        final RejectedExecutionHandler handler = policy == RejectPolicy.DISCARD_OLDEST
+                ? BusinessExecutor::discardOldest : new ThreadPoolExecutor.AbortPolicy();
+        return (r, executor) -> {
+            rejected.increment();
+            handler.rejectedExecution(r, executor);
+        };
+    }
+
+    /*
+     * Drops the task that has waited longest, but not a lane of a KeyedExecutor: the lane would stay
+     * scheduled with nothing to run it, and its tasks would never run.
+     */
+    private static void discardOldest(Runnable r, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        for (Runnable queued : executor.getQueue()) {
+            if (!((Timed) queued).isLane() && executor.getQueue().remove(queued)) {
+                executor.execute(r);
+                return;
+            }
+        }
+        throw new RejectedExecutionException("Only ordered lanes are waiting, none can be dropped");
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, policy == RejectPolicy.CALLER_RUNS);
+    }
+
+    /**
+     * Returns a view of the executor that never runs a task on the submitting thread: with the
+     * {@link RejectPolicy#CALLER_RUNS} policy it throws {@link RejectedExecutionException} instead.
+     * Threads that must not block, like Netty event loops, submit through it.
+     */
+    public Executor nonBlocking() {
+        return nonBlocking;
+    }
+
+    private void execute(Runnable task, boolean callerRuns) {
+        submitted.increment();
+        final Timed timed = new Timed(task);
+        if (pool != null) {
+            try {
+                pool.execute(timed);
+            } catch (RejectedExecutionException e) {
+                if (!callerRuns || pool.isShutdown()) {
+                    throw e;
+                }
+                timed.run();
+            }
+        } else if (permits.tryAcquire()) {
+            try {
+                virtual.execute(() -> {
+                    try {
+                        timed.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                rejected.increment();
+                throw e;
+            }
+        } else {
+            rejected.increment();
+            if (callerRuns) {
+                timed.run();
+            } else {
+                throw new RejectedExecutionException(capacity + " business tasks already running");
+            }
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual != null;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread; always 0 with virtual threads.
+     */
+    public int getQueueSize() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    /**
+     * Returns the number of tasks running.
+     */
+    public int getActiveCount() {
+        return pool != null ? pool.getActiveCount() : capacity - permits.availablePermits();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Returns the number of tasks that went over the bound, whatever the policy did with them.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Returns the average time tasks waited before they started, in milliseconds.
+     */
+    public double getAverageWaitMillis() {
+        final long n = started.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1e6 / n;
+    }
+
+    /**
+     * Returns the longest time a task waited before it started, in milliseconds.
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * Stops taking tasks; the ones already submitted still run.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        } else {
+            virtual.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BusinessExecutor[%s queue=%d active=%d submitted=%d rejected=%d completed=%d"
+                        + " wait avg=%.2fms max=%.2fms]", isVirtual() ? "virtual" : "platform", getQueueSize(),
+                getActiveCount(), getSubmittedCount(), getRejectedCount(), getCompletedCount(),
+                getAverageWaitMillis(), getMaxWaitMillis());
+    }
+
+    private final class Timed implements Runnable {
+        private final Runnable task;
+        private final long submittedAt = System.nanoTime();
+
+        Timed(Runnable task) {
+            this.task = task;
+        }
+
+        boolean isLane() {
+            return task instanceof KeyedExecutor.Lane;
+        }
+
+        @Override
+        public void run() {
+            final long wait = System.nanoTime() - submittedAt;
+            started.increment();
+            waitNanos.add(wait);
+            maxWaitNanos.accumulateAndGet(wait, Math::max);
+            try {
+                task.run();
+            } finally {
+                completed.increment();
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL = new AtomicInteger();
+        private final int pool = POOL.incrementAndGet();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "upi-business-" + pool + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
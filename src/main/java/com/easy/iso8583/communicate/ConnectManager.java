@@ -1,10 +1,386 @@
 package com.easy.iso8583.communicate;
 
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.communicate.netty.UpiClient;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.log4j.Logger;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 /**
+ * Owns several links to UPI (data centres, ports) and spreads outbound messages over them.
+ * Every link keeps its number of requests in flight, a moving average of the round trip time of its
+ * requests (echo tests included) and a moving average of its error rate; {@link #select()} picks
+ * among the open links that are healthy, by the {@link Policy} in use. A link whose error rate
+ * goes over the threshold is only used when no other link is left. The error rate of a link halves
+ * every so long without requests, so a link left out gets picked again, and starts over at 0 each
+ * time the link is reconnected.
+ * <p>
+ * All links share one event loop group and the listener for inbound messages that are not responses.
+ *
  * @author dy_gu king.gu@gmail.com
  * @version V1.0
  * @date 2021/5/16 下午10:02
  * @Copyright: 2021 wepay.mpay.cn Inc. All rights reserved.
  */
 public class ConnectManager {
+
+    static Logger logger = Logger.getLogger(ConnectManager.class);
+
+    /* Weight of the newest sample in the moving averages */
+    private static final double ALPHA = 0.2;
+
+    public enum Policy {
+        /** The link with the fewest requests in flight, the fastest one on ties. */
+        LEAST_OUTSTANDING,
+        /** The link with the lowest (in flight + 1) * round trip time / weight. */
+        WEIGHTED
+    }
+
+    private final MessageFactory<IsoMessage> factory;
+    private final Consumer<Message> listener;
+    private final EventLoopGroup group;
+    private final boolean ownGroup;
+    private final List<Link> links = new CopyOnWriteArrayList<>();
+    private volatile Policy policy = Policy.LEAST_OUTSTANDING;
+    private double maxErrorRate = 0.5;
+    private volatile long errorHalfLifeMillis = 60000;
+    private int heartbeatSeconds = 30;
+    private int readIdleSeconds = 90;
+    private Supplier<Message> echoMessage;
+    private int echoSeconds;
+    private ScheduledFuture<?> echoTask;
+    private boolean started;
+
+    /**
+     * Creates a manager whose links run on an event loop group of their own, with a thread per core.
+     *
+     * @param factory  The factory to parse inbound messages.
+     * @param listener Receives inbound messages that are not responses, on the event loop.
+     */
+    public ConnectManager(MessageFactory<IsoMessage> factory, Consumer<Message> listener) {
+        this(factory, listener, new NioEventLoopGroup(), true);
+    }
+
+    /**
+     * Creates a manager whose links run on the specified group, which is not shut down on {@link #close()}.
+     */
+    public ConnectManager(MessageFactory<IsoMessage> factory, Consumer<Message> listener, EventLoopGroup group) {
+        this(factory, listener, group, false);
+    }
+
+    private ConnectManager(MessageFactory<IsoMessage> factory, Consumer<Message> listener, EventLoopGroup group,
+                           boolean ownGroup) {
+        this.factory = factory;
+        this.listener = listener;
+        this.group = group;
+        this.ownGroup = ownGroup;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets the error rate (0 to 1) above which a link is considered unhealthy.
+     */
+    public void setMaxErrorRate(double rate) {
+        maxErrorRate = rate;
+    }
+
+    /**
+     * Sets the time it takes the error rate of a link to halve when no request completes on it.
+     *
+     * @param millis The half-life, 0 for the error rate to change only when requests complete.
+     */
+    public void setErrorHalfLifeMillis(long millis) {
+        errorHalfLifeMillis = millis;
+    }
+
+    /**
+     * Sets the heartbeat interval of the links added from now on.
+     */
+    public void setHeartbeatSeconds(int seconds) {
+        heartbeatSeconds = seconds;
+    }
+
+    /**
+     * Sets the seconds without reads after which a link added from now on is presumed dead,
+     * and left out of {@link #select()} until it's open again.
+     */
+    public void setReadIdleSeconds(int seconds) {
+        readIdleSeconds = seconds;
+    }
+
+    /**
+     * Sends an echo test (usually an 0820 with field 70 set to 301) on every open link each so many
+     * seconds, to measure links that carry little traffic. An echo test that gets no response within
+     * the interval counts as an error of its link. Takes effect on {@link #start()}.
+     *
+     * @param echo    Creates a new echo message each time.
+     * @param seconds The interval, 0 to send no echo tests.
+     */
+    public void setEchoTest(Supplier<Message> echo, int seconds) {
+        echoMessage = echo;
+        echoSeconds = seconds;
+    }
+
+    /**
+     * Adds a link with weight 1.
+     */
+    public Link addLink(SocketAddress address) {
+        return addLink(address, 1);
+    }
+
+    /**
+     * Adds a link to the specified address. It is opened on {@link #start()}, or at once if the
+     * manager is already started.
+     *
+     * @param weight The relative capacity of the link, for {@link Policy#WEIGHTED}.
+     */
+    public Link addLink(SocketAddress address, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Link weight must be positive: " + weight);
+        }
+        UpiClient client = new UpiClient(address, factory, listener, group);
+        client.setHeartbeatSeconds(heartbeatSeconds);
+        client.setReadIdleSeconds(readIdleSeconds);
+        Link link = new Link(this, address, client, weight);
+        client.setConnectListener(link::reset);
+        links.add(link);
+        synchronized (this) {
+            if (started) {
+                client.start();
+            }
+        }
+        return link;
+    }
+
+    public List<Link> getLinks() {
+        return Collections.unmodifiableList(links);
+    }
+
+    /**
+     * Opens every link, and starts the echo tests if they are set.
+     */
+    public synchronized void start() {
+        started = true;
+        for (Link link : links) {
+            link.client.start();
+        }
+        if (echoMessage != null && echoSeconds > 0) {
+            echoTask = group.scheduleAtFixedRate(this::echo, echoSeconds, echoSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Closes every link, failing their outstanding requests.
+     */
+    public synchronized void close() {
+        if (echoTask != null) {
+            echoTask.cancel(false);
+        }
+        for (Link link : links) {
+            link.client.close();
+        }
+        if (ownGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Returns the link the next message should go to, or null if no link is open.
+     */
+    public Link select() {
+        final Policy p = policy;
+        Link best = null;
+        double bestScore = Double.MAX_VALUE;
+        boolean bestHealthy = false;
+        for (Link link : links) {
+            if (!link.client.isActive()) {
+                continue;
+            }
+            final boolean healthy = link.getErrorRate() <= maxErrorRate;
+            if (bestHealthy && !healthy) {
+                continue;
+            }
+            final double score = link.score(p);
+            if (best == null || (healthy && !bestHealthy) || score < bestScore) {
+                best = link;
+                bestScore = score;
+                bestHealthy = healthy;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Sends a request on the selected link and returns the future for its response, which fails
+     * at once if no link is open. As with {@link UpiClient#request(Message)}, the caller gives up
+     * after a timeout by cancelling the future; that counts as an error of the link.
+     */
+    public CompletableFuture<Message> request(Message message) {
+        final Link link = select();
+        if (link == null) {
+            CompletableFuture<Message> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("No UPI link is open"));
+            return failed;
+        }
+        return link.request(message);
+    }
+
+    /**
+     * Writes the message on the selected link, without waiting for a response.
+     */
+    public Future<Void> send(Message message) {
+        final Link link = select();
+        if (link == null) {
+            return group.next().newFailedFuture(new IllegalStateException("No UPI link is open"));
+        }
+        return link.client.send(message);
+    }
+
+    private void echo() {
+        for (Link link : links) {
+            if (link.client.isActive()) {
+                try {
+                    link.request(echoMessage.get(), TimeUnit.SECONDS.toMillis(echoSeconds));
+                } catch (RuntimeException e) {
+                    logger.error("Failed to send echo test on " + link, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A link to UPI and its statistics.
+     */
+    public static final class Link {
+        private final ConnectManager manager;
+        private final SocketAddress address;
+        private final UpiClient client;
+        private final int weight;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double rttMillis;
+        private volatile double errorRate;
+        private volatile long errorNanos = System.nanoTime();
+
+        Link(ConnectManager manager, SocketAddress address, UpiClient client, int weight) {
+            this.manager = manager;
+            this.address = address;
+            this.client = client;
+            this.weight = weight;
+        }
+
+        CompletableFuture<Message> request(Message message) {
+            return request(message, client.getCorrelator().getTimeoutMillis());
+        }
+
+        CompletableFuture<Message> request(Message message, long timeoutMillis) {
+            inFlight.incrementAndGet();
+            final long start = System.nanoTime();
+            final CompletableFuture<Message> response = client.request(message, timeoutMillis);
+            response.whenComplete((m, e) -> {
+                inFlight.decrementAndGet();
+                record(e == null ? (System.nanoTime() - start) / 1e6 : -1);
+            });
+            return response;
+        }
+
+        /* A negative round trip time records an error */
+        private synchronized void record(double rtt) {
+            final long now = System.nanoTime();
+            final double rate = decayed(now);
+            errorRate = rate + ALPHA * ((rtt < 0 ? 1 : 0) - rate);
+            errorNanos = now;
+            if (rtt >= 0) {
+                rttMillis = rttMillis == 0 ? rtt : rttMillis + ALPHA * (rtt - rttMillis);
+            }
+        }
+
+        /* A new connection starts with a clean record */
+        synchronized void reset() {
+            errorRate = 0;
+            errorNanos = System.nanoTime();
+        }
+
+        private double decayed(long now) {
+            final long halfLife = manager.errorHalfLifeMillis;
+            final double rate = errorRate;
+            if (halfLife <= 0 || rate == 0) {
+                return rate;
+            }
+            return rate * Math.pow(0.5, (now - errorNanos) / 1e6 / halfLife);
+        }
+
+        double score(Policy policy) {
+            //Links never measured count as taking 1ms
+            final double rtt = Math.max(rttMillis, 1);
+            final int n = inFlight.get();
+            if (policy == Policy.WEIGHTED) {
+                return (n + 1) * rtt / weight;
+            }
+            return n + rtt / (rtt + 1e6);
+        }
+
+        public SocketAddress getAddress() {
+            return address;
+        }
+
+        public UpiClient getClient() {
+            return client;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public boolean isActive() {
+            return client.isActive();
+        }
+
+        /**
+         * Returns the number of requests sent on the link that are still waiting for a response.
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * Returns the moving average of the round trip time in milliseconds, 0 until a response arrives.
+         */
+        public double getRttMillis() {
+            return rttMillis;
+        }
+
+        /**
+         * Returns the moving average of the rate of requests that failed or timed out, 0 to 1,
+         * decayed for the time since the last request completed.
+         */
+        public double getErrorRate() {
+            return decayed(System.nanoTime());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Link[%s inFlight=%d rtt=%.1fms errors=%.2f]", address, inFlight.get(),
+                    rttMillis, getErrorRate());
+        }
+    }
 }
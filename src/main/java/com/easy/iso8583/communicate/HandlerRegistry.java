@@ -0,0 +1,261 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoValue;
+import com.easy.iso8583.util.AsciiDigits;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * Routes inbound messages to handlers by message type and, optionally, by network management
+ * information code (field 70: 001 sign on, 301 echo test, 201 cut-off...). Routes are compiled by
+ * the {@link Builder} into a table indexed by the last three digits of the type, with an array of
+ * codes for the types that have routes by code, so a lookup is two array reads and no hashing.
+ * A route by code takes precedence over the route for its whole type.
+ * <p>
+ * A route runs a {@link Handler} or an {@link AsyncHandler}, on the dispatching thread
+ * or on an executor of its own; or it runs a handler before the default one, for steps that every
+ * message of the type needs (like installing the keys of an 0800). Messages with no route go to the
+ * default handler passed to {@link #dispatch}.
+ */
+public final class HandlerRegistry {
+
+    /**
+     * Matches every code of a type, and messages without field 70.
+     */
+    public static final int ANY_CODE = -1;
+
+    private static final int MAX_CODE = 999;
+
+    /**
+     * A handler that is done when it returns. A {@link com.easy.iso8583.MesgHandle} service
+     * is one by its method reference: {@code handle::handle}.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        void handle(Message message);
+    }
+
+    /**
+     * A handler that completes later, for example after a call to another system.
+     */
+    @FunctionalInterface
+    public interface AsyncHandler {
+        CompletionStage<?> handle(Message message);
+    }
+
+    private final Slot[] slots;
+
+    private HandlerRegistry(Slot[] slots) {
+        this.slots = slots;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Runs the handler of the message's route, or the default handler if it has none.
+     *
+     * @param message        The message.
+     * @param defaultHandler Handles messages without a route, and messages after a "before" handler.
+     * @return A stage that completes when the message has been handled, exceptionally if a handler failed.
+     */
+    public CompletionStage<Void> dispatch(Message message, Handler defaultHandler) {
+        final Route route = find(message);
+        if (route == null) {
+            return invoke(null, message, defaultHandler);
+        }
+        if (route.executor == null) {
+            return invoke(route, message, defaultHandler);
+        }
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            route.executor.execute(() -> invoke(route, message, defaultHandler).whenComplete((v, ex) -> {
+                if (ex == null) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(ex);
+                }
+            }));
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    /**
+     * Returns true if messages of the type and code have a route of their own.
+     *
+     * @param code The code in field 70, or {@link #ANY_CODE}.
+     */
+    public boolean hasRoute(int type, int code) {
+        final Slot slot = slot(type);
+        return slot != null && (slot.any != null || (code >= 0 && slot.byCode != null && slot.byCode[code] != null));
+    }
+
+    private Slot slot(int type) {
+        Slot slot = slots[type & 0xfff];
+        while (slot != null && slot.type != type) {
+            slot = slot.next;
+        }
+        return slot;
+    }
+
+    private Route find(Message message) {
+        final Slot slot = slot(message.body.getType());
+        if (slot == null) {
+            return null;
+        }
+        if (slot.byCode != null) {
+            final IsoValue<?> f70 = message.body.getField(70);
+            if (f70 != null) {
+                try {
+                    final long code = AsciiDigits.parseLong(f70.toString());
+                    if (code <= MAX_CODE && slot.byCode[(int) code] != null) {
+                        return slot.byCode[(int) code];
+                    }
+                } catch (NumberFormatException e) {
+                    //Not a code; the route for the type applies
+                }
+            }
+        }
+        return slot.any;
+    }
+
+    private static CompletionStage<Void> invoke(Route route, Message message, Handler defaultHandler) {
+        try {
+            if (route == null) {
+                defaultHandler.handle(message);
+            } else if (route.async != null) {
+                return route.async.handle(message).thenApply(r -> null);
+            } else {
+                route.sync.handle(message);
+                if (route.before) {
+                    defaultHandler.handle(message);
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (Throwable e) {
+            final CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static final class Route {
+        final Handler sync;
+        final AsyncHandler async;
+        final boolean before;
+        final Executor executor;
+
+        Route(Handler sync, AsyncHandler async, boolean before, Executor executor) {
+            this.sync = sync;
+            this.async = async;
+            this.before = before;
+            this.executor = executor;
+        }
+    }
+
+    private static final class Slot {
+        final int type;
+        Route any;
+        Route[] byCode;
+        Slot next;
+
+        Slot(int type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Collects the routes. Registering a route again for the same type and code replaces it.
+     */
+    public static final class Builder {
+        private final Slot[] slots = new Slot[0x1000];
+
+        private Builder() {
+        }
+
+        /**
+         * Routes every message of the type to a handler that runs on the dispatching thread.
+         */
+        public Builder sync(int type, Handler handler) {
+            return sync(type, ANY_CODE, handler, null);
+        }
+
+        /**
+         * Routes the messages of the type and code to a handler.
+         *
+         * @param code     The code in field 70, or {@link #ANY_CODE}.
+         * @param executor Runs the handler, or null to run it on the dispatching thread.
+         */
+        public Builder sync(int type, int code, Handler handler, Executor executor) {
+            return add(type, code, new Route(handler, null, false, executor));
+        }
+
+        /**
+         * Routes the messages of the type and code to a handler that completes later.
+         *
+         * @param code     The code in field 70, or {@link #ANY_CODE}.
+         * @param executor Calls the handler, or null to call it on the dispatching thread.
+         */
+        public Builder async(int type, int code, AsyncHandler handler, Executor executor) {
+            return add(type, code, new Route(null, handler, false, executor));
+        }
+
+        /**
+         * Runs a handler on the messages of the type and code, and then the default handler.
+         *
+         * @param code The code in field 70, or {@link #ANY_CODE}.
+         */
+        public Builder before(int type, int code, Handler handler) {
+            return add(type, code, new Route(handler, null, true, null));
+        }
+
+        private Builder add(int type, int code, Route route) {
+            if (type < 0 || type > 0xffff) {
+                throw new IllegalArgumentException(String.format("Invalid message type %x", type));
+            }
+            if (code < ANY_CODE || code > MAX_CODE) {
+                throw new IllegalArgumentException("Invalid network management code " + code);
+            }
+            Slot slot = slots[type & 0xfff];
+            while (slot != null && slot.type != type) {
+                slot = slot.next;
+            }
+            if (slot == null) {
+                slot = new Slot(type);
+                slot.next = slots[type & 0xfff];
+                slots[type & 0xfff] = slot;
+            }
+            if (code == ANY_CODE) {
+                slot.any = route;
+            } else {
+                if (slot.byCode == null) {
+                    slot.byCode = new Route[MAX_CODE + 1];
+                }
+                slot.byCode[code] = route;
+            }
+            return this;
+        }
+
+        /**
+         * Compiles the routes. The builder can be used afterwards without affecting the registry.
+         */
+        public HandlerRegistry build() {
+            final Slot[] table = new Slot[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                for (Slot s = slots[i]; s != null; s = s.next) {
+                    final Slot copy = new Slot(s.type);
+                    copy.any = s.any;
+                    copy.byCode = s.byCode == null ? null : s.byCode.clone();
+                    copy.next = table[i];
+                    table[i] = copy;
+                }
+            }
+            return new HandlerRegistry(table);
+        }
+    }
+}
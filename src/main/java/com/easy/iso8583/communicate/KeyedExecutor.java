@@ -0,0 +1,176 @@
+package com.easy.iso8583.communicate;
+
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a shared executor while keeping the order of tasks with the same key. Keys are
+ * spread over a fixed number of lanes by their hash code; each lane runs its tasks one at a time,
+ * in the order they were submitted, and different lanes run in parallel. A lane only occupies a
+ * thread of the executor while it has tasks, and gives it back after a batch so that other work
+ * gets a turn. Submitting never blocks: the tasks waiting in the lanes are bounded, like the queue
+ * of the executor, and a task over the bound is rejected.
+ * <p>
+ * A lane is never run inside itself: when the executor refuses to take a lane back after a batch,
+ * or runs it on the same thread as a caller-runs policy does, the thread keeps running the lane.
+ */
+public class KeyedExecutor implements Executor {
+
+    static Logger logger = Logger.getLogger(KeyedExecutor.class);
+
+    /**
+     * The number of tasks that can wait in the lanes unless specified.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    /* Tasks a lane runs before it gives its thread back */
+    private static final int BATCH = 64;
+    /* The lane the thread is running, to tell when the executor runs a lane inside itself */
+    private static final ThreadLocal<Lane> RUNNING = new ThreadLocal<>();
+
+    private final Executor executor;
+    /* Takes the lanes back after a batch */
+    private final Executor resubmit;
+    private final Lane[] lanes;
+    private final int mask;
+    private final int capacity;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Creates an executor with twice as many lanes as there are processors, where up to
+     * {@value #DEFAULT_CAPACITY} tasks can wait.
+     */
+    public KeyedExecutor(Executor executor) {
+        this(executor, Runtime.getRuntime().availableProcessors() * 2, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param executor Runs the lanes.
+     * @param lanes    The number of lanes, rounded up to a power of two.
+     * @param capacity The number of tasks that can wait in the lanes.
+     */
+    public KeyedExecutor(Executor executor, int lanes, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int n = 1;
+        while (n < lanes) {
+            n <<= 1;
+        }
+        this.executor = executor;
+        this.resubmit = executor instanceof BusinessExecutor ? ((BusinessExecutor) executor).nonBlocking() : executor;
+        this.lanes = new Lane[n];
+        this.mask = n - 1;
+        this.capacity = capacity;
+        for (int i = 0; i < n; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Runs the task after every task submitted before with a key of the same lane.
+     *
+     * @param key The key, or null to use the first lane.
+     * @throws RejectedExecutionException if the lanes are full or the executor refuses to run the lane;
+     *                                    the task is dropped.
+     */
+    public void execute(Object key, Runnable task) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        lanes[h & mask].add(task);
+    }
+
+    /**
+     * Runs the task on the first lane, same as {@code execute(null, task)}.
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(null, task);
+    }
+
+    /**
+     * Returns the number of tasks waiting in every lane.
+     */
+    public int pending() {
+        return waiting.get();
+    }
+
+    final class Lane implements Runnable {
+        final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void add(Runnable task) {
+            if (waiting.incrementAndGet() > capacity) {
+                waiting.decrementAndGet();
+                throw new RejectedExecutionException(capacity + " tasks already waiting in ordered lanes");
+            }
+            queue.offer(task);
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                if (queue.remove(task)) {
+                    waiting.decrementAndGet();
+                }
+                throw e;
+            }
+        }
+
+        void schedule() {
+            if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            if (RUNNING.get() == this) {
+                //Run by the executor on the thread handing it back: that thread carries on instead
+                RUNNING.set(null);
+                return;
+            }
+            final Lane outer = RUNNING.get();
+            try {
+                do {
+                    RUNNING.set(this);
+                    Runnable task;
+                    for (int i = 0; i < BATCH && (task = queue.poll()) != null; i++) {
+                        waiting.decrementAndGet();
+                        try {
+                            task.run();
+                        } catch (Throwable e) {
+                            logger.error("Task failed in ordered lane:", e);
+                        }
+                    }
+                    scheduled.set(false);
+                } while (!queue.isEmpty() && scheduled.compareAndSet(false, true) && !handBack());
+            } finally {
+                RUNNING.set(outer);
+            }
+        }
+
+        /**
+         * Gives the lane back to the executor; false if it didn't take it, and the thread goes on
+         * running the lane.
+         */
+        private boolean handBack() {
+            try {
+                resubmit.execute(this);
+            } catch (RejectedExecutionException e) {
+                return false;
+            }
+            //Cleared if the executor ran the lane on this thread
+            return RUNNING.get() == this;
+        }
+    }
+}
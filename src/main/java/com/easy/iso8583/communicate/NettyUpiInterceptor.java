@@ -0,0 +1,181 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.AsyncBusinessHandle;
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.ProtocolFactory;
+import com.easy.iso8583.communicate.netty.UpiClient;
+import com.gd.magic.MagicFactory;
+import com.gd.magic.rmi.RemoteInterceptor;
+import com.gd.magic.rmi.SocketConnect;
+import net.sf.cglib.proxy.MethodProxy;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Same as {@link AsyncUpiInterceptor}, over a {@link UpiClient} instead of a blocking socket with
+ * a receive thread: sends are not serialized by a lock, heartbeats are sent only when the link is idle
+ * and reconnection is driven by the event loop. The address of UPI is read from the properties
+ * upi.host and upi.port, and resolved again on every reconnection. Without them it falls back to
+ * the address of the connection configured for the interceptor, which is then opened once to find
+ * it out and closed.
+ * <p>
+ * As with {@link UPIInterceptor}, a second argument of type Boolean asks for the response, which is
+ * returned instead of being handed to the business handler. Only the calling thread waits for it;
+ * other requests keep flowing on the connection meanwhile. With the property upi.autoReversal set to
+ * true, a 0100 or 0200 that gets no response in time is reversed with an 0420.
+ */
+public class NettyUpiInterceptor extends RemoteInterceptor {
+    private static Logger logger = Logger.getLogger(NettyUpiInterceptor.class);
+
+    AsyncBusinessHandle handle = (AsyncBusinessHandle) MagicFactory.getProxy(AsyncBusinessHandle.class);
+    private volatile UpiClient client;
+    private volatile SocketAddress address = configuredAddress();
+    private volatile long responseTimeoutMillis = 60000;
+
+    /**
+     * Returns the address in the properties upi.host and upi.port, or null if they are not set.
+     */
+    static SocketAddress configuredAddress() {
+        final String host = MagicFactory.getProperty("upi.host");
+        final String port = MagicFactory.getProperty("upi.port");
+        if (host == null || host.trim().isEmpty() || port == null) {
+            return null;
+        }
+        return InetSocketAddress.createUnresolved(host.trim(), Integer.parseInt(port.trim()));
+    }
+
+    /**
+     * Sets the address of UPI, for the connection opened from now on.
+     */
+    public void setAddress(SocketAddress address) {
+        this.address = address;
+    }
+
+    private UpiClient getClient() throws Exception {
+        UpiClient c = client;
+        if (c == null) {
+            synchronized (this) {
+                c = client;
+                if (c == null) {
+                    c = createClient();
+                    c.start();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    private SocketAddress getAddress() throws Exception {
+        SocketAddress a = address;
+        if (a == null) {
+            logger.warn("upi.host and upi.port are not set, opening the configured connection to find the address of UPI");
+            final SocketConnect conn = getConnect();
+            try {
+                a = conn.getSocket().getRemoteSocketAddress();
+            } finally {
+                conn.setInvalid(true);
+                closeConnect(conn);
+            }
+            address = a;
+        }
+        return a;
+    }
+
+    private UpiClient createClient() throws Exception {
+        final SocketAddress address = getAddress();
+        final MessageFactory<IsoMessage> factory = ProtocolFactory.createUPIFactory("conf/j8583.xml");
+        final BusinessExecutor executor = BusinessExecutor.getDefault();
+        final UpiClient c = new UpiClient(address, factory, msg -> {
+            try {
+                //On the event loop, which must not run the handler even if the executor is full
+                executor.nonBlocking().execute(() -> {
+                    try {
+                        TestServer.innerHandler(handle, msg);
+                    } catch (Throwable e) {
+                        logger.error("Business Processing Exception:", e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.error("Business executor is full, message dropped: " + executor, e);
+            }
+        });
+        c.getCorrelator().setTimeoutMillis(responseTimeoutMillis);
+        if ("true".equals(MagicFactory.getProperty("upi.autoReversal"))) {
+            c.getCorrelator().setReversalHandler(factory, reversal -> c.send(reversal).addListener(f -> {
+                if (f.isSuccess()) {
+                    logger.warn("Reversal sent for timed out request: " + reversal.body.getObjectValue(90));
+                } else {
+                    logger.error("Failed to send reversal " + reversal.body.getObjectValue(90), f.cause());
+                }
+            }));
+        }
+        return c;
+    }
+
+    /**
+     * Sets how long a caller waits for a response before {@link TimeoutException} is thrown, and an
+     * 0100 or 0200 sent without waiting is reversed.
+     */
+    public void setResponseTimeoutMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Response timeout must be positive: " + millis);
+        }
+        responseTimeoutMillis = millis;
+        final UpiClient c = client;
+        if (c != null) {
+            c.getCorrelator().setTimeoutMillis(millis);
+        }
+    }
+
+    /**
+     * Returns true if the connection to UPI is open. It is opened by the first call.
+     */
+    public boolean isConnected() {
+        final UpiClient c = client;
+        return c != null && c.isActive();
+    }
+
+    /**
+     * Closes the connection to UPI, failing the calls waiting on it. The next call opens a new one.
+     */
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    public Object intercept(Method method, Object[] objects, MethodProxy methodProxy) throws Throwable {
+        Message message = (Message) objects[0];
+        logger.info("intercept method = [" + method + "] message=" + message);
+        if (message != null && objects.length > 1 && objects[1] instanceof Boolean) {
+            //The correlator fails the future on timeout, and sends the reversal if it's set to
+            final long timeout = responseTimeoutMillis;
+            CompletableFuture<Message> response = getClient().request(message, timeout);
+            try {
+                return response.get(timeout + RequestCorrelator.TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                response.cancel(false);
+                throw e;
+            }
+        }
+        getClient().send(message == null ? Message.NullMessage : message).addListener(f -> {
+            if (!f.isSuccess()) {
+                logger.error("intercept Failed to send a message:", f.cause());
+            }
+        });
+        return null;
+    }
+}
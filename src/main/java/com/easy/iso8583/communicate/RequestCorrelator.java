@@ -0,0 +1,240 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.IsoValue;
+import com.easy.iso8583.MessageFactory;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Matches responses to outstanding requests, so that many requests can be in flight on one
+ * connection. A request and its response share the key made of the response type (request
+ * type + 0x10, e.g. 0200/0210 or 0420/0430) and fields 11 (STAN), 7 (transmission date),
+ * 32 (acquirer) and 33 (forwarding institution). If both carry field 37 (RRN) it must match too;
+ * a response with a different RRN is logged and left unmatched.
+ * <p>
+ * Registering a request returns a future that is completed with the response. A future that is
+ * cancelled or completed by the caller (on a timeout, for instance) is removed from the correlator.
+ * <p>
+ * With a timeout set, the correlator fails the future itself with a {@link TimeoutException} when
+ * no response arrives in time. Timeouts are kept in a hashed timing wheel shared by every correlator,
+ * with 10ms ticks, so adding and cancelling one takes constant time however many requests are out.
+ * If a reversal handler is set, a timed out 0100 or 0200 also gets its 0420 reversal built and
+ * passed to the handler, on the timer's thread.
+ */
+public class RequestCorrelator {
+
+    static Logger logger = Logger.getLogger(RequestCorrelator.class);
+
+    /**
+     * How much longer than the timeout of a request a caller waits for its future, in case the timer
+     * is late; the timer fails the future first, and sends the reversal.
+     */
+    public static final long TIMEOUT_GRACE_MILLIS = 1000;
+
+    private static final int[] KEY_FIELDS = {11, 7, 32, 33};
+    /* The fields of the original request that go in its reversal */
+    private static final int[] REVERSAL_FIELDS = {2, 3, 4, 5, 6, 7, 9, 10, 11, 12, 13, 14, 18, 19, 22, 23, 25,
+            32, 33, 37, 41, 42, 43, 49, 50, 51, 60};
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private volatile long timeoutMillis;
+    private volatile MessageFactory<IsoMessage> reversalFactory;
+    private volatile Consumer<Message> reversalHandler;
+
+    /**
+     * Sets how long {@link #register(Message)} waits for a response before failing the future,
+     * 0 (the default) to leave it to the caller.
+     */
+    public void setTimeoutMillis(long millis) {
+        timeoutMillis = millis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Has the reversal of every 0100 and 0200 that times out passed to the handler, which usually
+     * sends it. The handler runs on the timer's thread, so it must not block.
+     *
+     * @param factory Creates the reversals.
+     * @param handler Receives the reversals, or null to stop building them.
+     */
+    public void setReversalHandler(MessageFactory<IsoMessage> factory, Consumer<Message> handler) {
+        reversalFactory = factory;
+        reversalHandler = handler;
+    }
+
+    /**
+     * Registers a request that is about to be sent, with the timeout set for the correlator.
+     *
+     * @return The future for the response. It fails at once with an IllegalStateException
+     * if a request with the same key is already outstanding.
+     */
+    public CompletableFuture<Message> register(Message request) {
+        return register(request, timeoutMillis);
+    }
+
+    /**
+     * Registers a request that is about to be sent.
+     *
+     * @param timeoutMillis The time to wait for the response, 0 to wait until the caller gives up.
+     */
+    public CompletableFuture<Message> register(Message request, long timeoutMillis) {
+        final String key = key(request.body, request.body.getType() + 0x10);
+        final Pending p = new Pending(request);
+        if (pending.putIfAbsent(key, p) != null) {
+            p.future.completeExceptionally(new IllegalStateException("Duplicate outstanding request " + key));
+            return p.future;
+        }
+        final Timeout timeout = timeoutMillis > 0
+                ? TimerHolder.TIMER.newTimeout(t -> expire(key, p), timeoutMillis, TimeUnit.MILLISECONDS) : null;
+        p.future.whenComplete((r, ex) -> {
+            pending.remove(key, p);
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        });
+        return p.future;
+    }
+
+    private void expire(String key, Pending p) {
+        if (!p.future.completeExceptionally(new TimeoutException("No response to " + key))) {
+            return;
+        }
+        final Consumer<Message> handler = reversalHandler;
+        if (handler != null && isReversible(p.request)) {
+            try {
+                handler.accept(reversal(p.request, reversalFactory));
+            } catch (RuntimeException e) {
+                logger.error("Cannot reverse request " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the message is an 0100 or an 0200, which is reversed when it gets no response.
+     * Every one sent must be registered, also when the caller doesn't wait for the response.
+     */
+    public static boolean isReversible(Message message) {
+        if (message == null || message.body == null) {
+            return false;
+        }
+        final int type = message.body.getType();
+        return type == 0x100 || type == 0x200;
+    }
+
+    /**
+     * Builds the 0420 reversal of a request: the same header, the request's transaction fields,
+     * field 39 set to 98 (no response) and field 90 with the original data elements, which are the
+     * request's type, STAN, transmission date and institution IDs.
+     */
+    public static Message reversal(Message request, MessageFactory<IsoMessage> factory) {
+        final IsoMessage orig = request.body;
+        final IsoMessage rev = factory.newMessage(0x420);
+        rev.copyFieldsFrom(orig, REVERSAL_FIELDS);
+        rev.setValue(39, "98", IsoType.ALPHA, 2);
+        final StringBuilder sb = new StringBuilder(42);
+        sb.append(String.format("%04x", orig.getType()));
+        appendPadded(sb, orig.getField(11), 6);
+        appendPadded(sb, orig.getField(7), 10);
+        appendPadded(sb, orig.getField(32), 11);
+        appendPadded(sb, orig.getField(33), 11);
+        rev.setValue(90, sb.toString(), IsoType.ALPHA, 42);
+        return new Message(request.head, rev);
+    }
+
+    /* Zero-padded on the left, as numeric fields are */
+    private static void appendPadded(StringBuilder sb, IsoValue<?> v, int length) {
+        final String s = v == null ? "" : v.toString();
+        for (int i = s.length(); i < length; i++) {
+            sb.append('0');
+        }
+        sb.append(s, Math.max(0, s.length() - length), s.length());
+    }
+
+    /**
+     * Completes the future of the request the message responds to.
+     *
+     * @return false if the message does not match any outstanding request.
+     */
+    public boolean complete(Message response) {
+        if (response == null || response.body == null) {
+            return false;
+        }
+        final String key = key(response.body, response.body.getType());
+        final Pending p = pending.get(key);
+        if (p == null) {
+            return false;
+        }
+        final IsoMessage req = p.request.body;
+        if (req.hasField(37) && response.body.hasField(37)
+                && !req.getField(37).toString().equals(response.body.getField(37).toString())) {
+            logger.warn("Response " + key + " has RRN " + response.body.getField(37)
+                    + " instead of " + req.getField(37));
+            return false;
+        }
+        return p.future.complete(response);
+    }
+
+    /**
+     * Fails every outstanding request, for example when the connection is lost.
+     */
+    public void failAll(Throwable cause) {
+        for (Iterator<Pending> it = pending.values().iterator(); it.hasNext(); ) {
+            final Pending p = it.next();
+            it.remove();
+            p.future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a response.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the matching key of a message, with the specified response type.
+     */
+    static String key(IsoMessage m, int responseType) {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append(Integer.toHexString(responseType));
+        for (int field : KEY_FIELDS) {
+            sb.append('|');
+            final IsoValue<?> v = m.getField(field);
+            if (v != null) {
+                sb.append(v.toString());
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class TimerHolder {
+        static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("upi-request-timeout", true),
+                10, TimeUnit.MILLISECONDS, 1024);
+    }
+
+    private static final class Pending {
+        final Message request;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+
+        Pending(Message request) {
+            this.request = request;
+        }
+    }
+}
@@ -1,16 +1,18 @@
 package com.easy.iso8583.communicate;
 
 import com.easy.iso8583.*;
+import com.easy.iso8583.communicate.netty.UpiServer;
 import com.easy.iso8583.util.HexCodec;
 import com.gd.magic.MagicFactory;
 import com.gd.magic.util.StringUtil;
 import org.apache.log4j.Logger;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
 
 /**
  * @author dy_gu king.gu@gmail.com
@@ -24,29 +26,32 @@ public class TestServer {
     static InputStream inputStream;
     static OutputStream outputStream;
 
-    final static boolean CHECK_UPI_MAC;
+    private static volatile boolean checkUpiMac = MagicFactory.getProperty("checkUPIMac") != null;
+    private static volatile Supplier<byte[]> macKey = () -> MagicFactory.getService(UpiKeyService.class).getMacKey();
 
-    static {
-        CHECK_UPI_MAC = MagicFactory.getProperty("checkUPIMac") != null;
+    private static volatile HandlerRegistry registry = defaultRoutes().build();
+
+    /**
+     * Turns the MAC check of inbound messages and the MAC of their responses on or off; on if the
+     * property checkUPIMac is set.
+     */
+    static void setCheckUpiMac(boolean check) {
+        checkUpiMac = check;
     }
 
+    /**
+     * Sets where the MAC key comes from, the {@link UpiKeyService} by default.
+     */
+    static void setMacKey(Supplier<byte[]> key) {
+        macKey = key;
+    }
 
-    public static void main(String[] args) throws IOException {
-        ProtocolFactory.createUPIFactory("conf/j8583.xml");
-        ServerSocket ss = new ServerSocket(2889);
-        while (true) {
-            Socket socket = ss.accept();
-            log.debug("main  createUPIFactory accept....");
-            while (true) {
-                try {
-                    inputStream = socket.getInputStream();
-                    outputStream = socket.getOutputStream();
-                    handle(inputStream, outputStream, factory, new TestServerBusinessHandler());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        factory = ProtocolFactory.createUPIFactory("conf/j8583.xml");
+        UpiServer server = new UpiServer(2889, factory, new TestServerBusinessHandler(),
+                BusinessExecutor.getDefault());
+        server.start().sync().channel().closeFuture().sync();
     }
 
     public static void handle(InputStream inputStream,
@@ -67,48 +72,74 @@ public class TestServer {
         }
     }
 
+    /**
+     * Sets the routes of inbound messages; the handler passed to {@link #innerHandler} handles the
+     * messages without a route. Start from {@link #defaultRoutes()} to keep the key exchange of 0800.
+     */
+    public static void setHandlerRegistry(HandlerRegistry registry) {
+        TestServer.registry = registry;
+    }
+
+    public static HandlerRegistry getHandlerRegistry() {
+        return registry;
+    }
+
+    /**
+     * Returns a builder with the routes every UPI member needs: the keys of an 0800 are installed
+     * before the MAC is checked and the message reaches the business handler.
+     */
+    public static HandlerRegistry.Builder defaultRoutes() {
+        return HandlerRegistry.builder()
+                .before(0x0800, HandlerRegistry.ANY_CODE, BaseHandle::h0800);
+    }
+
+    /**
+     * Handles the message by its route, waiting for asynchronous handlers to complete.
+     */
     public static void innerHandler(MesgHandle handler, Message isoMessage) throws IOException {
-        int type = isoMessage.body.getType();
-        boolean macSt = true;
-        switch (type) {
-//            case 0x0820:
-//                BaseHandle.h0820(isoMessage);
-//                break;
-//            case 0x0830:
-//                BaseHandle.h0830(isoMessage);
-//                break;
-            case 0x0800:
-                BaseHandle.h0800(isoMessage);
-                log.debug("0800 business type: " + Integer.toHexString(type)+ " resp39="+isoMessage.body.getField(39));
-                macSt = true;
-                macSt = innerCheckMac(isoMessage, macSt);
-                innerHandle(handler, isoMessage, macSt);
-                break;
-            default:
-                log.debug("default business type: " + Integer.toHexString(type)+ " resp39="+isoMessage.body.getField(39));
-                macSt = true;
-                macSt = innerCheckMac(isoMessage, macSt);
-                innerHandle(handler, isoMessage, macSt);
+        try {
+            innerHandlerAsync(handler, isoMessage).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
         }
-
     }
 
-    private static void innerHandle(MesgHandle handler, Message isoMessage, boolean macSt) {
-        if (macSt) {
-            handler.handle(isoMessage);
-        } else {
+    /**
+     * Handles the message by its route in the {@link #setHandlerRegistry registry}. Whatever the
+     * route, the MAC of the message is checked before it runs and the MAC of the response is added
+     * once it has completed; a message with a wrong MAC gets field 39 set to A0, and no route runs.
+     *
+     * @return A stage that completes when the message has been handled.
+     */
+    public static CompletionStage<Void> innerHandlerAsync(final MesgHandle handler, Message isoMessage) {
+        if (!innerCheckMac(isoMessage, true)) {
             isoMessage.body.setValue(39, "A0", IsoType.ALPHA, 2);
+            innerAddMac(isoMessage);
+            return CompletableFuture.completedFuture(null);
         }
-        if (CHECK_UPI_MAC) {
-            UpiKeyService keyService = MagicFactory.getService(UpiKeyService.class);
-            BaseHandle.addMac(isoMessage.body, keyService.getMacKey());
+        return registry.dispatch(isoMessage, msg -> {
+            log.debug("business type: " + Integer.toHexString(msg.body.getType()) + " resp39=" + msg.body.getField(39));
+            handler.handle(msg);
+        }).thenRun(() -> innerAddMac(isoMessage));
+    }
+
+    private static void innerAddMac(Message isoMessage) {
+        if (checkUpiMac) {
+            BaseHandle.addMac(isoMessage.body, macKey.get());
         }
     }
 
     private static boolean innerCheckMac(Message isoMessage, boolean macSt) {
-        if (CHECK_UPI_MAC) {
-            UpiKeyService keyService = MagicFactory.getService(UpiKeyService.class);
-            macSt = BaseHandle.checkMac(isoMessage.body, keyService.getMacKey());
+        if (checkUpiMac) {
+            macSt = BaseHandle.checkMac(isoMessage.body, macKey.get());
             if (!macSt) {
                 log.error("mac error");
             }
@@ -116,38 +147,43 @@ public class TestServer {
         return macSt;
     }
 
+    /**
+     * Reads one message off the stream, without reading past it.
+     *
+     * @return The message, {@link Message#NullMessage} for a heartbeat, or null if the stream has ended.
+     */
     static Message receiveMessage(InputStream inputStream, MessageFactory<IsoMessage> factory) throws IOException, ParseException {
-        byte[] lenBytes = new byte[4];
-        int readLen = inputStream.read(lenBytes);
-        if (readLen != 4) {
+        return toMessage(UpiFrameReader.readFrame(inputStream), factory);
+    }
+
+    /**
+     * Reads the next message from the reader, same as {@link #receiveMessage(InputStream, MessageFactory)}.
+     */
+    static Message receiveMessage(UpiFrameReader reader, MessageFactory<IsoMessage> factory) throws IOException, ParseException {
+        return toMessage(reader.next(), factory);
+    }
+
+    /**
+     * Parses a frame as returned by {@link UpiFrameReader}: null stays null, and an empty frame
+     * is a heartbeat.
+     */
+    static Message toMessage(byte[] frame, MessageFactory<IsoMessage> factory) throws IOException, ParseException {
+        if (frame == null) {
             return null;
         }
-        log.info("receive msg:" + HexCodec.hexEncode(lenBytes));
-        int len = Integer.parseInt(new String(lenBytes));
-        if (len == 0) {
-            // 
-//            outputStream.write(lenBytes);
-//            outputStream.flush();
+        if (frame.length == 0) {
+            log.debug("receive heartbeat");
             return Message.NullMessage;
         }
-        byte[] msg = new byte[len];
-        readLen = inputStream.read(msg);
-        if (readLen != msg.length) {
-            return null;
-        }
-        return createIsoMessage(msg, factory);
+        return createIsoMessage(frame, factory);
     }
 
     static void sendIsoMessage(Message isoMessage, OutputStream outputStream) throws IOException {
-        byte[] respBytes = isoMessage.body.writeData();
-        String lenStrLen = StringUtil.lengthFix(String.valueOf(respBytes.length + MsgHead.HEAD_LEN), 4, '0', false);
-        ByteArrayOutputStream outs = new ByteArrayOutputStream();
-        outs.write(lenStrLen.getBytes(StandardCharsets.US_ASCII));
-        outs.write(isoMessage.head.toResponseByteArray(respBytes.length));
-        outs.write(respBytes);
-        byte[] rsp = outs.toByteArray();
+        byte[] rsp = UpiFrame.encode(isoMessage);
         isoMessage.body.printMsg();
-        log.debug("send msg:" + StringUtil.bytesToHexStr(rsp));
+        if (log.isDebugEnabled()) {
+            log.debug("send msg:" + StringUtil.bytesToHexStr(rsp));
+        }
         outputStream.write(rsp);
         outputStream.flush();
     }
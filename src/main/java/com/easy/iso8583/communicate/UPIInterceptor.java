@@ -1,40 +1,192 @@
 package com.easy.iso8583.communicate;
 
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
 import com.easy.iso8583.ProtocolFactory;
+import com.gd.magic.MagicFactory;
 import com.gd.magic.rmi.RemoteInterceptor;
 import com.gd.magic.rmi.SocketConnect;
 import net.sf.cglib.proxy.MethodProxy;
+import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.text.ParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * Sends a message to UPI and, if a second argument of type Boolean is passed, returns the response.
+ * <p>
+ * By default every call opens a connection, sends, reads one message and closes it. With the
+ * property upi.multiplex set to true, calls share a pool of long-lived connections instead
+ * (upi.pool.size, 2 by default) to UPI, at upi.host and upi.port or else at the address of the
+ * configured connection: requests from any number of threads are in flight at once on each of them,
+ * responses are matched to their request by {@link RequestCorrelator}, and a call costs a round trip
+ * instead of a TCP handshake. Until a
+ * pooled connection is open, and whenever none is, calls fall back to a connection of their own.
+ * Messages from UPI that answer no pending request are logged and dropped, as they were never
+ * read before.
+ *
  * @author dy_gu king.gu@gmail.com
  * @version V1.0
  * @date 2021/5/18 下午2:07
  * @Copyright: 2021 wepay.mpay.cn Inc. All rights reserved.
  */
 public class UPIInterceptor extends RemoteInterceptor {
+    private static Logger logger = Logger.getLogger(UPIInterceptor.class);
+
+    private volatile boolean multiplexed = "true".equals(MagicFactory.getProperty("upi.multiplex"));
+    private int poolSize = intProperty("upi.pool.size", 2);
+    private volatile long responseTimeoutMillis = 60000;
+    private volatile ConnectManager pool;
+    private volatile SocketAddress address = NettyUpiInterceptor.configuredAddress();
+
+    private static int intProperty(String name, int defaultValue) {
+        final String s = MagicFactory.getProperty(name);
+        return s == null ? defaultValue : Integer.parseInt(s.trim());
+    }
+
+    /**
+     * Turns the pool of long-lived connections on or off; takes effect on the next call.
+     */
+    public synchronized void setMultiplexed(boolean multiplexed) {
+        this.multiplexed = multiplexed;
+        if (!multiplexed) {
+            close();
+        }
+    }
+
+    /**
+     * Sets the address of UPI, for the pool created from now on.
+     */
+    public void setAddress(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Sets the number of pooled connections, for the pool created from now on.
+     */
+    public void setPoolSize(int size) {
+        poolSize = size;
+    }
+
+    /**
+     * Sets how long a call on a pooled connection waits for a response before
+     * {@link TimeoutException} is thrown, and an 0100 or 0200 sent without waiting is reversed.
+     */
+    public void setResponseTimeoutMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Response timeout must be positive: " + millis);
+        }
+        responseTimeoutMillis = millis;
+        final ConnectManager p = pool;
+        if (p != null) {
+            for (ConnectManager.Link link : p.getLinks()) {
+                link.getClient().getCorrelator().setTimeoutMillis(millis);
+            }
+        }
+    }
+
+    /**
+     * Closes the pooled connections, failing the calls waiting on them.
+     */
+    public synchronized void close() {
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
     @Override
     public Object intercept(Method method, Object[] objects, MethodProxy methodProxy) throws Throwable {
+        Message message = (Message) objects[0];
+        boolean reply = objects.length > 1 && objects[1] != null && objects[1] instanceof Boolean;
+        final ConnectManager p = pool;
+        final ConnectManager.Link link = p == null || message == null ? null : p.select();
+        if (link != null) {
+            if (!reply) {
+                link.getClient().send(message).addListener(f -> {
+                    if (!f.isSuccess()) {
+                        logger.error("intercept Failed to send a message:", f.cause());
+                    }
+                });
+                return null;
+            }
+            final long timeout = responseTimeoutMillis;
+            final CompletableFuture<Message> response = link.request(message, timeout);
+            try {
+                return response.get(timeout + RequestCorrelator.TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                response.cancel(false);
+                throw e;
+            }
+        }
+
+        final SocketAddress a = address;
+        if (multiplexed && p == null && a != null) {
+            openPool(a);
+        }
+        return callOnce(message, reply);
+    }
+
+    /**
+     * Makes the call on a connection of its own, and opens the pool at the address of the connection
+     * if none is set.
+     */
+    Object callOnce(Message message, boolean reply) throws Exception {
         SocketConnect socketConnect = getConnect();
         try {
-            Message message = (Message) objects[0];
-            OutputStream outputStream = socketConnect.getSocket().getOutputStream();
-            TestServer.sendIsoMessage(message, outputStream);
-            if (objects.length > 1 && objects[1] != null && objects[1] instanceof Boolean) {
-                InputStream inputStream = socketConnect.getSocket().getInputStream();
-                return TestServer.receiveMessage(inputStream, ProtocolFactory.createUPIFactory("conf/j8583.xml"));
+            final Socket socket = socketConnect.getSocket();
+            if (multiplexed && pool == null) {
+                openPool(socket.getRemoteSocketAddress());
             }
-            return null;
-
+            return exchange(socket, message, reply);
         } finally {
             closeConnect(socketConnect);
         }
+    }
 
-
+    /**
+     * Sends the message and, if a reply is wanted, reads the next message from the socket.
+     */
+    static Object exchange(Socket socket, Message message, boolean reply) throws IOException, ParseException {
+        OutputStream outputStream = socket.getOutputStream();
+        TestServer.sendIsoMessage(message, outputStream);
+        if (reply) {
+            InputStream inputStream = socket.getInputStream();
+            return TestServer.receiveMessage(inputStream, ProtocolFactory.createUPIFactory("conf/j8583.xml"));
+        }
+        return null;
     }
 
+    /**
+     * Returns the pool of connections, null until it's opened.
+     */
+    ConnectManager getPool() {
+        return pool;
+    }
 
+    private synchronized void openPool(SocketAddress address) throws Exception {
+        if (pool != null || !multiplexed) {
+            return;
+        }
+        final MessageFactory<IsoMessage> factory = ProtocolFactory.createUPIFactory("conf/j8583.xml");
+        final ConnectManager p = new ConnectManager(factory, msg -> logger.warn("Message from UPI answers no request, dropped: "
+                + Integer.toHexString(msg.body.getType()) + " STAN=" + msg.body.getObjectValue(11)));
+        for (int i = 0; i < poolSize; i++) {
+            p.addLink(address).getClient().getCorrelator().setTimeoutMillis(responseTimeoutMillis);
+        }
+        p.start();
+        logger.info("Opening " + poolSize + " pooled connections to " + address);
+        pool = p;
+    }
 }
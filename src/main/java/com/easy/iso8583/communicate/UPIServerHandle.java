@@ -30,23 +30,44 @@ public class UPIServerHandle implements Service {
     ServiceHelper serviceHelper = MagicFactory.getService(ServiceHelper.class);
 
 
-    private static IoSession connSession;
+    private static final UpiSessionRegistry sessions = new UpiSessionRegistry();
 
     public void handleRequest(final IoSession session, final InputStream inStream,
                               final OutputStream out, final Properties properties) throws IOException, ParseException {
-        connSession = session;
         long begin = System.currentTimeMillis();
         String protocolFile = properties.getProperty("protocol");
         String ipAddress = ((InetSocketAddress) session.getRemoteAddress()).getAddress().getHostAddress();
         helper.setLoginIP(ipAddress);
+        UpiSessionRegistry.UpiSession upiSession = sessions.session(session, inStream, out);
+        Message isoMessage = TestServer.receiveMessage(inStream, ProtocolFactory.createUPIFactory(protocolFile));
+        if (isoMessage == null || isoMessage == Message.NullMessage) {
+            return;
+        }
+        sessions.register(upiSession, isoMessage.head);
         BusinessHandle handle = MagicFactory.getProxy(BusinessHandle.class);
-        TestServer.handle(inStream, out, ProtocolFactory.createUPIFactory(protocolFile), handle);
+        TestServer.innerHandler(handle, isoMessage);
+        if (isoMessage.body.getObjectValue(39) != null) {
+            upiSession.send(isoMessage);
+        }
         logger.debug("cost " + (System.currentTimeMillis() - begin) + "ms");
     }
 
+    /**
+     * Returns the sessions of the connected front-ends, by institution.
+     */
+    public static UpiSessionRegistry getSessions() {
+        return sessions;
+    }
 
+    /**
+     * Returns the connection that received a message last.
+     *
+     * @deprecated Several front-ends can be connected; use {@link #getSessions()} to pick one.
+     */
+    @Deprecated
     public static IoSession getConnSession() {
-        return connSession;
+        UpiSessionRegistry.UpiSession s = sessions.lookup(null);
+        return s == null ? null : s.getIoSession();
     }
 
 
@@ -0,0 +1,89 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.MsgHead;
+import io.netty.buffer.ByteBuf;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Assembles UPI frames: the length of header and body in 4 ASCII digits, the 46-byte
+ * {@link MsgHead} and the ISO8583 body. The body's size is computed before encoding,
+ * so the whole frame is written into one array of the exact size, or straight into a Netty
+ * buffer, with no intermediate copies.
+ */
+public final class UpiFrame {
+
+    /**
+     * The number of ASCII digits of the length prefix.
+     */
+    public static final int LENGTH_DIGITS = 4;
+    /**
+     * The largest length the prefix can hold, header included.
+     */
+    public static final int MAX_LENGTH = 9999;
+
+    private static final byte[] HEARTBEAT = {'0', '0', '0', '0'};
+
+    private UpiFrame() {
+    }
+
+    /**
+     * Encodes the response to the message as a complete frame. The header is built from
+     * the message's head, with source and destination swapped.
+     */
+    public static byte[] encode(Message message) throws UnsupportedEncodingException {
+        final int bodyLen = message.body.encodedLength();
+        final byte[] buf = new byte[LENGTH_DIGITS + MsgHead.HEAD_LEN + bodyLen];
+        write(message, bodyLen, buf, 0);
+        return buf;
+    }
+
+    /**
+     * Writes the frame for the response to the message into the buffer.
+     *
+     * @param message The message, whose head and body are written.
+     * @param bodyLen The body's length, as returned by {@link com.easy.iso8583.IsoMessage#encodedLength()}.
+     * @param buf     The buffer to write to, with room for the whole frame.
+     * @param pos     The position of the frame in the buffer.
+     * @return The position after the frame.
+     * @throws IllegalArgumentException if the frame is too long for the length prefix.
+     */
+    public static int write(Message message, int bodyLen, byte[] buf, int pos) throws UnsupportedEncodingException {
+        final int len = MsgHead.HEAD_LEN + bodyLen;
+        if (len > MAX_LENGTH) {
+            throw new IllegalArgumentException("UPI message too long: " + len);
+        }
+        pos = MsgHead.putDigits(len, buf, pos, LENGTH_DIGITS);
+        pos = message.head.writeResponse(buf, pos, bodyLen);
+        return message.body.writeData(buf, pos);
+    }
+
+    /**
+     * Writes the frame for the response to the message at the Netty buffer's writer index,
+     * and advances it. Heap buffers are written through their array, direct and composite buffers
+     * through their index API.
+     */
+    public static void write(Message message, ByteBuf out) throws UnsupportedEncodingException {
+        final int bodyLen = message.body.encodedLength();
+        final int len = LENGTH_DIGITS + MsgHead.HEAD_LEN + bodyLen;
+        if (len - LENGTH_DIGITS > MAX_LENGTH) {
+            throw new IllegalArgumentException("UPI message too long: " + (len - LENGTH_DIGITS));
+        }
+        out.ensureWritable(len);
+        if (out.hasArray()) {
+            write(message, bodyLen, out.array(), out.arrayOffset() + out.writerIndex());
+            out.writerIndex(out.writerIndex() + len);
+        } else {
+            int index = MsgHead.putDigits(MsgHead.HEAD_LEN + bodyLen, out, out.writerIndex(), LENGTH_DIGITS);
+            index = message.head.writeResponse(out, index, bodyLen);
+            out.writerIndex(message.body.writeData(out, index));
+        }
+    }
+
+    /**
+     * Writes a heartbeat, which is a length prefix of zero with nothing after it.
+     */
+    public static void writeHeartbeat(ByteBuf out) {
+        out.writeBytes(HEARTBEAT);
+    }
+}
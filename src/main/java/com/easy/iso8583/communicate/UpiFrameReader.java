@@ -0,0 +1,143 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.util.AsciiDigits;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Reads UPI frames from a stream, as written by {@link UpiFrame}. Reads go into an internal buffer
+ * as large as the stream will fill, so several frames that arrive together cost one read, and frames
+ * that arrive in pieces are put back together; the buffer grows to fit the longest frame.
+ * A reader buffers ahead, so it must be the only one reading from its stream, for as long as the stream
+ * is open. To read a single frame off a stream that is shared, use {@link #readFrame(InputStream)}.
+ */
+public class UpiFrameReader {
+
+    private static final byte[] HEARTBEAT = new byte[0];
+
+    private final InputStream in;
+    private byte[] buf;
+    /* The unread bytes are those from start to end */
+    private int start;
+    private int end;
+
+    public UpiFrameReader(InputStream in) {
+        this(in, 8192);
+    }
+
+    public UpiFrameReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buf = new byte[Math.max(bufferSize, UpiFrame.LENGTH_DIGITS + MsgHead.HEAD_LEN)];
+    }
+
+    /**
+     * Returns the next frame without its length prefix: the header and body of a message,
+     * or an empty array for a heartbeat. Blocks until the whole frame has arrived.
+     *
+     * @return The frame, or null if the stream ended before it began.
+     * @throws EOFException             if the stream ends in the middle of a frame.
+     * @throws StreamCorruptedException if the length prefix is not a number.
+     */
+    public byte[] next() throws IOException {
+        if (!fill(UpiFrame.LENGTH_DIGITS)) {
+            if (end > start) {
+                throw new EOFException("Stream ended in the middle of a UPI frame");
+            }
+            return null;
+        }
+        final int len = length(buf, start);
+        if (len == 0) {
+            start += UpiFrame.LENGTH_DIGITS;
+            return HEARTBEAT;
+        }
+        if (!fill(UpiFrame.LENGTH_DIGITS + len)) {
+            throw new EOFException("Stream ended in the middle of a UPI frame");
+        }
+        final byte[] frame = new byte[len];
+        System.arraycopy(buf, start + UpiFrame.LENGTH_DIGITS, frame, 0, len);
+        start += UpiFrame.LENGTH_DIGITS + len;
+        return frame;
+    }
+
+    /**
+     * Returns the number of bytes that have been read from the stream and not returned yet.
+     */
+    public int buffered() {
+        return end - start;
+    }
+
+    /**
+     * Reads one frame from the stream, same as {@link #next()}, without reading past its end.
+     * It takes at least two reads, so a reader should be kept instead for streams that are only read
+     * from one place.
+     */
+    public static byte[] readFrame(InputStream in) throws IOException {
+        final byte[] prefix = new byte[UpiFrame.LENGTH_DIGITS];
+        final int n = readFully(in, prefix, 0, prefix.length);
+        if (n == 0) {
+            return null;
+        } else if (n < prefix.length) {
+            throw new EOFException("Stream ended in the middle of a UPI frame");
+        }
+        final int len = length(prefix, 0);
+        if (len == 0) {
+            return HEARTBEAT;
+        }
+        final byte[] frame = new byte[len];
+        if (readFully(in, frame, 0, len) < len) {
+            throw new EOFException("Stream ended in the middle of a UPI frame");
+        }
+        return frame;
+    }
+
+    private static int readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            final int n = in.read(b, off + total, len - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    private static int length(byte[] b, int pos) throws StreamCorruptedException {
+        try {
+            return (int) AsciiDigits.parseLong(b, pos, UpiFrame.LENGTH_DIGITS);
+        } catch (NumberFormatException e) {
+            throw new StreamCorruptedException("Invalid UPI frame length: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads until there are at least the specified number of unread bytes.
+     *
+     * @return false if the stream ended first.
+     */
+    private boolean fill(int wanted) throws IOException {
+        if (end - start >= wanted) {
+            return true;
+        }
+        if (buf.length - start < wanted) {
+            //Move the unread bytes to the front, into a larger buffer if they still wouldn't fit
+            final byte[] dest = wanted > buf.length ? new byte[Math.max(wanted, buf.length * 2)] : buf;
+            System.arraycopy(buf, start, dest, 0, end - start);
+            buf = dest;
+            end -= start;
+            start = 0;
+        }
+        while (end - start < wanted) {
+            final int n = in.read(buf, end, buf.length - end);
+            if (n < 0) {
+                return false;
+            }
+            end += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package com.easy.iso8583.communicate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes UPI frames to a stream from any number of threads without a lock. Each thread encodes its
+ * frame and puts it in a queue; whichever thread finds no one else writing becomes the writer and
+ * drains the queue, copying every frame waiting at that moment into one buffer that is written and
+ * flushed at once. The other threads return as soon as their frame is queued, so under load most
+ * frames cost neither a system call nor a wait of their own.
+ * <p>
+ * If a write fails, the writer throws the exception, the frames that were being written are lost and
+ * every later write throws it as well; the stream should then be closed and a new writer created.
+ */
+public class UpiFrameWriter {
+
+    private static final byte[] HEARTBEAT = {'0', '0', '0', '0'};
+    /* Stop adding frames to a batch once it's this long */
+    private static final int MAX_BATCH = 65536;
+
+    private final OutputStream out;
+    private final Queue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    /* Only used by the thread that holds the writing flag */
+    private byte[] batch = new byte[8192];
+    private volatile IOException failure;
+    private volatile long lastWrite = System.nanoTime();
+
+    public UpiFrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Queues the frame for the response to the message, or a heartbeat for {@link Message#NullMessage}
+     * or null, and writes the queue unless another thread is already doing it.
+     */
+    public void write(Message message) throws IOException {
+        if (message == null || message == Message.NullMessage) {
+            writeFrame(HEARTBEAT);
+        } else {
+            writeFrame(UpiFrame.encode(message));
+        }
+    }
+
+    /**
+     * Queues a heartbeat.
+     */
+    public void writeHeartbeat() throws IOException {
+        writeFrame(HEARTBEAT);
+    }
+
+    /**
+     * Queues a complete frame, length prefix included.
+     */
+    public void writeFrame(byte[] frame) throws IOException {
+        checkFailure();
+        queue.offer(frame);
+        //Whoever sets the flag drains the queue; the check after clearing it makes sure
+        //no frame is left behind by a thread that found the flag set just before.
+        while (!queue.isEmpty() && writing.compareAndSet(false, true)) {
+            try {
+                drain();
+            } finally {
+                writing.set(false);
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} of the last flush, or of the writer's creation,
+     * to tell when a heartbeat is due.
+     */
+    public long getLastWriteNanos() {
+        return lastWrite;
+    }
+
+    /**
+     * Returns the number of frames waiting to be written.
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    private void drain() throws IOException {
+        try {
+            byte[] frame;
+            while ((frame = queue.poll()) != null) {
+                if (frame.length >= MAX_BATCH) {
+                    out.write(frame);
+                    continue;
+                }
+                int len = 0;
+                do {
+                    if (len + frame.length > batch.length) {
+                        final byte[] b = new byte[Math.max(batch.length * 2, len + frame.length)];
+                        System.arraycopy(batch, 0, b, 0, len);
+                        batch = b;
+                    }
+                    System.arraycopy(frame, 0, batch, len, frame.length);
+                    len += frame.length;
+                } while (len < MAX_BATCH && (frame = queue.poll()) != null);
+                out.write(batch, 0, len);
+            }
+            out.flush();
+            lastWrite = System.nanoTime();
+        } catch (IOException e) {
+            failure = e;
+            queue.clear();
+            throw e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        final IOException e = failure;
+        if (e != null) {
+            throw new IOException("UPI connection failed", e);
+        }
+    }
+}
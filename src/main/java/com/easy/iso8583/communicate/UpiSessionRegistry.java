@@ -0,0 +1,174 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
+import org.apache.log4j.Logger;
+import org.apache.mina.core.future.CloseFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The sessions of the UPI front-ends connected to the gateway, by institution. A session is
+ * registered under the source ID of the message heads it receives, and a message is sent on the
+ * session of the ID that goes in the destination slot of its frame, the source ID of its head, which
+ * {@link UpiFrame} swaps with the destination on the wire, so that several front-ends are served at
+ * once and each one gets its own messages. Every session has its own outbound queue, a {@link UpiFrameWriter}, so
+ * responses and requests written by different threads to the same front-end don't interleave and
+ * sessions don't wait for each other. Sessions leave the registry when they are closed.
+ * <p>
+ * A message for an institution that has no session goes on the session that received a message
+ * last, as all messages did when there was only one front-end.
+ */
+public class UpiSessionRegistry {
+
+    static Logger logger = Logger.getLogger(UpiSessionRegistry.class);
+
+    private static final AttributeKey KEY_SESSION = new AttributeKey(UpiSessionRegistry.class, "session");
+
+    private final ConcurrentMap<String, UpiSession> byInstitution = new ConcurrentHashMap<>();
+    private volatile UpiSession last;
+
+    /**
+     * Returns the session wrapping the connection, creating it on the first message received.
+     *
+     * @param in  The stream the connection is read from.
+     * @param out The stream the connection is written to.
+     */
+    public UpiSession session(IoSession ioSession, InputStream in, OutputStream out) {
+        UpiSession s = (UpiSession) ioSession.getAttribute(KEY_SESSION);
+        if (s == null) {
+            final UpiSession created = new UpiSession(ioSession, in, out);
+            s = (UpiSession) ioSession.setAttributeIfAbsent(KEY_SESSION, created);
+            if (s == null) {
+                s = created;
+                ioSession.getCloseFuture().addListener(new IoFutureListener<CloseFuture>() {
+                    @Override
+                    public void operationComplete(CloseFuture future) {
+                        remove(created);
+                    }
+                });
+            }
+        }
+        last = s;
+        return s;
+    }
+
+    /**
+     * Registers the session under the source institution of the head; a session can be registered
+     * under several institutions, and an institution moves to the session it was last seen on.
+     */
+    public void register(UpiSession session, MsgHead head) {
+        final String institution = key(head == null ? null : head.getSource());
+        if (institution != null && byInstitution.put(institution, session) != session) {
+            logger.info("UPI institution " + institution + " on " + session.ioSession.getRemoteAddress());
+        }
+    }
+
+    /**
+     * Returns the session of the institution, or of the last message received if the institution has
+     * none; null if no session is open.
+     */
+    public UpiSession lookup(String institution) {
+        final String key = key(institution);
+        if (key != null) {
+            final UpiSession s = byInstitution.get(key);
+            if (s != null && s.isOpen()) {
+                return s;
+            }
+        }
+        final UpiSession s = last;
+        return s != null && s.isOpen() ? s : null;
+    }
+
+    /**
+     * Returns the session the message should be sent on, by the source ID of its head: a message is
+     * built from the head of the one it answers, and {@link UpiFrame} writes that ID as the
+     * destination of the frame.
+     */
+    public UpiSession route(Message message) {
+        return lookup(message.head == null ? null : message.head.getSource());
+    }
+
+    /**
+     * Returns the institutions with a session.
+     */
+    public Collection<String> getInstitutions() {
+        return Collections.unmodifiableSet(byInstitution.keySet());
+    }
+
+    private void remove(UpiSession session) {
+        byInstitution.values().removeIf(s -> s == session);
+        if (last == session) {
+            last = null;
+        }
+        logger.info("UPI session closed: " + session.ioSession.getRemoteAddress());
+    }
+
+    private static String key(String id) {
+        if (id == null) {
+            return null;
+        }
+        final String key = id.trim();
+        return key.isEmpty() ? null : key;
+    }
+
+    /**
+     * The connection of a front-end.
+     */
+    public static final class UpiSession {
+        private final IoSession ioSession;
+        private final InputStream in;
+        private final UpiFrameWriter writer;
+        private final Object readLock = new Object();
+
+        UpiSession(IoSession ioSession, InputStream in, OutputStream out) {
+            this.ioSession = ioSession;
+            this.in = in;
+            this.writer = new UpiFrameWriter(out);
+        }
+
+        public IoSession getIoSession() {
+            return ioSession;
+        }
+
+        public boolean isOpen() {
+            return ioSession.isConnected() && !ioSession.isClosing();
+        }
+
+        /**
+         * Queues the message on the session's outbound queue.
+         */
+        public void send(Message message) throws IOException {
+            writer.write(message);
+        }
+
+        /**
+         * Sends the message and reads the next message from the front-end. Callers of the same
+         * session wait for each other, callers of different sessions don't.
+         */
+        public Message request(Message message, MessageFactory<IsoMessage> factory) throws IOException, ParseException {
+            synchronized (readLock) {
+                writer.write(message);
+                return TestServer.receiveMessage(in, factory);
+            }
+        }
+
+        /**
+         * Returns the number of messages waiting to be written.
+         */
+        public int pending() {
+            return writer.pending();
+        }
+    }
+}
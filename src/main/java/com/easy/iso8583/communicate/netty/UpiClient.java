@@ -0,0 +1,311 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.communicate.Message;
+import com.easy.iso8583.communicate.RequestCorrelator;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.Future;
+import org.apache.log4j.Logger;
+
+import java.net.SocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A long connection to UPI over Netty. Messages are written from any thread without locking,
+ * inbound messages are decoded on the event loop and passed to the listener, a heartbeat is sent
+ * whenever nothing has been written for a while, the connection is closed when nothing has been read
+ * for a while (the peer's heartbeats included), and the connection is reopened by the event loop
+ * with exponential backoff (up to a minute) whenever it fails or is closed by the peer.
+ * Requests sent with {@link #request(Message)} are matched to their responses by a
+ * {@link RequestCorrelator}, so any number of them can be outstanding at once.
+ */
+public class UpiClient {
+
+    static Logger logger = Logger.getLogger(UpiClient.class);
+
+    private static final int MAX_BACKOFF_SECONDS = 60;
+
+    private final SocketAddress address;
+    private final Consumer<Message> listener;
+    private final EventLoopGroup group;
+    private final boolean ownGroup;
+    private final Bootstrap bootstrap;
+    private final UpiMessageCodec codec;
+    private final UpiHeartbeatHandler heartbeat = new UpiHeartbeatHandler();
+    private final AtomicInteger retryCount = new AtomicInteger(0);
+    private final RequestCorrelator correlator = new RequestCorrelator();
+    private int heartbeatSeconds = 30;
+    private int readIdleSeconds = 90;
+    private volatile Channel channel;
+    private volatile boolean closed;
+    private volatile Runnable connectListener;
+
+    /**
+     * Creates a client with an event loop of its own.
+     *
+     * @param address  The address of UPI.
+     * @param factory  The factory to parse inbound messages.
+     * @param listener Receives every inbound message except heartbeats and responses to
+     *                 {@link #request(Message)}, on the event loop; it must hand off any blocking
+     *                 work to another thread.
+     */
+    public UpiClient(SocketAddress address, MessageFactory<IsoMessage> factory, Consumer<Message> listener) {
+        this(address, factory, listener, new NioEventLoopGroup(1), true);
+    }
+
+    /**
+     * Creates a client that runs on the specified event loop group, which is not shut down
+     * when the client is closed.
+     */
+    public UpiClient(SocketAddress address, MessageFactory<IsoMessage> factory, Consumer<Message> listener,
+                     EventLoopGroup group) {
+        this(address, factory, listener, group, false);
+    }
+
+    private UpiClient(SocketAddress address, MessageFactory<IsoMessage> factory, Consumer<Message> listener,
+                      EventLoopGroup group, boolean ownGroup) {
+        this.address = address;
+        this.listener = listener;
+        this.group = group;
+        this.ownGroup = ownGroup;
+        this.codec = new UpiMessageCodec(factory);
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline());
+                    }
+                });
+    }
+
+    /**
+     * Sets the seconds without writes after which a heartbeat is sent. Applies to the next connection.
+     */
+    public void setHeartbeatSeconds(int seconds) {
+        heartbeatSeconds = seconds;
+    }
+
+    /**
+     * Sets the seconds without reads after which the peer is presumed dead and the connection is
+     * closed (and reopened), 0 to wait for TCP to notice. Applies to the next connection.
+     */
+    public void setReadIdleSeconds(int seconds) {
+        readIdleSeconds = seconds;
+    }
+
+    /**
+     * Sets a task run on the event loop each time the connection is opened, the first time and
+     * after every reconnect.
+     */
+    public void setConnectListener(Runnable listener) {
+        connectListener = listener;
+    }
+
+    public int getReadIdleSeconds() {
+        return readIdleSeconds;
+    }
+
+    public int getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+
+    /**
+     * Opens the connection. Returns at once; the connection is retried until it succeeds.
+     */
+    public void start() {
+        connect();
+    }
+
+    /**
+     * Returns true if the connection is open.
+     */
+    public boolean isActive() {
+        final Channel ch = channel;
+        return ch != null && ch.isActive();
+    }
+
+    /**
+     * Writes the message, or a heartbeat for {@link Message#NullMessage}. The returned future
+     * fails at once if the connection is not open. An 0100 or 0200 is registered with the
+     * {@link #getCorrelator() correlator} all the same, so that it gets the timeout and the reversal
+     * of a request; its response goes to the listener, as if it had not been registered.
+     */
+    public Future<Void> send(Message message) {
+        if (RequestCorrelator.isReversible(message)) {
+            final CompletableFuture<Message> response = correlator.register(message);
+            response.whenComplete((r, e) -> {
+                if (r != null) {
+                    listener.accept(r);
+                } else if (e instanceof TimeoutException) {
+                    logger.warn("No response to " + Integer.toHexString(message.body.getType()) + " STAN="
+                            + message.body.getObjectValue(11));
+                }
+            });
+            final Future<Void> written = write(message);
+            written.addListener(f -> {
+                if (!f.isSuccess()) {
+                    response.completeExceptionally(f.cause());
+                }
+            });
+            return written;
+        }
+        return write(message);
+    }
+
+    private Future<Void> write(Message message) {
+        final Channel ch = channel;
+        if (ch == null || !ch.isActive()) {
+            return group.next().newFailedFuture(new IllegalStateException("UPI connection is not open"));
+        }
+        return ch.writeAndFlush(message);
+    }
+
+    /**
+     * Sends a request and returns the future for its response. The future fails if the request
+     * cannot be written or the connection is lost before the response arrives, or when the timeout of
+     * the {@link #getCorrelator() correlator} expires; without a timeout it is up to the caller to give up,
+     * cancelling the future.
+     */
+    public CompletableFuture<Message> request(Message message) {
+        return sendRequest(message, correlator.register(message));
+    }
+
+    /**
+     * Sends a request whose response is waited for at most the specified time, whatever the timeout
+     * of the correlator.
+     *
+     * @param timeoutMillis The timeout, 0 to wait until the caller gives up.
+     */
+    public CompletableFuture<Message> request(Message message, long timeoutMillis) {
+        return sendRequest(message, correlator.register(message, timeoutMillis));
+    }
+
+    private CompletableFuture<Message> sendRequest(Message message, CompletableFuture<Message> response) {
+        if (!response.isDone()) {
+            write(message).addListener(f -> {
+                if (!f.isSuccess()) {
+                    response.completeExceptionally(f.cause());
+                }
+            });
+        }
+        return response;
+    }
+
+    /**
+     * Returns the correlator of the requests, to set their timeout and reversals.
+     */
+    public RequestCorrelator getCorrelator() {
+        return correlator;
+    }
+
+    /**
+     * Returns the number of requests waiting for a response.
+     */
+    public int getPendingCount() {
+        return correlator.getPendingCount();
+    }
+
+    /**
+     * Closes the connection for good, and shuts down the event loop if it belongs to the client.
+     */
+    public void close() {
+        closed = true;
+        final Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+        if (ownGroup) {
+            group.shutdownGracefully();
+        }
+    }
+
+    protected void initPipeline(ChannelPipeline p) {
+        //Messages written by several threads at once go out with one flush
+        p.addLast("flush", new FlushConsolidationHandler(
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+        p.addLast("idle", new IdleStateHandler(readIdleSeconds, heartbeatSeconds, 0));
+        p.addLast("frame", new UpiFrameDecoder());
+        p.addLast("codec", codec);
+        p.addLast("heartbeat", heartbeat);
+        p.addLast("handler", new SimpleChannelInboundHandler<Message>() {
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, Message msg) {
+                if (!correlator.complete(msg)) {
+                    listener.accept(msg);
+                }
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                logger.error("Communication anomaly, preparing to reconnect...", cause);
+                ctx.close();
+            }
+        });
+    }
+
+    private void connect() {
+        if (closed) {
+            return;
+        }
+        bootstrap.connect(address).addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                channel = f.channel();
+                retryCount.set(0);
+                logger.debug(">>>Connection initialized successfully: " + channel);
+                final Runnable onConnect = connectListener;
+                if (onConnect != null) {
+                    try {
+                        onConnect.run();
+                    } catch (RuntimeException e) {
+                        logger.error("Connect listener failed on " + channel, e);
+                    }
+                }
+                f.channel().closeFuture().addListener((ChannelFutureListener) cf -> {
+                    logger.warn("Connection closed: " + cf.channel());
+                    channel = null;
+                    correlator.failAll(new ClosedChannelException());
+                    scheduleReconnect();
+                });
+                if (closed) {
+                    f.channel().close();
+                }
+            } else {
+                logger.error(">>>Connection initialization exception:", f.cause());
+                scheduleReconnect();
+            }
+        });
+    }
+
+    private void scheduleReconnect() {
+        if (closed) {
+            return;
+        }
+        final int count = retryCount.getAndIncrement();
+        final int waitTime = Math.min(1 << Math.min(count, 6), MAX_BACKOFF_SECONDS);
+        logger.debug("wait for " + waitTime + " Retry connection in seconds...");
+        group.next().schedule(this::connect, waitTime, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,47 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.communicate.UpiFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+
+/**
+ * Splits the inbound stream into UPI frames, using the length prefix of 4 ASCII digits.
+ * Each frame is passed on as a slice of the inbound buffer with the header and body, without
+ * the prefix; a heartbeat (length 0) is passed on as an empty buffer. Frames that arrive
+ * in pieces are held until they are complete.
+ */
+public class UpiFrameDecoder extends ByteToMessageDecoder {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < UpiFrame.LENGTH_DIGITS) {
+            return;
+        }
+        final int start = in.readerIndex();
+        int len = 0;
+        for (int i = start; i < start + UpiFrame.LENGTH_DIGITS; i++) {
+            final int d = in.getByte(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new CorruptedFrameException("Invalid UPI length prefix: "
+                        + ByteBufUtil.hexDump(in, start, UpiFrame.LENGTH_DIGITS));
+            }
+            len = len * 10 + d;
+        }
+        if (len == 0) {
+            in.skipBytes(UpiFrame.LENGTH_DIGITS);
+            out.add(Unpooled.EMPTY_BUFFER);
+        } else if (len < MsgHead.HEAD_LEN) {
+            throw new CorruptedFrameException("UPI frame shorter than its header: " + len);
+        } else if (in.readableBytes() >= UpiFrame.LENGTH_DIGITS + len) {
+            in.skipBytes(UpiFrame.LENGTH_DIGITS);
+            out.add(in.readRetainedSlice(len));
+        }
+    }
+}
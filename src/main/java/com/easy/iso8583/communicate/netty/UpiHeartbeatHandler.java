@@ -0,0 +1,45 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.communicate.Message;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends a heartbeat when the link has been idle for writing, and closes it when nothing
+ * (not even a heartbeat) has been read for a while, as signalled by an
+ * {@link io.netty.handler.timeout.IdleStateHandler} earlier in the pipeline. Drops the
+ * heartbeats received from the peer so the handlers after it only see real messages.
+ * Goes after {@link UpiMessageCodec}.
+ */
+@ChannelHandler.Sharable
+public class UpiHeartbeatHandler extends ChannelDuplexHandler {
+
+    static Logger logger = Logger.getLogger(UpiHeartbeatHandler.class);
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg == Message.NullMessage) {
+            logger.debug("Heartbeat packet received");
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.WRITER_IDLE) {
+            ctx.writeAndFlush(Message.NullMessage).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+            logger.debug("Heartbeat packet sent.");
+        } else if (evt instanceof IdleStateEvent && ((IdleStateEvent) evt).state() == IdleState.READER_IDLE) {
+            logger.warn("Nothing read from " + ctx.channel().remoteAddress() + ", peer presumed dead; closing");
+            ctx.close();
+        } else {
+            ctx.fireUserEventTriggered(evt);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.communicate.Message;
+import com.easy.iso8583.communicate.UpiFrame;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import org.apache.log4j.Logger;
+
+import java.util.List;
+
+/**
+ * Converts the frames of {@link UpiFrameDecoder} to {@link Message}s, and writes Messages as
+ * complete frames with {@link UpiFrame}. Heartbeats are {@link Message#NullMessage} both ways.
+ * The codec has no state, so one instance can be shared by every channel of a factory.
+ */
+@ChannelHandler.Sharable
+public class UpiMessageCodec extends MessageToMessageCodec<ByteBuf, Message> {
+
+    static Logger logger = Logger.getLogger(UpiMessageCodec.class);
+
+    private final MessageFactory<IsoMessage> factory;
+
+    public UpiMessageCodec(MessageFactory<IsoMessage> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) throws Exception {
+        if (!frame.isReadable()) {
+            out.add(Message.NullMessage);
+            return;
+        }
+        final byte[] headBytes = new byte[MsgHead.HEAD_LEN];
+        frame.readBytes(headBytes);
+        final MsgHead head = new MsgHead(headBytes);
+        if (!head.getRejectCode().equals("00000")) {
+            logger.error("rejectCode:" + head.getRejectCode());
+        }
+        out.add(new Message(head, factory.parseMessage(frame)));
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
+        if (msg == Message.NullMessage) {
+            final ByteBuf buf = ctx.alloc().buffer(UpiFrame.LENGTH_DIGITS);
+            UpiFrame.writeHeartbeat(buf);
+            out.add(buf);
+            return;
+        }
+        final ByteBuf buf = ctx.alloc().buffer();
+        try {
+            UpiFrame.write(msg, buf);
+        } catch (Exception ex) {
+            buf.release();
+            throw ex;
+        }
+        out.add(buf);
+        if (logger.isDebugEnabled()) {
+            logger.debug("send msg:" + ByteBufUtil.hexDump(buf));
+        }
+    }
+}
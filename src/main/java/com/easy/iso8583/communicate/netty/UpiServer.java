@@ -0,0 +1,190 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MesgHandle;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.communicate.BusinessExecutor;
+import com.easy.iso8583.communicate.Message;
+import com.easy.iso8583.communicate.TestServer;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A non-blocking UPI server for any number of member connections. Frames are decoded on the
+ * event loops, each message is handled on the executor by {@link TestServer#innerHandler}
+ * (MAC check, business handler, MAC of the response), and the response is written back
+ * asynchronously on the connection the request came from, if the handler set field 39.
+ * Responses can thus be written in a different order than the requests arrived.
+ */
+public class UpiServer {
+
+    static Logger logger = Logger.getLogger(UpiServer.class);
+
+    private final int port;
+    private final MesgHandle handler;
+    private final Executor executor;
+    private final UpiMessageCodec codec;
+    private final UpiHeartbeatHandler heartbeat = new UpiHeartbeatHandler();
+    private final Dispatcher dispatcher = new Dispatcher();
+    private final ChannelGroup channels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+    private int heartbeatSeconds = 30;
+    private int readIdleSeconds = 90;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    /**
+     * @param port     The port to listen on.
+     * @param factory  The factory to parse requests.
+     * @param handler  The business handler for the requests.
+     * @param executor Runs the handler, so that it can block without stalling the event loops. It must
+     *                 not run tasks on the submitting thread; a {@link BusinessExecutor} is used through
+     *                 its {@link BusinessExecutor#nonBlocking()} view.
+     */
+    public UpiServer(int port, MessageFactory<IsoMessage> factory, MesgHandle handler, Executor executor) {
+        this.port = port;
+        this.handler = handler;
+        this.executor = executor instanceof BusinessExecutor ? ((BusinessExecutor) executor).nonBlocking() : executor;
+        this.codec = new UpiMessageCodec(factory);
+    }
+
+    /**
+     * Sets the seconds without writes after which a heartbeat is sent on a connection.
+     * Applies to connections accepted afterwards.
+     */
+    public void setHeartbeatSeconds(int seconds) {
+        heartbeatSeconds = seconds;
+    }
+
+    /**
+     * Sets the seconds without reads after which a member is presumed dead and its connection is
+     * closed, 0 to wait for TCP to notice. Applies to connections accepted afterwards.
+     */
+    public void setReadIdleSeconds(int seconds) {
+        readIdleSeconds = seconds;
+    }
+
+    /**
+     * Starts listening. The returned future completes when the port is bound.
+     */
+    public ChannelFuture start() {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        ServerBootstrap b = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline());
+                    }
+                });
+        ChannelFuture f = b.bind(port);
+        serverChannel = f.channel();
+        f.addListener((ChannelFutureListener) bf -> {
+            if (bf.isSuccess()) {
+                logger.info("UPI server listening on " + bf.channel().localAddress());
+            } else {
+                logger.error("UPI server cannot listen on port " + port, bf.cause());
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Returns the number of open member connections.
+     */
+    public int getConnectionCount() {
+        return channels.size();
+    }
+
+    /**
+     * Stops listening and closes every connection.
+     */
+    public void close() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        channels.close();
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    protected void initPipeline(ChannelPipeline p) {
+        //Responses written by several threads at once go out with one flush
+        p.addLast("flush", new FlushConsolidationHandler(
+                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
+        p.addLast("idle", new IdleStateHandler(readIdleSeconds, heartbeatSeconds, 0));
+        p.addLast("frame", new UpiFrameDecoder());
+        p.addLast("codec", codec);
+        p.addLast("heartbeat", heartbeat);
+        p.addLast("handler", dispatcher);
+    }
+
+    /**
+     * Hands each request to the executor and writes the response when it's ready.
+     */
+    @ChannelHandler.Sharable
+    private class Dispatcher extends SimpleChannelInboundHandler<Message> {
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            channels.add(ctx.channel());
+            logger.debug("accept " + ctx.channel().remoteAddress() + ", connections: " + channels.size());
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext ctx, final Message msg) {
+            try {
+                executor.execute(() -> handle(ctx, msg));
+            } catch (RejectedExecutionException ex) {
+                logger.error("Business executor rejected message type "
+                        + Integer.toHexString(msg.body.getType()) + " from " + ctx.channel().remoteAddress(), ex);
+            }
+        }
+
+        private void handle(ChannelHandlerContext ctx, Message msg) {
+            //Asynchronous routes free the business thread; the response goes out when they complete
+            TestServer.innerHandlerAsync(handler, msg).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.error("Business Processing Exception:", e);
+                } else if (msg.body.getObjectValue(39) != null) {
+                    ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+                }
+            });
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.error("Communication anomaly, closing " + ctx.channel().remoteAddress(), cause);
+            ctx.close();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.easy.iso8583.parse;
 
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
+import io.netty.buffer.ByteBuf;
 
 import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
@@ -57,4 +58,22 @@ public abstract class AlphaNumericFieldParseInfo extends FieldParseInfo {
         }
     }
 
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException {
+        checkEnd(field, buf, pos, pos + length);
+        return slot.reuse(type, new String(buf, pos, length, StandardCharsets.US_ASCII), length);
+    }
+
+    @Override
+    public IsoValue<String> parse(final int field, final ByteBuf buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + length);
+        return new IsoValue<>(type, buf.toString(pos, length, StandardCharsets.US_ASCII), length);
+    }
+
+    @Override
+    public long parseLong(final int field, final byte[] buf, final int pos) throws ParseException {
+        return parseDigits(field, buf, pos, length);
+    }
+
 }
@@ -56,4 +56,14 @@ public class AlphaParseInfo extends AlphaNumericFieldParseInfo {
                     type, field, length, pos), pos);
         }
     }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        return checkEnd(field, buf, pos, pos + length);
+    }
+
+    @Override
+    public long parseLongBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        return parseDigits(field, buf, pos, length);
+    }
 }
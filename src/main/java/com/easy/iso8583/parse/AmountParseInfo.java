@@ -3,9 +3,12 @@ package com.easy.iso8583.parse;
 
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
+import com.easy.iso8583.util.AsciiDigits;
+import com.easy.iso8583.util.Bcd;
 import com.easy.iso8583.util.HexCodec;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 
 /**
@@ -24,6 +27,18 @@ public class AmountParseInfo extends FieldParseInfo {
     public <T> IsoValue<Long> parse(final int field, final byte[] buf,
                                     final int pos)
             throws ParseException, UnsupportedEncodingException {
+        return new IsoValue<>(type, parseLong(field, buf, pos));
+    }
+
+    @Override
+    public <T> IsoValue<Long> parseBinary(final int field, final byte[] buf,
+                                          final int pos)
+            throws ParseException {
+        return new IsoValue<>(IsoType.AMOUNT, parseLongBinary(field, buf, pos));
+    }
+
+    @Override
+    public long parseLong(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
             throw new ParseException(String.format("Invalid AMOUNT field %d position %d",
                     field, pos), pos);
@@ -32,33 +47,25 @@ public class AmountParseInfo extends FieldParseInfo {
             throw new ParseException(String.format("Insufficient data for AMOUNT field %d, pos %d",
                     field, pos), pos);
         }
-        String c = new String(buf, pos, 12, getCharacterEncoding());
         try {
-            return new IsoValue<>(type, Long.parseLong(c));
+            return AsciiDigits.parseLong(buf, pos, 12);
         } catch (NumberFormatException ex) {
             throw new ParseException(String.format("Cannot read amount '%s' field %d pos %d",
-                    c, field, pos), pos);
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for AMOUNT field %d, pos %d", field, pos), pos);
+                    new String(buf, pos, 12, StandardCharsets.US_ASCII), field, pos), pos);
         }
     }
 
     @Override
-    public <T> IsoValue<Long> parseBinary(final int field, final byte[] buf,
-                                          final int pos)
-            throws ParseException {
-
-        String str = HexCodec.hexEncode(buf, pos, 6);
-
+    public long parseLongBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        if (pos < 0 || pos + 6 > buf.length) {
+            throw new ParseException(String.format(
+                    "Insufficient data for AMOUNT field %d, pos %d", field, pos), pos);
+        }
         try {
-            return new IsoValue<>(IsoType.AMOUNT, Long.parseLong(str));
+            return Bcd.parseLong(buf, pos, 12);
         } catch (NumberFormatException ex) {
             throw new ParseException(String.format("Cannot read amount '%s' field %d pos %d",
-                    str, field, pos), pos);
-        } catch (IndexOutOfBoundsException ex) {
-            throw new ParseException(String.format(
-                    "Insufficient data for AMOUNT field %d, pos %d", field, pos), pos);
+                    HexCodec.hexEncode(buf, pos, 6), field, pos), pos);
         }
     }
 
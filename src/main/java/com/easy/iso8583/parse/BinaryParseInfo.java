@@ -20,9 +20,11 @@ package com.easy.iso8583.parse;
 
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
+import java.util.Arrays;
 
 /**
  * This class is used to parse fields of type BINARY.
@@ -72,4 +74,23 @@ public class BinaryParseInfo extends FieldParseInfo {
 
     }
 
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException {
+        checkEnd(field, buf, pos, pos + length);
+        return slot.reuse(type, Arrays.copyOfRange(buf, pos, pos + length), length);
+    }
+
+    @Override
+    public IsoValue<byte[]> parse(final int field, final ByteBuf buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + length);
+        final byte[] binval = new byte[length];
+        buf.getBytes(pos, binval);
+        return new IsoValue<>(type, binval, binval.length);
+    }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        return checkEnd(field, buf, pos, pos + length);
+    }
 }
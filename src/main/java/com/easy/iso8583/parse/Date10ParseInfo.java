@@ -18,15 +18,9 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.easy.iso8583.parse;
 
-
 import com.easy.iso8583.IsoType;
-import com.easy.iso8583.IsoValue;
-import com.easy.iso8583.util.Bcd;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * This class is used to parse fields of type DATE10.
@@ -40,9 +34,7 @@ public class Date10ParseInfo extends DateTimeParseInfo {
     }
 
     @Override
-    public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                    final int pos)
-            throws ParseException, UnsupportedEncodingException {
+    public long parseEpochMillis(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
             throw new ParseException(String.format("Invalid DATE10 field %d position %d",
                     field, pos), pos);
@@ -51,55 +43,23 @@ public class Date10ParseInfo extends DateTimeParseInfo {
             throw new ParseException(String.format("Insufficient data for DATE10 field %d, pos %d",
                     field, pos), pos);
         }
-        //A SimpleDateFormat in the case of dates won't help because of the missing data
-        //we have to use the current date for reference and change what comes in the buffer
-        Calendar cal = Calendar.getInstance();
-        //Set the month in the date
-        if (forceStringDecoding) {
-            cal.set(Calendar.MONTH, Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10) - 1);
-            cal.set(Calendar.DATE, Integer.parseInt(new String(buf, pos + 2, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(new String(buf, pos + 4, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.MINUTE, Integer.parseInt(new String(buf, pos + 6, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.SECOND, Integer.parseInt(new String(buf, pos + 8, 2, getCharacterEncoding()), 10));
-        } else {
-            cal.set(Calendar.MONTH, ((buf[pos] - 48) * 10) + buf[pos + 1] - 49);
-            cal.set(Calendar.DATE, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
-            cal.set(Calendar.HOUR_OF_DAY, ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48);
-            cal.set(Calendar.MINUTE, ((buf[pos + 6] - 48) * 10) + buf[pos + 7] - 48);
-            cal.set(Calendar.SECOND, ((buf[pos + 8] - 48) * 10) + buf[pos + 9] - 48);
-        }
-        cal.set(Calendar.MILLISECOND, 0);
-        return createValue(cal, true, length);
+        //The year is not in the field, so we take the current one in the time zone
+        return toEpochMillis(getClock().getYear(), digits2(field, buf, pos), digits2(field, buf, pos + 2),
+                digits2(field, buf, pos + 4), digits2(field, buf, pos + 6), digits2(field, buf, pos + 8), true);
     }
 
     @Override
-    public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                          final int pos)
-            throws ParseException {
+    public long parseEpochMillisBinary(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid DATE10 field %d position %d",
+            throw new ParseException(String.format("Invalid bin DATE10 field %d position %d",
                     field, pos), pos);
         }
         if (pos + 5 > buf.length) {
-            throw new ParseException(String.format("Insufficient data for DATE10 field %d, pos %d",
+            throw new ParseException(String.format("Insufficient data for bin DATE10 field %d, pos %d",
                     field, pos), pos);
         }
-        int[] tens = new int[5];
-        int start = 0;
-        for (int i = pos; i < pos + tens.length; i++) {
-            tens[start++] = Bcd.parseBcdLength(buf[i]);
-        }
-        Calendar cal = Calendar.getInstance();
-        //A SimpleDateFormat in the case of dates won't help because of the missing data
-        //we have to use the current date for reference and change what comes in the buffer
-        //Set the month in the date
-        cal.set(Calendar.MONTH, tens[0] - 1);
-        cal.set(Calendar.DATE, tens[1]);
-        cal.set(Calendar.HOUR_OF_DAY, tens[2]);
-        cal.set(Calendar.MINUTE, tens[3]);
-        cal.set(Calendar.SECOND, tens[4]);
-        cal.set(Calendar.MILLISECOND, 0);
-        return createValue(cal, true, length);
+        //The year is not in the field, so we take the current one in the time zone
+        return toEpochMillis(getClock().getYear(), bcd2(buf, pos), bcd2(buf, pos + 1),
+                bcd2(buf, pos + 2), bcd2(buf, pos + 3), bcd2(buf, pos + 4), true);
     }
-
 }
@@ -18,15 +18,9 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.easy.iso8583.parse;
 
-
 import com.easy.iso8583.IsoType;
-import com.easy.iso8583.IsoValue;
-import com.easy.iso8583.util.Bcd;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * This class is used to parse fields of type DATE_EXP.
@@ -40,59 +34,32 @@ public class DateExpParseInfo extends DateTimeParseInfo {
     }
 
     @Override
-    public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                    final int pos)
-            throws ParseException, UnsupportedEncodingException {
+    public long parseEpochMillis(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
             throw new ParseException(String.format("Invalid DATE_EXP field %d position %d",
                     field, pos), pos);
         }
         if (pos + 4 > buf.length) {
-            throw new ParseException(String.format(
-                    "Insufficient data for DATE_EXP field %d pos %d", field, pos), pos);
-        }
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.HOUR, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.DATE, 1);
-        //Set the month in the date
-        if (forceStringDecoding) {
-            cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) - (cal.get(Calendar.YEAR) % 100) + Integer.parseInt(new String(buf, pos, 2)));
-            cal.set(Calendar.MONTH, Integer.parseInt(new String(buf, pos + 2, 2, getCharacterEncoding())) - 1);
-        } else {
-            cal.set(Calendar.YEAR, cal.get(Calendar.YEAR) - (cal.get(Calendar.YEAR) % 100) + ((buf[pos] - 48) * 10) + buf[pos + 1] - 48);
-            cal.set(Calendar.MONTH, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 49);
+            throw new ParseException(String.format("Insufficient data for DATE_EXP field %d, pos %d",
+                    field, pos), pos);
         }
-        return createValue(cal, false, length);
+        //The century is not in the field, so we take the current one in the time zone
+        final int year = getClock().getYear();
+        return toEpochMillis(year - (year % 100) + digits2(field, buf, pos), digits2(field, buf, pos + 2), 1,
+                0, 0, 0, false);
     }
 
     @Override
-    public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                          final int pos)
-            throws ParseException {
+    public long parseEpochMillisBinary(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid DATE_EXP field %d position %d",
+            throw new ParseException(String.format("Invalid bin DATE_EXP field %d position %d",
                     field, pos), pos);
         }
         if (pos + 2 > buf.length) {
-            throw new ParseException(String.format(
-                    "Insufficient data for DATE_EXP field %d pos %d", field, pos), pos);
-        }
-        int[] tens = new int[2];
-        int start = 0;
-        for (int i = pos; i < pos + tens.length; i++) {
-            tens[start++] = Bcd.parseBcdLength(buf[i]);
+            throw new ParseException(String.format("Insufficient data for bin DATE_EXP field %d, pos %d",
+                    field, pos), pos);
         }
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.HOUR, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.DATE, 1);
-        //Set the month in the date
-        cal.set(Calendar.YEAR, cal.get(Calendar.YEAR)
-                - (cal.get(Calendar.YEAR) % 100) + tens[0]);
-        cal.set(Calendar.MONTH, tens[1] - 1);
-        return createValue(cal, false, length);
+        final int year = getClock().getYear();
+        return toEpochMillis(year - (year % 100) + bcd2(buf, pos), bcd2(buf, pos + 1), 1, 0, 0, 0, false);
     }
 }
@@ -21,7 +21,10 @@ package com.easy.iso8583.parse;
 
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
+import com.easy.iso8583.util.Bcd;
+import com.easy.iso8583.util.ZoneClock;
 
+import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
@@ -37,6 +40,8 @@ public abstract class DateTimeParseInfo extends FieldParseInfo {
     protected static final long FUTURE_TOLERANCE;
     protected TimeZone tz;
     private static TimeZone defaultTimezone;
+    private volatile ZoneClock clock;
+    private static volatile ZoneClock defaultClock;
 
     static {
         FUTURE_TOLERANCE = Long.parseLong(System.getProperty("j8583.future.tolerance", "900000"));
@@ -44,6 +49,7 @@ public abstract class DateTimeParseInfo extends FieldParseInfo {
 
     public static void setDefaultTimeZone(TimeZone tz) {
         defaultTimezone = tz;
+        defaultClock = null;
     }
 
     public static TimeZone getDefaultTimeZone() {
@@ -56,12 +62,95 @@ public abstract class DateTimeParseInfo extends FieldParseInfo {
 
     public void setTimeZone(TimeZone value) {
         tz = value;
+        clock = null;
     }
 
     public TimeZone getTimeZone() {
         return tz;
     }
 
+    /**
+     * Returns the clock for the time zone of this parser, the default time zone, or the JVM's.
+     */
+    protected ZoneClock getClock() {
+        if (tz != null) {
+            ZoneClock c = clock;
+            if (c == null) {
+                clock = c = ZoneClock.of(tz);
+            }
+            return c;
+        }
+        ZoneClock c = defaultClock;
+        if (c == null) {
+            defaultClock = c = ZoneClock.of(defaultTimezone);
+        }
+        return c;
+    }
+
+    /**
+     * Parses the date from the buffer as epoch milliseconds, without creating a Date or a Calendar.
+     *
+     * @param field The field index, useful for error reporting.
+     * @param buf   The full ISO message buffer.
+     * @param pos   The starting position for the field data.
+     */
+    public abstract long parseEpochMillis(int field, byte[] buf, int pos) throws ParseException;
+
+    /**
+     * Same as {@link #parseEpochMillis(int, byte[], int)}, for fields encoded in BCD.
+     */
+    public abstract long parseEpochMillisBinary(int field, byte[] buf, int pos) throws ParseException;
+
+    @Override
+    public <T> IsoValue<Date> parse(int field, byte[] buf, int pos) throws ParseException {
+        return createValue(parseEpochMillis(field, buf, pos), length);
+    }
+
+    @Override
+    public <T> IsoValue<Date> parseBinary(int field, byte[] buf, int pos) throws ParseException {
+        return createValue(parseEpochMillisBinary(field, buf, pos), length);
+    }
+
+    /**
+     * Returns the epoch milliseconds for the local date and time in the parser's time zone.
+     * If adjusting, a date more than the future tolerance ahead of now is moved to the previous year,
+     * for types that don't include the year.
+     */
+    protected long toEpochMillis(int year, int month, int day, int hour, int minute, int second,
+                                 boolean adjusting) {
+        final ZoneClock c = getClock();
+        long millis = c.toEpochMillis(year, month, day, hour, minute, second);
+        if (adjusting) {
+            //We need to handle a small tolerance into the future (a couple of minutes)
+            final long now = System.currentTimeMillis();
+            if (millis > now && millis - now > FUTURE_TOLERANCE) {
+                millis = c.toEpochMillis(year - 1, month, month == 2 && day == 29 ? 28 : day,
+                        hour, minute, second);
+            }
+        }
+        return millis;
+    }
+
+    /**
+     * Decodes two ASCII digits.
+     */
+    protected int digits2(int field, byte[] buf, int pos) throws ParseException {
+        final int h = buf[pos] - '0';
+        final int l = buf[pos + 1] - '0';
+        if (h < 0 || h > 9 || l < 0 || l > 9) {
+            throw new ParseException(String.format("Invalid %s field %d digits at pos %d",
+                    type, field, pos), pos);
+        }
+        return h * 10 + l;
+    }
+
+    /**
+     * Decodes one BCD byte with two digits.
+     */
+    protected static int bcd2(byte[] buf, int pos) {
+        return Bcd.parseBcdLength(buf[pos]);
+    }
+
     public static void adjustWithFutureTolerance(Calendar cal) {
         //We need to handle a small tolerance into the future (a couple of minutes)
         long now = System.currentTimeMillis();
@@ -71,6 +160,19 @@ public abstract class DateTimeParseInfo extends FieldParseInfo {
         }
     }
 
+    /**
+     * Creates the value for the specified epoch milliseconds, with the parser's time zone.
+     */
+    protected IsoValue<Date> createValue(long millis, int len) {
+        IsoValue<Date> v = new IsoValue<Date>(type, new Date(millis), len);
+        if (tz != null) {
+            v.setTimeZone(tz);
+        } else if (getDefaultTimeZone() != null) {
+            v.setTimeZone(getDefaultTimeZone());
+        }
+        return v;
+    }
+
     protected IsoValue<Date> createValue(Calendar cal, boolean adjusting, int len) {
         if (tz != null) {
             cal.setTimeZone(tz);
@@ -21,6 +21,8 @@ package com.easy.iso8583.parse;
 
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
+import com.easy.iso8583.util.AsciiDigits;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
@@ -121,6 +123,168 @@ public abstract class FieldParseInfo {
 
     public abstract <T> IsoValue<?> parseBinary(final int field, byte[] buf, int pos ) throws ParseException, UnsupportedEncodingException;
 
+    /**
+     * Parses the character data from the buffer as a long, without creating an IsoValue.
+     * Types that hold digits override this to decode them in place; the default parses
+     * the value and converts it.
+     *
+     * @param field The field index, useful for error reporting.
+     * @param buf   The full ISO message buffer.
+     * @param pos   The starting position for the field data.
+     * @throws ParseException if the field does not contain a number that fits in a long.
+     */
+    public long parseLong(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return toLong(field, parse(field, buf, pos), pos);
+    }
+
+    /**
+     * Same as {@link #parseLong(int, byte[], int)}, for fields encoded in binary.
+     */
+    public long parseLongBinary(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return toLong(field, parseBinary(field, buf, pos), pos);
+    }
+
+    /**
+     * Decodes the ASCII digits of a field as a long.
+     */
+    protected long parseDigits(final int field, final byte[] buf, final int pos, final int len)
+            throws ParseException {
+        checkEnd(field, buf, pos, pos + len);
+        try {
+            return AsciiDigits.parseLong(buf, pos, len);
+        } catch (NumberFormatException ex) {
+            throw new ParseException(String.format("Cannot read %s field %d pos %d as a number",
+                    type, field, pos), pos);
+        }
+    }
+
+    private long toLong(final int field, final IsoValue<?> value, final int pos) throws ParseException {
+        try {
+            return value.longValue();
+        } catch (IllegalArgumentException | ArithmeticException ex) {
+            throw new ParseException(String.format("Cannot read %s field %d pos %d as a number",
+                    type, field, pos), pos);
+        }
+    }
+
+    /**
+     * Returns the position right after the field that starts at the specified position,
+     * without decoding its value. Fixed length types just add their length; variable
+     * length types read their length header.
+     *
+     * @param field The field index, useful for error reporting.
+     * @param buf   The full ISO message buffer.
+     * @param pos   The starting position for the field data.
+     */
+    public int skip(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return checkEnd(field, buf, pos, pos + length);
+    }
+
+    /**
+     * Same as {@link #skip(int, byte[], int)}, for fields encoded in binary.
+     * Numeric and date values take half their length in BCD.
+     */
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        return checkEnd(field, buf, pos, pos + (length / 2) + (length % 2));
+    }
+
+    /**
+     * Returns the position after a text variable length field with a length header of the
+     * specified number of digits.
+     */
+    protected int skipVariable(final int field, final byte[] buf, final int pos, final int digits)
+            throws ParseException, UnsupportedEncodingException {
+        checkEnd(field, buf, pos, pos + digits);
+        return checkEnd(field, buf, pos, pos + digits + decodeLength(buf, pos, digits));
+    }
+
+    /**
+     * Same as {@link #parse(int, byte[], int)}, decoding into the specified value instead of a new
+     * one, for the field slots of pooled messages. The default parses a new value and copies it into
+     * the slot; the text types override it to decode straight into the slot.
+     *
+     * @param slot The value to refill, with {@link IsoValue#reuse}.
+     * @return The slot, or null if the parser returns null.
+     */
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException, UnsupportedEncodingException {
+        final IsoValue<?> v = parse(field, buf, pos);
+        return v == null ? null : slot.reuse(v);
+    }
+
+    /**
+     * Same as {@link #parse(int, byte[], int)}, reading the field from the Netty buffer through its
+     * index API, so that direct and composite buffers are parsed where they are. The field must end
+     * before the writer index. The default copies the field, found with
+     * {@link #skip(int, ByteBuf, int)}, and parses the copy; the text types override it to decode
+     * the buffer directly.
+     *
+     * @param field The field index, useful for error reporting.
+     * @param buf   The buffer with the ISO message.
+     * @param pos   The index of the field data.
+     */
+    public IsoValue<?> parse(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final byte[] copy = new byte[skip(field, buf, pos) - pos];
+        buf.getBytes(pos, copy);
+        return parse(field, copy, 0);
+    }
+
+    /**
+     * Same as {@link #skip(int, byte[], int)}, for a field in a Netty buffer.
+     */
+    public int skip(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return checkEnd(field, buf, pos, pos + length);
+    }
+
+    /**
+     * Same as {@link #skipVariable(int, byte[], int, int)}, for a field in a Netty buffer.
+     */
+    protected int skipVariable(final int field, final ByteBuf buf, final int pos, final int digits)
+            throws ParseException, UnsupportedEncodingException {
+        checkEnd(field, buf, pos, pos + digits);
+        final int len = decodeLength(buf, pos, digits);
+        if (len < 0) {
+            throw new ParseException(String.format("Invalid %s length %d field %d pos %d",
+                    type, len, field, pos), pos);
+        }
+        return checkEnd(field, buf, pos, pos + digits + len);
+    }
+
+    /**
+     * Same as {@link #checkEnd(int, byte[], int, int)}, the buffer ending at its writer index.
+     */
+    protected int checkEnd(final int field, final ByteBuf buf, final int pos, final int end)
+            throws ParseException {
+        if (pos < 0 || end < pos) {
+            throw new ParseException(String.format("Invalid %s field %d pos %d",
+                    type, field, pos), pos);
+        } else if (end > buf.writerIndex()) {
+            throw new ParseException(String.format(
+                    "Insufficient data for %s field %d, pos %d", type, field, pos), pos);
+        }
+        return end;
+    }
+
+    /**
+     * Checks that a field starting at pos and ending at end fits in the buffer, and returns end.
+     */
+    protected int checkEnd(final int field, final byte[] buf, final int pos, final int end)
+            throws ParseException {
+        if (pos < 0 || end < pos) {
+            throw new ParseException(String.format("Invalid %s field %d pos %d",
+                    type, field, pos), pos);
+        } else if (end > buf.length) {
+            throw new ParseException(String.format(
+                    "Insufficient data for %s field %d, pos %d", type, field, pos), pos);
+        }
+        return end;
+    }
+
     public static FieldParseInfo getInstance(IsoType t, int len, String encoding) {
         FieldParseInfo fpi = null;
         if (t == IsoType.ALPHA) {
@@ -191,4 +355,17 @@ public abstract class FieldParseInfo {
         return -1;
     }
 
+    protected int decodeLength(ByteBuf buf, int pos, int digits) throws UnsupportedEncodingException {
+        if (forceStringDecoding) {
+            final byte[] header = new byte[digits];
+            buf.getBytes(pos, header);
+            return decodeLength(header, 0, digits);
+        }
+        int l = 0;
+        for (int i = pos; i < pos + digits; i++) {
+            l = l * 10 + buf.getByte(i) - 48;
+        }
+        return digits >= 2 && digits <= 4 ? l : -1;
+    }
+
 }
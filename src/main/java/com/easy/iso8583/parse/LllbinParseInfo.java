@@ -22,9 +22,11 @@ package com.easy.iso8583.parse;
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
 import com.easy.iso8583.util.Bcd;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
+import java.util.Arrays;
 
 /**
  * This class is used to parse fields of type LLLBIN.
@@ -106,4 +108,38 @@ public class LllbinParseInfo extends FieldParseInfo {
                 ((buf[pos] & 0x0f) * 100) + Bcd.parseBcdLength(buf[pos + 1]);
     }
 
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 3) - pos - 3;
+        final byte[] binval = Arrays.copyOfRange(buf, pos + 3, pos + 3 + len);
+        return slot.reuse(type, binval, binval.length);
+    }
+
+    @Override
+    public IsoValue<byte[]> parse(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 3) - pos - 3;
+        final byte[] binval = new byte[len];
+        buf.getBytes(pos + 3, binval);
+        return new IsoValue<>(type, binval, binval.length);
+    }
+
+    @Override
+    public int skip(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 3);
+    }
+
+    @Override
+    public int skip(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 3);
+    }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + 2);
+        return checkEnd(field, buf, pos, pos + 2 + getLengthForBinaryParsing(buf, pos));
+    }
 }
@@ -23,8 +23,10 @@ import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
 import com.easy.iso8583.util.Bcd;
 import com.easy.iso8583.util.HexCodec;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 
 /**
@@ -106,4 +108,40 @@ public class LlllbinParseInfo extends FieldParseInfo {
                 :
                 Bcd.parseBcdLength2bytes(buf, pos);
     }
+
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 4) - pos - 4;
+        final byte[] binval = len == 0 ? new byte[0]
+                : HexCodec.hexDecode(new String(buf, pos + 4, len, StandardCharsets.US_ASCII));
+        return slot.reuse(type, binval, binval.length);
+    }
+
+    @Override
+    public IsoValue<byte[]> parse(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 4) - pos - 4;
+        final byte[] binval = len == 0 ? new byte[0]
+                : HexCodec.hexDecode(buf.toString(pos + 4, len, StandardCharsets.US_ASCII));
+        return new IsoValue<>(type, binval, binval.length);
+    }
+
+    @Override
+    public int skip(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 4);
+    }
+
+    @Override
+    public int skip(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 4);
+    }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + 2);
+        return checkEnd(field, buf, pos, pos + 2 + getLengthForBinaryParsing(buf, pos));
+    }
 }
@@ -4,8 +4,10 @@ package com.easy.iso8583.parse;
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
 import com.easy.iso8583.util.Bcd;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 
 /**
@@ -79,4 +81,58 @@ public class LllvarParseInfo extends FieldParseInfo {
 
     }
 
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 3) - pos - 3;
+        final String v = len == 0 ? "" : new String(buf, pos + 3, len, getCharacterEncoding());
+        if (v.length() != len) {
+            //extended characters
+            return super.parse(field, buf, pos, slot);
+        }
+        return slot.reuse(type, v);
+    }
+
+    @Override
+    public IsoValue<?> parse(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 3) - pos - 3;
+        final String v = len == 0 ? "" : buf.toString(pos + 3, len, Charset.forName(getCharacterEncoding()));
+        if (v.length() != len) {
+            //extended characters, cut to the length as the array parser does
+            return super.parse(field, buf, pos);
+        }
+        return new IsoValue<>(type, v);
+    }
+
+    @Override
+    public int skip(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 3);
+    }
+
+    @Override
+    public int skip(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 3);
+    }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + 2);
+        return checkEnd(field, buf, pos, pos + 2 + ((buf[pos] & 0x0f) * 100) + Bcd.parseBcdLength(buf[pos + 1]));
+    }
+
+    @Override
+    public long parseLong(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int end = skip(field, buf, pos);
+        return parseDigits(field, buf, pos + 3, end - pos - 3);
+    }
+
+    @Override
+    public long parseLongBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        final int end = skipBinary(field, buf, pos);
+        return parseDigits(field, buf, pos + 2, end - pos - 2);
+    }
 }
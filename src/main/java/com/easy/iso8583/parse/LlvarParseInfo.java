@@ -5,8 +5,10 @@ package com.easy.iso8583.parse;
 import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
 import com.easy.iso8583.util.Bcd;
+import io.netty.buffer.ByteBuf;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 
 /**
@@ -86,4 +88,58 @@ public class LlvarParseInfo extends FieldParseInfo {
 
     }
 
+    @Override
+    public IsoValue<?> parse(final int field, final byte[] buf, final int pos, final IsoValue<Object> slot)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 2) - pos - 2;
+        final String v = len == 0 ? "" : new String(buf, pos + 2, len, getCharacterEncoding());
+        if (v.length() != len) {
+            //extended characters
+            return super.parse(field, buf, pos, slot);
+        }
+        return slot.reuse(type, v, len);
+    }
+
+    @Override
+    public IsoValue<?> parse(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int len = skipVariable(field, buf, pos, 2) - pos - 2;
+        final String v = len == 0 ? "" : buf.toString(pos + 2, len, Charset.forName(getCharacterEncoding()));
+        if (v.length() != len) {
+            //extended characters, cut to the length as the array parser does
+            return super.parse(field, buf, pos);
+        }
+        return new IsoValue<String>(type, v, len);
+    }
+
+    @Override
+    public int skip(final int field, final ByteBuf buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 2);
+    }
+
+    @Override
+    public int skip(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        return skipVariable(field, buf, pos, 2);
+    }
+
+    @Override
+    public int skipBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        checkEnd(field, buf, pos, pos + 1);
+        return checkEnd(field, buf, pos, pos + 1 + Bcd.parseBcdLength(buf[pos]));
+    }
+
+    @Override
+    public long parseLong(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        final int end = skip(field, buf, pos);
+        return parseDigits(field, buf, pos + 2, end - pos - 2);
+    }
+
+    @Override
+    public long parseLongBinary(final int field, final byte[] buf, final int pos) throws ParseException {
+        final int end = skipBinary(field, buf, pos);
+        return parseDigits(field, buf, pos + 1, end - pos - 1);
+    }
 }
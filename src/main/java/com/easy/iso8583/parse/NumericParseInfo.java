@@ -5,6 +5,7 @@ import com.easy.iso8583.IsoType;
 import com.easy.iso8583.IsoValue;
 import com.easy.iso8583.util.Bcd;
 
+import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 
 /**
@@ -42,4 +43,14 @@ public class NumericParseInfo extends AlphaNumericFieldParseInfo {
             }
         }
     }
+
+    @Override
+    public long parseLongBinary(final int field, final byte[] buf, final int pos)
+            throws ParseException, UnsupportedEncodingException {
+        if (length > 18) {
+            return super.parseLongBinary(field, buf, pos);
+        }
+        checkEnd(field, buf, pos, pos + (length / 2) + (length % 2));
+        return Bcd.decodeToLong(buf, pos, length);
+    }
 }
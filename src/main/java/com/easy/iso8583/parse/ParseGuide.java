@@ -0,0 +1,80 @@
+package com.easy.iso8583.parse;
+
+import java.util.Map;
+
+/**
+ * A parsing guide compiled for a message type: the parser for each field in an array
+ * indexed by field number, plus a 128-bit mask of the fields the guide knows about.
+ * Bit 0 of the low word is field 1, bit 63 is field 64; the high word holds fields 65 to 128.
+ * Field 1 (the secondary bitmap) is always allowed.
+ */
+public final class ParseGuide {
+
+    private final int type;
+    private final FieldParseInfo[] parsers = new FieldParseInfo[129];
+    private final long allowedLow;
+    private final long allowedHigh;
+    private final int lastField;
+
+    /**
+     * Compiles the guide for the specified message type.
+     *
+     * @param type The message type.
+     * @param map  The parsers, keyed by field number (2 to 128).
+     */
+    public ParseGuide(int type, Map<Integer, FieldParseInfo> map) {
+        this.type = type;
+        long low = 1L;
+        long high = 0L;
+        int last = 0;
+        for (Map.Entry<Integer, FieldParseInfo> e : map.entrySet()) {
+            final int field = e.getKey();
+            if (field < 2 || field > 128) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid field %d in parsing guide for type %04x", field, type));
+            }
+            parsers[field] = e.getValue();
+            if (field <= 64) {
+                low |= 1L << (field - 1);
+            } else {
+                high |= 1L << (field - 65);
+            }
+            last = Math.max(last, field);
+        }
+        allowedLow = low;
+        allowedHigh = high;
+        lastField = last;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns the parser for the specified field, or null if the field is not in the guide.
+     */
+    public FieldParseInfo get(int field) {
+        return parsers[field];
+    }
+
+    /**
+     * Returns the highest field number in the guide.
+     */
+    public int getLastField() {
+        return lastField;
+    }
+
+    /**
+     * Returns the fields 1 to 64 of the bitmap word that are not in the guide.
+     */
+    public long unknownLow(long low) {
+        return low & ~allowedLow;
+    }
+
+    /**
+     * Returns the fields 65 to 128 of the bitmap word that are not in the guide.
+     */
+    public long unknownHigh(long high) {
+        return high & ~allowedHigh;
+    }
+}
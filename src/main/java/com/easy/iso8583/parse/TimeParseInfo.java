@@ -18,15 +18,9 @@ Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
 */
 package com.easy.iso8583.parse;
 
-
 import com.easy.iso8583.IsoType;
-import com.easy.iso8583.IsoValue;
-import com.easy.iso8583.util.Bcd;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
-import java.util.Calendar;
-import java.util.Date;
 
 /**
  * This class is used to parse TIME fields.
@@ -41,53 +35,33 @@ public class TimeParseInfo extends DateTimeParseInfo {
     }
 
     @Override
-    public <T> IsoValue<Date> parse(final int field, final byte[] buf,
-                                    final int pos)
-            throws ParseException, UnsupportedEncodingException {
+    public long parseEpochMillis(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid TIME field %d pos %d",
+            throw new ParseException(String.format("Invalid TIME field %d position %d",
                     field, pos), pos);
-        } else if (pos + 6 > buf.length) {
-            throw new ParseException(String.format(
-                    "Insufficient data for TIME field %d, pos %d", field, pos), pos);
         }
-        Calendar cal = Calendar.getInstance();
-        if (forceStringDecoding) {
-            cal.set(Calendar.HOUR_OF_DAY, Integer.parseInt(new String(buf, pos, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.MINUTE, Integer.parseInt(new String(buf, pos + 2, 2, getCharacterEncoding()), 10));
-            cal.set(Calendar.SECOND, Integer.parseInt(new String(buf, pos + 4, 2, getCharacterEncoding()), 10));
-        } else {
-            cal.set(Calendar.HOUR_OF_DAY, ((buf[pos] - 48) * 10) + buf[pos + 1] - 48);
-            cal.set(Calendar.MINUTE, ((buf[pos + 2] - 48) * 10) + buf[pos + 3] - 48);
-            cal.set(Calendar.SECOND, ((buf[pos + 4] - 48) * 10) + buf[pos + 5] - 48);
+        if (pos + 6 > buf.length) {
+            throw new ParseException(String.format("Insufficient data for TIME field %d, pos %d",
+                    field, pos), pos);
         }
-        return createValue(cal, false, length);
+        //The date is not in the field, so we take the current one in the time zone
+        final int date = getClock().getDate();
+        return toEpochMillis(date / 10000, date / 100 % 100, date % 100,
+                digits2(field, buf, pos), digits2(field, buf, pos + 2), digits2(field, buf, pos + 4), false);
     }
 
     @Override
-    public <T> IsoValue<Date> parseBinary(final int field, final byte[] buf,
-                                          final int pos)
-            throws ParseException {
+    public long parseEpochMillisBinary(final int field, final byte[] buf, final int pos) throws ParseException {
         if (pos < 0) {
-            throw new ParseException(String.format("Invalid bin TIME field %d pos %d",
+            throw new ParseException(String.format("Invalid bin TIME field %d position %d",
                     field, pos), pos);
-        } else if (pos + 3 > buf.length) {
-            throw new ParseException(String.format(
-                    "Insufficient data for bin TIME field %d, pos %d", field, pos), pos);
-        }
-        int[] tens = new int[3];
-        int start = 0;
-        for (int i = pos; i < pos + 3; i++) {
-            tens[start++] = Bcd.parseBcdLength(buf[i]);
         }
-        Calendar cal = Calendar.getInstance();
-        cal.set(Calendar.HOUR_OF_DAY, tens[0]);
-        cal.set(Calendar.MINUTE, tens[1]);
-        cal.set(Calendar.SECOND, tens[2]);
-        if (tz != null) {
-            cal.setTimeZone(tz);
+        if (pos + 3 > buf.length) {
+            throw new ParseException(String.format("Insufficient data for bin TIME field %d, pos %d",
+                    field, pos), pos);
         }
-        return new IsoValue<Date>(type, cal.getTime());
+        final int date = getClock().getDate();
+        return toEpochMillis(date / 10000, date / 100 % 100, date % 100,
+                bcd2(buf, pos), bcd2(buf, pos + 1), bcd2(buf, pos + 2), false);
     }
-
 }
@@ -0,0 +1,53 @@
+package com.easy.iso8583.util;
+
+/**
+ * Routines to decode numbers written as ASCII digits, straight from a byte range
+ * and without creating Strings.
+ */
+public final class AsciiDigits {
+
+    private AsciiDigits() {
+    }
+
+    /**
+     * Decodes the ASCII digits in the specified range as a long.
+     *
+     * @param buf    The byte buffer containing the digits.
+     * @param pos    The starting position in the buffer.
+     * @param length The number of digits to read, at most 18.
+     * @throws NumberFormatException if the range is empty, too long, or contains a byte that is not a digit.
+     */
+    public static long parseLong(byte[] buf, int pos, int length) throws NumberFormatException {
+        if (length < 1 || length > 18) {
+            throw new NumberFormatException(String.format("Cannot decode %d digits as long", length));
+        }
+        long l = 0;
+        for (int i = pos; i < pos + length; i++) {
+            final int d = buf[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException(String.format("Invalid digit 0x%02x at pos %d", buf[i] & 0xff, i));
+            }
+            l = l * 10 + d;
+        }
+        return l;
+    }
+
+    /**
+     * Decodes a string of digits as a long, same as {@link #parseLong(byte[], int, int)}.
+     */
+    public static long parseLong(CharSequence s) throws NumberFormatException {
+        final int length = s.length();
+        if (length < 1 || length > 18) {
+            throw new NumberFormatException(String.format("Cannot decode '%s' as long", s));
+        }
+        long l = 0;
+        for (int i = 0; i < length; i++) {
+            final int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException(String.format("Cannot decode '%s' as long", s));
+            }
+            l = l * 10 + d;
+        }
+        return l;
+    }
+}
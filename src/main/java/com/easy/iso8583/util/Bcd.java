@@ -50,6 +50,29 @@ public final class Bcd {
         return l;
     }
 
+    /** Decodes a BCD-encoded number as a long, checking that every nibble is a digit.
+     * @param buf The byte buffer containing the BCD data.
+     * @param pos The starting position in the buffer.
+     * @param length The number of DIGITS (not bytes) to read.
+     * @throws NumberFormatException if a nibble is not a decimal digit. */
+    public static long parseLong(byte[] buf, int pos, int length)
+            throws IndexOutOfBoundsException, NumberFormatException {
+        if (length > 18) {
+            throw new IndexOutOfBoundsException("Buffer too big to decode as long");
+        }
+        long l = 0;
+        final int end = pos + (length / 2) + (length % 2);
+        for (int i = pos; i < end; i++) {
+            final int hi = (buf[i] & 0xf0) >> 4;
+            final int lo = buf[i] & 0x0f;
+            if (hi > 9 || lo > 9) {
+                throw new NumberFormatException(String.format("Invalid BCD byte 0x%02x at pos %d", buf[i] & 0xff, i));
+            }
+            l = l * 100 + hi * 10 + lo;
+        }
+        return l;
+    }
+
     public static long decodeRightPaddedToLong(byte[] buf, int pos, int length)
             throws IndexOutOfBoundsException {
         if (length > 18) {
@@ -75,13 +98,19 @@ public final class Bcd {
     /** Encode the value as BCD and put it in the buffer. The buffer must be big enough
    	 * to store the digits in the original value (half the length of the string). */
     public static void encode(String value, byte[] buf) {
+        encode(value, buf, 0);
+    }
+
+    /** Encode the value as BCD and put it in the buffer, starting at the specified position.
+     * @return The position after the last byte written. */
+    public static int encode(String value, byte[] buf, int pos) {
         int charpos = 0; //char where we start
-        int bufpos = 0;
+        int bufpos = pos;
         if (value.length() % 2 == 1) {
             //for odd lengths we encode just the first digit in the first byte
-            buf[0] = (byte)(value.charAt(0) - 48);
+            buf[bufpos] = (byte)(value.charAt(0) - 48);
             charpos = 1;
-            bufpos = 1;
+            bufpos++;
         }
         //encode the rest of the string
         while (charpos < value.length()) {
@@ -90,6 +119,7 @@ public final class Bcd {
             charpos += 2;
             bufpos++;
         }
+        return bufpos;
     }
 
     /** Encode the value as BCD and put it in the buffer. The buffer must be big enough
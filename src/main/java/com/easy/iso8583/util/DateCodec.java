@@ -0,0 +1,97 @@
+package com.easy.iso8583.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.TimeZone;
+
+/**
+ * Calendar arithmetic on primitive values, so that date fields can be converted to and from
+ * epoch milliseconds without Calendar instances. Dates are proleptic Gregorian, as in java.time.
+ */
+public final class DateCodec {
+
+    public static final long MILLIS_PER_DAY = 86400000L;
+
+    private DateCodec() {
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the specified date. Months outside 1..12
+     * roll over into the year, and days outside the month roll over into the next or previous months,
+     * like a lenient Calendar.
+     */
+    public static long daysFromCivil(int year, int month, int day) {
+        if (month < 1 || month > 12) {
+            year += Math.floorDiv(month - 1, 12);
+            month = Math.floorMod(month - 1, 12) + 1;
+        }
+        //Days from civil, counting years from March so the leap day is the last of the year
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = Math.floorDiv(y, 400);
+        final int yoe = y - era * 400;
+        final int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468L + day - 1;
+    }
+
+    /**
+     * Returns the date for the specified number of days from 1970-01-01,
+     * packed as year * 10000 + month * 100 + day.
+     */
+    public static int civilFromDays(long days) {
+        final long z = days + 719468L;
+        final long era = Math.floorDiv(z, 146097L);
+        final int doe = (int) (z - era * 146097L);
+        final int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final int mp = (5 * doy + 2) / 153;
+        final int day = doy - (153 * mp + 2) / 5 + 1;
+        final int month = mp < 10 ? mp + 3 : mp - 9;
+        final int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Returns the milliseconds from 1970-01-01T00:00 to the specified local date and time,
+     * ignoring any time zone.
+     */
+    public static long localMillis(int year, int month, int day, int hour, int minute, int second) {
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60L + second) * 1000L;
+    }
+
+    /**
+     * Converts local milliseconds (as returned by {@link #localMillis}) to epoch milliseconds
+     * in the specified time zone.
+     */
+    public static long toEpochMillis(long localMillis, TimeZone tz) {
+        final int offset = tz.getOffset(localMillis - tz.getRawOffset());
+        return localMillis - tz.getOffset(localMillis - offset);
+    }
+
+    /**
+     * Writes a value from 0 to 99 as two ASCII digits, or as one BCD byte.
+     *
+     * @return The position after the digits.
+     */
+    public static int put2(byte[] buf, int pos, int value, boolean bcd) {
+        if (bcd) {
+            buf[pos] = (byte) (((value / 10) << 4) | (value % 10));
+            return pos + 1;
+        }
+        buf[pos] = (byte) ('0' + value / 10);
+        buf[pos + 1] = (byte) ('0' + value % 10);
+        return pos + 2;
+    }
+
+    /**
+     * Writes a value from 0 to 99 as two ASCII digits at the index of the Netty buffer.
+     *
+     * @return The index after the digits.
+     */
+    public static int put2(ByteBuf buf, int index, int value) {
+        buf.setByte(index, '0' + value / 10);
+        buf.setByte(index + 1, '0' + value % 10);
+        return index + 2;
+    }
+}
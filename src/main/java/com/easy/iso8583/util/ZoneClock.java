@@ -0,0 +1,186 @@
+package com.easy.iso8583.util;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Date arithmetic for a time zone. Keeps the current date, for date fields that leave out the year
+ * or the date, computing it from the system clock at most once per second; and the local fields of
+ * the last second that was formatted, since outgoing fields like the transmission date (field 7)
+ * are the same for every message sent within a second. If the zone's offset no longer changes
+ * (no DST and no transitions ahead), the offset is precomputed instead of asked to the TimeZone.
+ * There is one instance per time zone ID, shared by all threads.
+ */
+public final class ZoneClock {
+
+    private static final ConcurrentMap<String, ZoneClock> CLOCKS = new ConcurrentHashMap<>();
+    private static volatile ZoneClock defaultClock;
+
+    private final TimeZone tz;
+    /* The offset is fixedOffset for every instant from fixedSince on */
+    private final long fixedSince;
+    private final int fixedOffset;
+    private volatile Today today;
+    private volatile LocalFields lastFormatted;
+
+    private ZoneClock(TimeZone tz) {
+        this.tz = tz;
+        long since = Long.MAX_VALUE;
+        int offset = 0;
+        try {
+            final ZoneRules rules = tz.toZoneId().getRules();
+            final Instant now = Instant.now();
+            if (rules.getOffset(now).getTotalSeconds() * 1000 == tz.getOffset(now.toEpochMilli())
+                    && rules.nextTransition(now) == null) {
+                final ZoneOffsetTransition prev = rules.previousTransition(now);
+                since = prev == null ? Long.MIN_VALUE : prev.toEpochSecond() * 1000;
+                offset = rules.getOffset(now).getTotalSeconds() * 1000;
+            }
+        } catch (DateTimeException ex) {
+            //Custom zone without rules; we always ask the TimeZone
+        }
+        fixedSince = since;
+        fixedOffset = offset;
+    }
+
+    /**
+     * Returns the clock for the specified time zone, or for the JVM default time zone
+     * (as it was when first requested) if it's null.
+     */
+    public static ZoneClock of(TimeZone tz) {
+        if (tz == null) {
+            ZoneClock c = defaultClock;
+            if (c == null) {
+                defaultClock = c = of(TimeZone.getDefault());
+            }
+            return c;
+        }
+        ZoneClock c = CLOCKS.get(tz.getID());
+        if (c == null) {
+            c = new ZoneClock((TimeZone) tz.clone());
+            ZoneClock prev = CLOCKS.putIfAbsent(tz.getID(), c);
+            if (prev != null) {
+                c = prev;
+            }
+        }
+        return c;
+    }
+
+    public TimeZone getTimeZone() {
+        return tz;
+    }
+
+    /**
+     * Returns the current date in the time zone, packed as year * 10000 + month * 100 + day.
+     */
+    public int getDate() {
+        return today().date;
+    }
+
+    /**
+     * Returns the current year in the time zone.
+     */
+    public int getYear() {
+        return today().date / 10000;
+    }
+
+    /**
+     * Returns the current month in the time zone, 1 to 12.
+     */
+    public int getMonth() {
+        return today().date / 100 % 100;
+    }
+
+    /**
+     * Returns the current day of the month in the time zone.
+     */
+    public int getDay() {
+        return today().date % 100;
+    }
+
+    /**
+     * Returns the offset from UTC in milliseconds at the specified instant.
+     */
+    public int getOffset(long millis) {
+        return millis >= fixedSince ? fixedOffset : tz.getOffset(millis);
+    }
+
+    /**
+     * Returns the epoch milliseconds of the specified local date and time in the time zone.
+     */
+    public long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        final long local = DateCodec.localMillis(year, month, day, hour, minute, second);
+        if (fixedSince != Long.MAX_VALUE && local - fixedOffset >= fixedSince) {
+            return local - fixedOffset;
+        }
+        return DateCodec.toEpochMillis(local, tz);
+    }
+
+    /**
+     * Returns the local date and time fields of the specified instant, truncated to the second.
+     * The fields of the last second requested are kept, so formatting several dates within
+     * the same second computes them only once.
+     */
+    public LocalFields getLocalFields(long millis) {
+        final long second = Math.floorDiv(millis, 1000L);
+        LocalFields f = lastFormatted;
+        if (f == null || f.epochSecond != second) {
+            final long local = millis + getOffset(millis);
+            final long days = Math.floorDiv(local, DateCodec.MILLIS_PER_DAY);
+            final int secondOfDay = (int) (Math.floorMod(local, DateCodec.MILLIS_PER_DAY) / 1000);
+            f = new LocalFields(second, DateCodec.civilFromDays(days), secondOfDay);
+            lastFormatted = f;
+        }
+        return f;
+    }
+
+    private Today today() {
+        final long now = System.currentTimeMillis();
+        Today t = today;
+        if (t == null || now / 1000 != t.second) {
+            final long local = now + getOffset(now);
+            t = new Today(now / 1000, DateCodec.civilFromDays(Math.floorDiv(local, DateCodec.MILLIS_PER_DAY)));
+            today = t;
+        }
+        return t;
+    }
+
+    private static final class Today {
+        final long second;
+        /* year * 10000 + month * 100 + day */
+        final int date;
+
+        Today(long second, int date) {
+            this.second = second;
+            this.date = date;
+        }
+    }
+
+    /**
+     * The local date and time fields of an instant, truncated to the second.
+     */
+    public static final class LocalFields {
+        final long epochSecond;
+        public final int year;
+        public final int month;
+        public final int day;
+        public final int hour;
+        public final int minute;
+        public final int second;
+
+        LocalFields(long epochSecond, int date, int secondOfDay) {
+            this.epochSecond = epochSecond;
+            year = date / 10000;
+            month = date / 100 % 100;
+            day = date % 100;
+            hour = secondOfDay / 3600;
+            minute = secondOfDay / 60 % 60;
+            second = secondOfDay % 60;
+        }
+    }
+}
@@ -1,18 +1,35 @@
 package com.easy.iso8583;
 
 import com.easy.iso8583.communicate.BaseHandle;
+import com.easy.iso8583.communicate.Message;
+import com.easy.iso8583.communicate.UpiFrame;
 import com.easy.iso8583.parse.ConfigParser;
+import com.easy.iso8583.parse.FieldParseInfo;
 import com.easy.iso8583.util.DESUtil;
 import com.easy.iso8583.util.HexCodec;
 import com.gd.magic.MagicException;
 import com.gd.magic.encrypt.Des;
 import com.gd.magic.util.StringUtil;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author dy_gu king.gu@gmail.com
@@ -106,4 +123,322 @@ class MessageFactoryTest {
         msg.printMsg();
         byte[] tmp = msg.getObjectValue(96);
     }
-}
\ No newline at end of file
+
+    static final String MSG_0200 = "2E82303334313434313930343430202020303030313033343420202000000001313030303030303000303030303030323030E23E64C1A8E09810000000001000008031363632313039343730303030303030323133303030303030353138313330383537313036383739313330383537303531383330313030393032363031313135363032313032303630383030303030303030303830303030303030303036313131313131303030303030303035323733303030313030303130303135383430353331313030303154657374696E67206D65726368616E742032202020202020205368656E5A68656E2020202043484E3434363C77B8E654636C383236303030303030303030303030303030323730303030303230303031303030303030303030303030323131303230383434313930343430303330353131202020202020202020202020202020202020202020202020202020";
+
+    @Test
+    void testLazyParsing() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage eager = factory.parseMessage(bytes, 0x2e);
+        factory.setLazyParsing(true);
+        try {
+            IsoMessage lazy = factory.parseMessage(bytes, 0x2e);
+            Assertions.assertEquals("106879", lazy.getObjectValue(11));
+            Assertions.assertEquals("44190440", lazy.getObjectValue(100));
+            for (int i = 2; i <= 128; i++) {
+                Assertions.assertEquals(eager.hasField(i), lazy.hasField(i), "field " + i);
+            }
+            Assertions.assertEquals(eager.debugString(), lazy.debugString());
+            Assertions.assertArrayEquals(eager.writeData(), lazy.writeData());
+        } finally {
+            factory.setLazyParsing(false);
+        }
+    }
+
+    @Test
+    void testBinaryFieldEnds() throws IOException, ParseException {
+        //fields 11, 45 (LLBIN, hex on the wire), 48 (LLLBIN) and 49
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write("0200".getBytes());
+        out.write(HexCodec.hexDecode("0020000000098000"));
+        out.write("00012306ABCDEF004NK12156".getBytes());
+        byte[] bytes = out.toByteArray();
+        IsoMessage eager = factory.parseMessage(bytes, 0);
+        Assertions.assertArrayEquals(HexCodec.hexDecode("ABCDEF"), eager.getObjectValue(45));
+        Assertions.assertArrayEquals("NK12".getBytes(), eager.getObjectValue(48));
+        Assertions.assertEquals("156", eager.getObjectValue(49));
+        IsoMessage selective = factory.parseMessage(bytes, 0, 48, 49);
+        Assertions.assertFalse(selective.hasField(45));
+        factory.setLazyParsing(true);
+        try {
+            IsoMessage lazy = factory.parseMessage(bytes, 0);
+            for (IsoMessage m : new IsoMessage[]{lazy, selective}) {
+                Assertions.assertArrayEquals("NK12".getBytes(), m.getObjectValue(48));
+                Assertions.assertEquals("156", m.getObjectValue(49));
+            }
+            Assertions.assertArrayEquals(HexCodec.hexDecode("ABCDEF"), lazy.getObjectValue(45));
+        } finally {
+            factory.setLazyParsing(false);
+        }
+    }
+
+    @Test
+    void testParseGuides() throws IOException, ParseException {
+        MessageFactory<IsoMessage> f = ConfigParser.createFromClasspathConfig("conf/j8583.xml");
+        f.setForceStringEncoding(true);
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        Assertions.assertEquals("106879", f.parseMessage(bytes, 0x2e).getObjectValue(11));
+        //MTIs have 4 digits
+        Assertions.assertThrows(IllegalArgumentException.class, () -> f.setParseMap(0x10200, new HashMap<>()));
+        Assertions.assertEquals("106879", f.parseMessage(bytes, 0x2e).getObjectValue(11));
+        //changes made to parseMap directly apply once the guides are compiled again
+        Map<Integer, FieldParseInfo> guide = f.parseMap.get(0x200);
+        guide.put(11, FieldParseInfo.getInstance(IsoType.ALPHA, 6, "UTF-8"));
+        Assertions.assertEquals(IsoType.NUMERIC, f.parseMessage(bytes, 0x2e).getField(11).getType());
+        f.compileParseGuides();
+        Assertions.assertEquals(IsoType.ALPHA, f.parseMessage(bytes, 0x2e).getField(11).getType());
+        guide.remove(100);
+        f.compileParseGuides();
+        Assertions.assertThrows(ParseException.class, () -> f.parseMessage(bytes, 0x2e));
+        f.parseMap.remove(0x200);
+        f.compileParseGuides();
+        ParseException e = Assertions.assertThrows(ParseException.class, () -> f.parseMessage(bytes, 0x2e));
+        Assertions.assertTrue(e.getMessage().contains("no parsing guide for message type 0200"));
+    }
+
+    @Test
+    void testBitmap() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage msg = factory.parseMessage(bytes, 0x2e);
+        //the bitmap is written back as it was read, including the secondary bitmap for field 100
+        byte[] data = msg.writeData();
+        Assertions.assertEquals("E23E64C1A8E098100000000010000080", HexCodec.hexEncode(data, 4, 16));
+        Assertions.assertEquals(100, msg.getBitmap().nextField(61));
+        msg.removeFields(100, 121);
+        Assertions.assertFalse(msg.hasAnyField(100, 121));
+        Assertions.assertFalse(msg.getBitmap().hasSecondary());
+        Assertions.assertEquals("623E64C1A8E09810", msg.debugString().substring(4, 20));
+    }
+
+    @Test
+    void testSelectiveParsing() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage full = factory.parseMessage(bytes, 0x2e);
+        IsoMessage msg = factory.parseMessage(bytes, 0x2e, 11, 32, 33, 37, 39);
+        Assertions.assertEquals(full.getType(), msg.getType());
+        for (int i : new int[]{11, 32, 33, 37}) {
+            Assertions.assertEquals(full.getField(i).toString(), msg.getField(i).toString(), "field " + i);
+        }
+        Assertions.assertFalse(msg.hasAnyField(2, 39, 100, 121));
+        msg = factory.parseMessage(bytes, 0x2e, MessageFactory.fieldMask(100));
+        Assertions.assertEquals("44190440", msg.getObjectValue(100));
+        Assertions.assertFalse(msg.hasField(121));
+    }
+
+    @Test
+    void testBuffers() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        byte[] data = factory.parseMessage(bytes, 0x2e).writeData();
+        //heap buffer positioned after the header, with trailing garbage past the limit
+        ByteBuffer heap = ByteBuffer.allocate(bytes.length + 10);
+        heap.put(bytes).flip().position(0x2e);
+        Assertions.assertArrayEquals(data, factory.parseMessage(heap).writeData());
+        Assertions.assertFalse(heap.hasRemaining());
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 2);
+        factory.parseMessage(bytes, 0x2e).write(direct, 2);
+        direct.flip();
+        Assertions.assertEquals(data.length, direct.getShort());
+        Assertions.assertArrayEquals(data, factory.parseMessage(direct).writeData());
+        ByteBuf bb = Unpooled.directBuffer();
+        factory.parseMessage(bytes, 0x2e).write(bb, 0);
+        Assertions.assertEquals(data.length, bb.readableBytes());
+        Assertions.assertEquals("106879", factory.parseMessage(bb).getObjectValue(11));
+        heap.limit(heap.limit() - 1).position(0x2e);
+        Assertions.assertThrows(ParseException.class, () -> factory.parseMessage(heap));
+    }
+
+    @Test
+    void testDirectBuffers() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage m = factory.parseMessage(bytes, 0x2e);
+        byte[] data = m.writeData();
+        //written in place through the index API
+        ByteBuf direct = Unpooled.directBuffer(16);
+        m.write(direct, 2);
+        Assertions.assertEquals(data.length, direct.readUnsignedShort());
+        Assertions.assertArrayEquals(data, ByteBufUtil.getBytes(direct));
+        //read in place, from a direct buffer and from one split in the middle of fields and the bitmap
+        IsoMessage p = factory.parseMessage(direct);
+        Assertions.assertFalse(direct.isReadable());
+        Assertions.assertArrayEquals(data, p.writeData());
+        ByteBuf composite = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(data, 0, 7),
+                Unpooled.directBuffer().writeBytes(data, 7, 30), Unpooled.wrappedBuffer(data, 37, data.length - 37));
+        p = factory.parseMessage(composite);
+        for (int i = 2; i <= 128; i++) {
+            Assertions.assertEquals(String.valueOf(m.getField(i)), String.valueOf(p.getField(i)), "field " + i);
+        }
+        Assertions.assertArrayEquals(data, p.writeData());
+        composite.readerIndex(0);
+        p = factory.parseMessage(composite, MessageFactory.fieldMask(11, 49));
+        Assertions.assertEquals("106879", p.getObjectValue(11));
+        Assertions.assertFalse(p.hasField(7));
+        composite.readerIndex(0).writerIndex(data.length - 1);
+        Assertions.assertThrows(ParseException.class, () -> factory.parseMessage(composite));
+        ByteBuffer nio = ByteBuffer.allocateDirect(data.length);
+        m.write(nio, 0);
+        nio.flip();
+        Assertions.assertArrayEquals(data, factory.parseMessage(nio).writeData());
+        Assertions.assertFalse(nio.hasRemaining());
+        //whole frames
+        Message msg = new Message(new MsgHead(bytes), m);
+        ByteBuf frame = Unpooled.directBuffer(16);
+        UpiFrame.write(msg, frame);
+        Assertions.assertArrayEquals(UpiFrame.encode(msg), ByteBufUtil.getBytes(frame));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    void testLittleEndianBuffers() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage m = factory.parseMessage(bytes, 0x2e);
+        byte[] data = m.writeData();
+        //the bitmap is in wire order whatever the byte order of the buffer
+        ByteBuffer nio = ByteBuffer.allocateDirect(data.length + 2).order(ByteOrder.LITTLE_ENDIAN);
+        m.write(nio, 2);
+        nio.flip();
+        byte[] written = new byte[data.length + 2];
+        nio.duplicate().get(written);
+        Assertions.assertArrayEquals(data, Arrays.copyOfRange(written, 2, written.length));
+        nio.position(2);
+        Assertions.assertArrayEquals(data, factory.parseMessage(nio).writeData());
+        ByteBuf le = Unpooled.directBuffer(data.length).order(ByteOrder.LITTLE_ENDIAN);
+        le.writerIndex(m.writeData(le, 0));
+        Assertions.assertArrayEquals(data, ByteBufUtil.getBytes(le));
+        Assertions.assertArrayEquals(data, factory.parseMessage(le).writeData());
+    }
+
+    @Test
+    void testEncode() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage m = factory.parseMessage(bytes, 0x2e);
+        byte[] data = m.writeData();
+        Assertions.assertArrayEquals(Arrays.copyOfRange(bytes, 0x2e, bytes.length), data);
+        Assertions.assertEquals(data.length, m.encodedLength());
+        byte[] buf = new byte[data.length + 5];
+        Assertions.assertEquals(data.length + 3, m.writeData(buf, 3));
+        Assertions.assertArrayEquals(data, Arrays.copyOfRange(buf, 3, data.length + 3));
+        //heap buffer slice, so the backing array has an offset
+        ByteBuffer slice = ByteBuffer.wrap(new byte[data.length + 10], 4, data.length + 6).slice();
+        m.write(slice, 2);
+        Assertions.assertEquals(data.length + 2, slice.position());
+        slice.flip();
+        Assertions.assertEquals(data.length, slice.getShort());
+        Assertions.assertArrayEquals(data, factory.parseMessage(slice).writeData());
+        Assertions.assertThrows(BufferOverflowException.class, () -> m.write(ByteBuffer.allocate(data.length), 2));
+        for (int i : new int[]{2, 7, 35, 43, 121}) {
+            IsoValue<?> v = m.getField(i);
+            Assertions.assertEquals(v.valueToBytes(false, false).length, v.encodedLength(false, false), "field " + i);
+        }
+    }
+
+    @Test
+    void testUpiFrame() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage body = factory.parseMessage(bytes, 0x2e);
+        MsgHead head = new MsgHead(bytes);
+        byte[] data = body.writeData();
+        byte[] frame = UpiFrame.encode(new Message(head, body));
+        Assertions.assertEquals(4 + MsgHead.HEAD_LEN + data.length, frame.length);
+        Assertions.assertEquals(String.format("%04d", MsgHead.HEAD_LEN + data.length), new String(frame, 0, 4));
+        Assertions.assertArrayEquals(head.toResponseByteArray(data.length), Arrays.copyOfRange(frame, 4, 4 + MsgHead.HEAD_LEN));
+        Assertions.assertArrayEquals(data, Arrays.copyOfRange(frame, 4 + MsgHead.HEAD_LEN, frame.length));
+    }
+
+    @Test
+    void testPooling() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage eager = factory.parseMessage(bytes, 0x2e);
+        factory.setPooling(true);
+        try {
+            byte[] copy = bytes.clone();
+            IsoMessage m = factory.parseMessage(copy, 0x2e);
+            //the frame is copied, so the buffer can be reused right away
+            Arrays.fill(copy, (byte) 0);
+            Assertions.assertEquals(106879L, m.getLong(11));
+            Assertions.assertArrayEquals(eager.writeData(), m.writeData());
+            Assertions.assertTrue(m.release());
+            Assertions.assertEquals(0, m.getType());
+            Assertions.assertFalse(m.hasField(11));
+            Assertions.assertThrows(IllegalStateException.class, m::release);
+            IsoMessage buffered = factory.parseMessage(Unpooled.wrappedBuffer(bytes, 0x2e, bytes.length - 0x2e));
+            Assertions.assertEquals("106879", buffered.getObjectValue(11));
+            Assertions.assertTrue(buffered.release());
+            Assertions.assertThrows(ParseException.class,
+                    () -> factory.parseMessage(Arrays.copyOf(bytes, bytes.length - 1), 0x2e));
+        } finally {
+            factory.setPooling(false);
+        }
+        Assertions.assertFalse(eager.release());
+    }
+
+    @Test
+    void testPooledFieldSlots() throws IOException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage eager = factory.parseMessage(bytes, 0x2e);
+        factory.setPooling(true);
+        try {
+            IsoMessage m = factory.parseMessage(bytes, 0x2e);
+            IsoValue<?> pan = m.getField(2);
+            IsoValue<?> terminal = m.getField(41);
+            m.setValue(41, "T2", IsoType.ALPHA, 8);
+            Assertions.assertSame(terminal, m.getField(41));
+            Assertions.assertEquals("T2      ", m.getField(41).toString());
+            m.updateValue(41, "T3");
+            Assertions.assertSame(terminal, m.getField(41));
+            IsoMessage resp = factory.createResponse(m);
+            Assertions.assertNotSame(pan, resp.getField(2));
+            Assertions.assertTrue(m.release());
+            //the same message and field values come back from the pool, refilled
+            IsoMessage again = factory.parseMessage(bytes, 0x2e);
+            Assertions.assertSame(m, again);
+            Assertions.assertSame(pan, again.getField(2));
+            Assertions.assertSame(terminal, again.getField(41));
+            Assertions.assertArrayEquals(eager.writeData(), again.writeData());
+            Assertions.assertEquals(eager.getField(2).toString(), resp.getField(2).toString());
+            Assertions.assertEquals("T3      ", resp.getField(41).toString());
+            again.release();
+            resp.release();
+        } finally {
+            factory.setPooling(false);
+        }
+    }
+
+    @Test
+    void testGetLong() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage eager = factory.parseMessage(bytes, 0x2e);
+        factory.setLazyParsing(true);
+        try {
+            IsoMessage lazy = factory.parseMessage(bytes, 0x2e);
+            Assertions.assertEquals(106879L, lazy.getLong(11));
+            for (int i : new int[]{3, 11, 18, 22, 25, 32, 33, 100}) {
+                Assertions.assertEquals(Long.parseLong(eager.getField(i).toString()), eager.getLong(i), "field " + i);
+                Assertions.assertEquals(eager.getLong(i), lazy.getLong(i), "field " + i);
+            }
+            Assertions.assertEquals(-1L, lazy.getLong(4, -1L));
+            Assertions.assertThrows(IllegalArgumentException.class, () -> lazy.getLong(43));
+        } finally {
+            factory.setLazyParsing(false);
+        }
+    }
+
+    @Test
+    void testDates() throws UnsupportedEncodingException, ParseException {
+        byte[] bytes = StringUtil.hexStrToBytes(MSG_0200);
+        IsoMessage eager = factory.parseMessage(bytes, 0x2e);
+        //field 7 is 0518130857, in the current year unless that is too far in the future
+        LocalDateTime expected = LocalDateTime.of(LocalDate.now().getYear(), 5, 18, 13, 8, 57);
+        if (expected.isAfter(LocalDateTime.now().plusMinutes(15))) {
+            expected = expected.minusYears(1);
+        }
+        Assertions.assertEquals(expected.atZone(ZoneId.systemDefault()).toInstant(), eager.getInstant(7));
+        factory.setLazyParsing(true);
+        try {
+            IsoMessage lazy = factory.parseMessage(bytes, 0x2e);
+            Assertions.assertEquals(eager.getEpochMillis(7), lazy.getEpochMillis(7));
+            Assertions.assertEquals(eager.getField(7).toString(), lazy.getField(7).toString());
+        } finally {
+            factory.setLazyParsing(false);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.gd.magic.util.StringUtil;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+
 /**
  * @author dy_gu king.gu@gmail.com
  * @version V1.0
@@ -26,4 +28,16 @@ class MsgHeadTest {
         Assertions.assertArrayEquals(head.toByteArray(), bytes);
         System.out.println(StringUtil.bytesToHexStr(head.toResponseByteArray(0)));
     }
+
+    @Test
+    void writeResponse() {
+        String str = "2e823030393534343139303434302020203030303130333434202020000000013130303030303030003030303030";
+        MsgHead head = new MsgHead(StringUtil.hexStrToBytes(str));
+        byte[] buf = new byte[MsgHead.HEAD_LEN + 2];
+        Arrays.fill(buf, (byte) 0x7f);
+        Assertions.assertEquals(MsgHead.HEAD_LEN + 1, head.writeResponse(buf, 1, 49));
+        Assertions.assertEquals("2E823030393530303031303334342020203434313930343430202020000000013130303030303030003030303030",
+                StringUtil.bytesToHexStr(Arrays.copyOfRange(buf, 1, MsgHead.HEAD_LEN + 1)));
+        Assertions.assertEquals(0x7f, buf[MsgHead.HEAD_LEN + 1]);
+    }
 }
\ No newline at end of file
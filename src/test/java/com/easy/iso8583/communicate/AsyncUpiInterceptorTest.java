@@ -0,0 +1,228 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+class AsyncUpiInterceptorTest {
+
+    private ServerSocket server;
+    private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor();
+    private final BlockingQueue<Socket> opened = new LinkedBlockingQueue<>();
+    private final CountDownLatch connecting = new CountDownLatch(1);
+    /* Holds the connects up while set */
+    private volatile CountDownLatch connectGate;
+    private AsyncUpiInterceptor interceptor;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = new ServerSocket(0);
+        Thread t = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket s = server.accept();
+                    s.setSoTimeout(5000);
+                    accepted.add(s);
+                }
+            } catch (IOException e) {
+                //Closed
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        final int port = server.getLocalPort();
+        interceptor = new AsyncUpiInterceptor() {
+            @Override
+            Link openLink() throws IOException, InterruptedException {
+                connecting.countDown();
+                final CountDownLatch gate = connectGate;
+                if (gate != null) {
+                    gate.await();
+                }
+                Socket s = new Socket("127.0.0.1", port);
+                opened.add(s);
+                return link(s, () -> {
+                    try {
+                        s.close();
+                    } catch (IOException ignored) {
+                    }
+                });
+            }
+        };
+        interceptor.setReadIdleSeconds(1);
+        interceptor.setHeartbeatSeconds(60);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        interceptor.close();
+        heartbeats.shutdownNow();
+        server.close();
+        for (Socket s : accepted) {
+            s.close();
+        }
+    }
+
+    /* Sends UPI heartbeats on the connection, as UPI does when idle */
+    private void keepAlive(Socket s) {
+        heartbeats.scheduleWithFixedDelay(() -> {
+            try {
+                s.getOutputStream().write("0000".getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                //Closed
+            }
+        }, 0, 200, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean closedByPeer(Socket s) throws IOException {
+        try {
+            InputStream in = s.getInputStream();
+            while (in.read() >= 0) {
+                //Frames written by the interceptor
+            }
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    private static Message signOn() {
+        return UpiTestMessages.message(0x800, "000001", "001");
+    }
+
+    private static Message request(String stan) {
+        Message request = signOn();
+        request.body.setType(0x200);
+        request.body.setValue(11, stan, IsoType.NUMERIC, 6);
+        return request;
+    }
+
+    private static Message nextMessage(Socket s) throws IOException, ParseException {
+        return nextMessage(new UpiFrameReader(s.getInputStream()));
+    }
+
+    /* For more than one message, as the reader reads ahead */
+    private static Message nextMessage(UpiFrameReader reader) throws IOException, ParseException {
+        byte[] frame = reader.next();
+        while (frame != null && frame.length == 0) {
+            frame = reader.next();
+        }
+        return TestServer.toMessage(frame, UpiTestMessages.factory());
+    }
+
+    @Test
+    void testRequestsAreReversed() throws Throwable {
+        BlockingQueue<Message> reversals = new LinkedBlockingQueue<>();
+        interceptor.setResponseTimeoutMillis(200);
+        interceptor.getCorrelator().setReversalHandler(UpiTestMessages.factory(), reversals::add);
+        Socket active = accepted.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(active);
+        keepAlive(active);
+        interceptor.intercept(null, new Object[]{request("000002")}, null);
+        Assertions.assertEquals(0x200, nextMessage(active).body.getType());
+        //UPI never answers
+        Message reversal = reversals.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reversal);
+        Assertions.assertEquals(0x420, reversal.body.getType());
+        Assertions.assertEquals("000002", reversal.body.getObjectValue(11).toString());
+        Assertions.assertEquals(0, interceptor.getCorrelator().getPendingCount());
+    }
+
+    @Test
+    void testStandbyIsRead() throws Exception {
+        Socket active = accepted.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(active);
+        keepAlive(active);
+        Socket standby = accepted.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(standby);
+        //UPI is silent on the standby: it's presumed dead and closed, and a new one is opened
+        Assertions.assertTrue(closedByPeer(standby));
+        Assertions.assertNotNull(accepted.poll(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(closedByPeer(active));
+    }
+
+    @Test
+    void testSignOnOnPromotion() throws Exception {
+        interceptor.setSignOn(AsyncUpiInterceptorTest::signOn);
+        Socket active = accepted.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(active);
+        Socket standby = accepted.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(standby);
+        keepAlive(standby);
+        Message first = nextMessage(active);
+        Assertions.assertEquals(0x800, first.body.getType());
+        Assertions.assertEquals("001", first.body.getObjectValue(70).toString());
+        //UPI is silent on the active connection: the standby takes over and signs on
+        Assertions.assertTrue(closedByPeer(active));
+        Message promoted = nextMessage(standby);
+        Assertions.assertEquals(0x800, promoted.body.getType());
+        Assertions.assertEquals("001", promoted.body.getObjectValue(70).toString());
+    }
+
+    @Test
+    void testCallersNeverConnect() throws Throwable {
+        connectGate = new CountDownLatch(1);
+        //the first message held wakes the connect thread, which then takes its time connecting
+        interceptor.intercept(null, new Object[]{signOn()}, null);
+        Assertions.assertTrue(connecting.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        Message second = signOn();
+        second.body.setValue(11, "000002", IsoType.NUMERIC, 6);
+        interceptor.intercept(null, new Object[]{second}, null);
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        //both are written, in order, once the connection opens
+        connectGate.countDown();
+        Socket active = accepted.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(active);
+        keepAlive(active);
+        UpiFrameReader reader = new UpiFrameReader(active.getInputStream());
+        Assertions.assertEquals("000001", nextMessage(reader).body.getObjectValue(11).toString());
+        Assertions.assertEquals("000002", nextMessage(reader).body.getObjectValue(11).toString());
+    }
+
+    @Test
+    void testUnsentRequestsAreNotReversed() throws Throwable {
+        BlockingQueue<Message> reversals = new LinkedBlockingQueue<>();
+        interceptor.setStandbyEnabled(false);
+        interceptor.setResponseTimeoutMillis(200);
+        interceptor.getCorrelator().setReversalHandler(UpiTestMessages.factory(), reversals::add);
+        connectGate = new CountDownLatch(1);
+        //held, not sent: nothing to time out
+        interceptor.intercept(null, new Object[]{request("000002")}, null);
+        Assertions.assertEquals(0, interceptor.getCorrelator().getPendingCount());
+        Assertions.assertNull(reversals.poll(500, TimeUnit.MILLISECONDS));
+
+        //sent when the connection opens, and reversed when UPI doesn't answer
+        connectGate.countDown();
+        Socket active = accepted.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(active);
+        keepAlive(active);
+        Assertions.assertEquals("000002", nextMessage(active).body.getObjectValue(11).toString());
+        Message reversal = reversals.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reversal);
+        Assertions.assertEquals("000002", reversal.body.getObjectValue(11).toString());
+
+        //a write that fails leaves the correlator at once
+        opened.poll(5, TimeUnit.SECONDS).shutdownOutput();
+        interceptor.intercept(null, new Object[]{request("000003")}, null);
+        Assertions.assertEquals(0, interceptor.getCorrelator().getPendingCount());
+        Assertions.assertNull(reversals.poll(500, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,128 @@
+package com.easy.iso8583.communicate;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class BusinessExecutorTest {
+
+    /* Occupies the thread of the executor until the returned latch is counted down */
+    private static CountDownLatch block(BusinessExecutor executor) throws InterruptedException {
+        CountDownLatch block = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assertions.assertTrue(running.await(5, TimeUnit.SECONDS));
+        return block;
+    }
+
+    @Test
+    void testBusinessExecutor() throws InterruptedException {
+        BusinessExecutor executor = new BusinessExecutor(1, 1, BusinessExecutor.RejectPolicy.ABORT);
+        try {
+            CountDownLatch block = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(2);
+            executor.execute(() -> {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+            executor.execute(done::countDown);
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(done::countDown));
+            Assertions.assertEquals(1, executor.getQueueSize());
+            Assertions.assertEquals(1, executor.getRejectedCount());
+            block.countDown();
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(3, executor.getSubmittedCount());
+            Assertions.assertTrue(executor.getMaxWaitMillis() > 0);
+        } finally {
+            executor.shutdown();
+        }
+        //the caller runs what doesn't fit
+        BusinessExecutor callerRuns = new BusinessExecutor(1, 1, BusinessExecutor.RejectPolicy.CALLER_RUNS,
+                true);
+        try {
+            CountDownLatch block = new CountDownLatch(1);
+            callerRuns.execute(() -> {
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            if (!callerRuns.isVirtual()) {
+                callerRuns.execute(() -> {
+                });
+            }
+            Thread[] ran = new Thread[1];
+            callerRuns.execute(() -> ran[0] = Thread.currentThread());
+            Assertions.assertSame(Thread.currentThread(), ran[0]);
+            block.countDown();
+        } finally {
+            callerRuns.shutdown();
+        }
+    }
+
+    @Test
+    void testNonBlocking() throws InterruptedException {
+        BusinessExecutor executor = new BusinessExecutor(1, 1, BusinessExecutor.RejectPolicy.CALLER_RUNS);
+        try {
+            CountDownLatch block = block(executor);
+            executor.execute(() -> {
+            });
+            //an event loop gets the rejection instead of running the task
+            Thread[] ran = new Thread[1];
+            Assertions.assertThrows(RejectedExecutionException.class,
+                    () -> executor.nonBlocking().execute(() -> ran[0] = Thread.currentThread()));
+            Assertions.assertNull(ran[0]);
+            executor.execute(() -> ran[0] = Thread.currentThread());
+            Assertions.assertSame(Thread.currentThread(), ran[0]);
+            Assertions.assertEquals(2, executor.getRejectedCount());
+            block.countDown();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testDiscardOldestKeepsLanes() throws InterruptedException {
+        BusinessExecutor executor = new BusinessExecutor(1, 1, BusinessExecutor.RejectPolicy.DISCARD_OLDEST);
+        try {
+            KeyedExecutor lanes = new KeyedExecutor(executor, 4, 10);
+            CountDownLatch block = block(executor);
+            AtomicInteger plain = new AtomicInteger();
+            executor.execute(plain::incrementAndGet);
+            //the lane takes the place of the plain task
+            CountDownLatch done = new CountDownLatch(3);
+            lanes.execute("000001", done::countDown);
+            Assertions.assertEquals(1, executor.getQueueSize());
+            //only the lane is waiting: the new task is rejected rather than the lane dropped
+            Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(plain::incrementAndGet));
+            lanes.execute("000001", done::countDown);
+            block.countDown();
+            for (int i = 0; i < 250 && done.getCount() > 1; i++) {
+                Thread.sleep(20);
+            }
+            //the lane was not left scheduled with nothing to run it
+            lanes.execute("000001", done::countDown);
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, plain.get());
+            Assertions.assertEquals(0, lanes.pending());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
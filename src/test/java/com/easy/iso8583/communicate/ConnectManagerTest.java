@@ -0,0 +1,124 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.communicate.netty.UpiServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ConnectManagerTest {
+
+    /* A server that never answers */
+    private static UpiServer silentServer(int port, ExecutorService executor) {
+        return new UpiServer(port, UpiTestMessages.factory(), msg -> {
+        }, executor);
+    }
+
+    private static void await(ConnectManager.Link link, boolean error) throws InterruptedException {
+        for (int i = 0; i < 250 && (error ? link.getErrorRate() == 0 : !link.isActive()); i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void testEchoTimeoutAndRecovery() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicInteger stan = new AtomicInteger();
+        ConnectManager manager = new ConnectManager(UpiTestMessages.factory(), m -> {
+        });
+        UpiServer server = silentServer(0, executor);
+        try {
+            int port = ((InetSocketAddress) server.start().sync().channel().localAddress()).getPort();
+            manager.setErrorHalfLifeMillis(0);
+            manager.setEchoTest(() -> UpiTestMessages.echo(stan.incrementAndGet()), 1);
+            ConnectManager.Link link = manager.addLink(new InetSocketAddress("127.0.0.1", port));
+            manager.start();
+            await(link, false);
+            Assertions.assertTrue(link.isActive());
+
+            //an unanswered echo test times out after the interval, and counts as an error
+            await(link, true);
+            Assertions.assertTrue(link.getErrorRate() > 0, link.toString());
+            //only the echo test of the current interval is waiting, the expired ones are gone
+            Assertions.assertTrue(link.getInFlight() <= 1, link.toString());
+            Assertions.assertTrue(link.getClient().getPendingCount() <= 1, link.toString());
+
+            //a new connection starts over
+            server.close();
+            server = silentServer(port, executor);
+            server.start().sync();
+            for (int i = 0; i < 250 && link.getErrorRate() > 0; i++) {
+                Thread.sleep(20);
+            }
+            await(link, false);
+            Assertions.assertTrue(link.isActive());
+            Assertions.assertEquals(0.0, link.getErrorRate());
+
+            //without requests the error rate fades away
+            await(link, true);
+            double rate = link.getErrorRate();
+            Assertions.assertTrue(rate > 0, link.toString());
+            manager.setErrorHalfLifeMillis(50);
+            Thread.sleep(300);
+            Assertions.assertTrue(link.getErrorRate() < rate / 8, link.toString());
+        } finally {
+            manager.close();
+            server.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testRequestsOverLinks() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<UpiServer> servers = new ArrayList<>();
+        ConnectManager manager = new ConnectManager(UpiTestMessages.factory(), m -> {
+        });
+        try {
+            for (int i = 0; i < 2; i++) {
+                UpiServer server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+                    msg.body.setType(msg.body.getType() + 0x10);
+                    msg.body.setValue(39, "00", IsoType.ALPHA, 2);
+                }, executor);
+                servers.add(server);
+                int port = ((InetSocketAddress) server.start().sync().channel().localAddress()).getPort();
+                manager.addLink(new InetSocketAddress("127.0.0.1", port));
+            }
+            Assertions.assertTrue(manager.request(UpiTestMessages.message("000007")).isCompletedExceptionally());
+            manager.start();
+            for (int i = 0; i < 50 && !manager.getLinks().stream().allMatch(ConnectManager.Link::isActive); i++) {
+                Thread.sleep(20);
+            }
+            List<CompletableFuture<Message>> futures = new ArrayList<>();
+            for (int i = 40; i < 60; i++) {
+                Message m = UpiTestMessages.message(String.format("%06d", i));
+                m.body.setType(0x820);
+                futures.add(manager.request(m));
+            }
+            for (int i = 40; i < 60; i++) {
+                Message r = futures.get(i - 40).get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals(String.format("%06d", i), r.body.getObjectValue(11).toString());
+            }
+            //the requests were spread over both links
+            for (ConnectManager.Link link : manager.getLinks()) {
+                Assertions.assertEquals(0, link.getInFlight());
+                Assertions.assertTrue(link.getRttMillis() > 0, link.toString());
+                Assertions.assertEquals(0.0, link.getErrorRate());
+            }
+        } finally {
+            manager.close();
+            for (UpiServer server : servers) {
+                server.close();
+            }
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class HandlerRegistryTest {
+
+    @Test
+    void testHandlerRegistry() throws InterruptedException {
+        List<String> calls = new ArrayList<>();
+        ExecutorService own = Executors.newSingleThreadExecutor();
+        CompletableFuture<Void> later = new CompletableFuture<>();
+        try {
+            HandlerRegistry registry = HandlerRegistry.builder()
+                    .sync(0x800, 101, m -> calls.add("key reset"), null)
+                    .sync(0x800, m -> calls.add("0800"))
+                    .async(0x820, 301, m -> later, null)
+                    .sync(0x200, HandlerRegistry.ANY_CODE,
+                            m -> calls.add(Thread.currentThread().getName().startsWith("pool") ? "pool" : "caller"), own)
+                    .before(0x100, HandlerRegistry.ANY_CODE, m -> calls.add("before"))
+                    .build();
+            HandlerRegistry.Handler fallback = m -> calls.add("default " + Integer.toHexString(m.body.getType()));
+
+            Message m = UpiTestMessages.message("000001");
+            Assertions.assertTrue(registry.dispatch(m, fallback).toCompletableFuture().isDone());
+            m.body.setValue(70, "001", IsoType.NUMERIC, 3);
+            registry.dispatch(m, fallback);
+            m.body.removeFields(70);
+            registry.dispatch(m, fallback);
+            m.body.setType(0x820);
+            m.body.setValue(70, "301", IsoType.NUMERIC, 3);
+            CompletableFuture<Void> echo = registry.dispatch(m, fallback).toCompletableFuture();
+            Assertions.assertFalse(echo.isDone());
+            later.complete(null);
+            Assertions.assertTrue(echo.isDone());
+            m.body.setValue(70, "201", IsoType.NUMERIC, 3);
+            registry.dispatch(m, fallback);
+            m.body.setType(0x200);
+            registry.dispatch(m, fallback).toCompletableFuture().join();
+            m.body.setType(0x100);
+            registry.dispatch(m, fallback);
+            Assertions.assertEquals(Arrays.asList("key reset", "0800", "0800", "default 820", "pool",
+                    "before", "default 100"), calls);
+
+            //a failing handler fails the stage instead of throwing
+            HandlerRegistry failing = HandlerRegistry.builder().sync(0x100, msg -> {
+                throw new IllegalStateException("boom");
+            }).build();
+            Assertions.assertTrue(failing.dispatch(m, fallback).toCompletableFuture().isCompletedExceptionally());
+            Assertions.assertTrue(registry.hasRoute(0x800, 101));
+            Assertions.assertFalse(registry.hasRoute(0x1800, HandlerRegistry.ANY_CODE));
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> HandlerRegistry.builder().sync(0x800, 1000, fallback, null));
+        } finally {
+            own.shutdown();
+        }
+    }
+
+}
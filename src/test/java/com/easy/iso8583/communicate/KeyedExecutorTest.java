@@ -0,0 +1,122 @@
+package com.easy.iso8583.communicate;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class KeyedExecutorTest {
+
+    @Test
+    void testKeyedExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            KeyedExecutor lanes = new KeyedExecutor(executor, 3, KeyedExecutor.DEFAULT_CAPACITY);
+            ConcurrentMap<String, List<Integer>> seen = new ConcurrentHashMap<>();
+            CountDownLatch done = new CountDownLatch(1000);
+            for (int i = 0; i < 1000; i++) {
+                final String key = String.format("%06d", i % 10);
+                final int seq = i;
+                lanes.execute(key, () -> {
+                    //unsynchronized on purpose: tasks of a key never run at the same time
+                    seen.computeIfAbsent(key, k -> new ArrayList<>()).add(seq);
+                    done.countDown();
+                });
+            }
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(10, seen.size());
+            for (List<Integer> list : seen.values()) {
+                Assertions.assertEquals(100, list.size());
+                for (int i = 1; i < list.size(); i++) {
+                    Assertions.assertTrue(list.get(i - 1) < list.get(i));
+                }
+            }
+            Assertions.assertEquals(0, lanes.pending());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testCapacity() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            KeyedExecutor lanes = new KeyedExecutor(executor, 2, 3);
+            CountDownLatch block = new CountDownLatch(1);
+            CountDownLatch running = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(4);
+            lanes.execute("000001", () -> {
+                running.countDown();
+                try {
+                    block.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+            Assertions.assertTrue(running.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                lanes.execute("000001", done::countDown);
+            }
+            Assertions.assertEquals(3, lanes.pending());
+            //the lanes are full even though the executor has an idle thread
+            Assertions.assertThrows(RejectedExecutionException.class, () -> lanes.execute("000002", done::countDown));
+            Assertions.assertEquals(3, lanes.pending());
+            block.countDown();
+            Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(0, lanes.pending());
+            lanes.execute("000002", () -> {
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testLaneNeverRunsInsideItself() throws InterruptedException {
+        //runs every task on the caller, as a caller-runs policy does when the pool is full
+        KeyedExecutor lanes = new KeyedExecutor(Runnable::run, 1, KeyedExecutor.DEFAULT_CAPACITY);
+        List<Integer> depths = new ArrayList<>();
+        lanes.execute("000001", () -> {
+            for (int i = 0; i < 500; i++) {
+                lanes.execute("000001", () -> depths.add(Thread.currentThread().getStackTrace().length));
+            }
+        });
+        Assertions.assertEquals(500, depths.size());
+        Assertions.assertEquals(depths.get(0), depths.get(depths.size() - 1));
+        Assertions.assertEquals(0, lanes.pending());
+
+        //an executor that takes the lane once and then refuses it: the thread keeps running the lane
+        AtomicInteger submitted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(500);
+        KeyedExecutor refused = new KeyedExecutor(task -> {
+            if (submitted.incrementAndGet() > 1) {
+                throw new RejectedExecutionException("Full");
+            }
+            new Thread(task).start();
+        }, 1, KeyedExecutor.DEFAULT_CAPACITY);
+        CountDownLatch block = new CountDownLatch(1);
+        refused.execute("000001", () -> {
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 500; i++) {
+            refused.execute("000001", done::countDown);
+        }
+        block.countDown();
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, refused.pending());
+    }
+}
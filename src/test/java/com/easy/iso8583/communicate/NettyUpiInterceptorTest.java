@@ -0,0 +1,49 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.communicate.netty.UpiServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class NettyUpiInterceptorTest {
+
+    @Test
+    void testConfiguredAddress() throws Throwable {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        UpiServer server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+            msg.body.setType(msg.body.getType() + 0x10);
+            msg.body.setValue(39, "00", IsoType.ALPHA, 2);
+        }, executor);
+        NettyUpiInterceptor interceptor = new NettyUpiInterceptor();
+        try {
+            int port = ((InetSocketAddress) server.start().sync().channel().localAddress()).getPort();
+            System.setProperty("upi.host", "127.0.0.1");
+            System.setProperty("upi.port", Integer.toString(port));
+            Assertions.assertEquals(InetSocketAddress.createUnresolved("127.0.0.1", port),
+                    NettyUpiInterceptor.configuredAddress());
+            //no connection is configured for the interceptor here, so it can only use the address
+            interceptor.setAddress(NettyUpiInterceptor.configuredAddress());
+            //the first call opens the connection; a heartbeat needs no response
+            interceptor.intercept(null, new Object[]{null}, null);
+            for (int i = 0; i < 50 && !interceptor.isConnected(); i++) {
+                Thread.sleep(20);
+            }
+            Assertions.assertTrue(interceptor.isConnected());
+            Message request = UpiTestMessages.echo(1);
+            Message response = (Message) interceptor.intercept(null, new Object[]{request, Boolean.TRUE}, null);
+            Assertions.assertEquals(0x830, response.body.getType());
+            Assertions.assertEquals("00", response.body.getObjectValue(39));
+        } finally {
+            System.clearProperty("upi.host");
+            System.clearProperty("upi.port");
+            interceptor.close();
+            server.close();
+            executor.shutdown();
+        }
+        Assertions.assertNull(NettyUpiInterceptor.configuredAddress());
+    }
+}
@@ -0,0 +1,169 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.communicate.netty.UpiClient;
+import com.easy.iso8583.communicate.netty.UpiServer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class RequestCorrelatorTest {
+
+    @Test
+    void testCorrelatorTimeout() throws InterruptedException {
+        RequestCorrelator correlator = new RequestCorrelator();
+        BlockingQueue<Message> reversals = new LinkedBlockingQueue<>();
+        correlator.setReversalHandler(UpiTestMessages.factory(), reversals::add);
+        Message request = UpiTestMessages.message("000009");
+        request.body.setType(0x200);
+        request.body.setValue(32, "00010344", IsoType.LLVAR, 0);
+        request.body.setValue(37, "123456789012", IsoType.ALPHA, 12);
+        CompletableFuture<Message> future = correlator.register(request, 50);
+        //answered in time: no timeout, no reversal
+        CompletableFuture<Message> answered = correlator.register(UpiTestMessages.message("000010"), 50);
+        Message response = UpiTestMessages.message("000010");
+        response.body.setType(0x810);
+        Assertions.assertTrue(correlator.complete(response));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> future.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+        Message reversal = reversals.poll(5, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reversal);
+        Assertions.assertEquals(0x420, reversal.body.getType());
+        Assertions.assertEquals("000009", reversal.body.getObjectValue(11).toString());
+        Assertions.assertEquals("123456789012", reversal.body.getObjectValue(37));
+        //type, STAN, transmission date (not set here), acquirer and forwarding institution
+        Assertions.assertEquals("0200" + "000009" + "0000000000" + "00000010344" + "00000010344",
+                reversal.body.getObjectValue(90));
+        Assertions.assertSame(response, answered.join());
+        Assertions.assertTrue(reversals.isEmpty());
+        Assertions.assertEquals(0, correlator.getPendingCount());
+    }
+
+    @Test
+    void testCorrelator() {
+        RequestCorrelator correlator = new RequestCorrelator();
+        Message request = UpiTestMessages.message("000005");
+        request.body.setValue(37, "123456789012", IsoType.ALPHA, 12);
+        CompletableFuture<Message> future = correlator.register(request);
+        Assertions.assertTrue(correlator.register(UpiTestMessages.message("000005")).isCompletedExceptionally());
+        Message response = UpiTestMessages.message("000005");
+        response.body.setType(0x810);
+        response.body.setValue(37, "999999999999", IsoType.ALPHA, 12);
+        Assertions.assertFalse(correlator.complete(response));
+        response.body.setValue(37, "123456789012", IsoType.ALPHA, 12);
+        Assertions.assertFalse(correlator.complete(UpiTestMessages.message("000005")));
+        Assertions.assertTrue(correlator.complete(response));
+        Assertions.assertSame(response, future.join());
+        Assertions.assertEquals(0, correlator.getPendingCount());
+        correlator.register(UpiTestMessages.message("000006")).cancel(false);
+        Assertions.assertEquals(0, correlator.getPendingCount());
+    }
+
+    @Test
+    void testReversible() {
+        Message m = UpiTestMessages.message("000011");
+        Assertions.assertFalse(RequestCorrelator.isReversible(m));
+        m.body.setType(0x100);
+        Assertions.assertTrue(RequestCorrelator.isReversible(m));
+        m.body.setType(0x200);
+        Assertions.assertTrue(RequestCorrelator.isReversible(m));
+        m.body.setType(0x420);
+        Assertions.assertFalse(RequestCorrelator.isReversible(m));
+        Assertions.assertFalse(RequestCorrelator.isReversible(Message.NullMessage));
+        Assertions.assertFalse(RequestCorrelator.isReversible(null));
+    }
+
+    @Test
+    void testClientRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        UpiServer server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+            msg.body.setType(msg.body.getType() + 0x10);
+            msg.body.setValue(39, "00", IsoType.ALPHA, 2);
+        }, executor);
+        BlockingQueue<Message> responses = new LinkedBlockingQueue<>();
+        UpiClient client = null;
+        try {
+            SocketAddress address = server.start().sync().channel().localAddress();
+            client = new UpiClient(new InetSocketAddress("127.0.0.1", ((InetSocketAddress) address).getPort()),
+                    UpiTestMessages.factory(), responses::add);
+            client.start();
+            for (int i = 0; i < 50 && !client.isActive(); i++) {
+                Thread.sleep(20);
+            }
+            //several requests outstanding at once, each matched to its own response
+            List<CompletableFuture<Message>> futures = new ArrayList<>();
+            for (int i = 10; i < 30; i++) {
+                Message m = UpiTestMessages.message(String.format("%06d", i));
+                m.body.setType(0x820);
+                futures.add(client.request(m));
+            }
+            for (int i = 10; i < 30; i++) {
+                Message r = futures.get(i - 10).get(5, TimeUnit.SECONDS);
+                Assertions.assertEquals(String.format("%06d", i), r.body.getObjectValue(11).toString());
+            }
+            Assertions.assertEquals(0, client.getPendingCount());
+            Assertions.assertTrue(responses.isEmpty());
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            server.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testSendRegistersRequests() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        //answers nothing
+        UpiServer server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+        }, executor);
+        BlockingQueue<Message> reversals = new LinkedBlockingQueue<>();
+        UpiClient client = null;
+        try {
+            SocketAddress address = server.start().sync().channel().localAddress();
+            client = new UpiClient(new InetSocketAddress("127.0.0.1", ((InetSocketAddress) address).getPort()),
+                    UpiTestMessages.factory(), m -> {
+                    });
+            client.getCorrelator().setTimeoutMillis(100);
+            client.getCorrelator().setReversalHandler(UpiTestMessages.factory(), reversals::add);
+            client.start();
+            for (int i = 0; i < 50 && !client.isActive(); i++) {
+                Thread.sleep(20);
+            }
+            //an 0200 sent without waiting for its response is still reversed when none comes
+            Message request = UpiTestMessages.message("000012");
+            request.body.setType(0x200);
+            client.send(request).sync();
+            Message reversal = reversals.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(reversal);
+            Assertions.assertEquals(0x420, reversal.body.getType());
+            Assertions.assertEquals("000012", reversal.body.getObjectValue(11).toString());
+            Assertions.assertEquals(0, client.getPendingCount());
+            //other messages are not
+            Message echo = UpiTestMessages.message("000013");
+            echo.body.setType(0x820);
+            client.send(echo).sync();
+            Assertions.assertEquals(0, client.getPendingCount());
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            server.close();
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+class TestServerTest {
+
+    @Test
+    void testMacAroundEveryRoute() {
+        final HandlerRegistry saved = TestServer.getHandlerRegistry();
+        final CompletableFuture<Void> later = new CompletableFuture<>();
+        TestServer.setHandlerRegistry(TestServer.defaultRoutes().async(0x820, 301, m -> later, null).build());
+        TestServer.setMacKey(() -> new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        TestServer.setCheckUpiMac(true);
+        try {
+            //an asynchronous route: the MAC goes on the response once the route has completed
+            Message echo = UpiTestMessages.message(0x820, "000001", "301");
+            CompletableFuture<Void> done = TestServer.innerHandlerAsync(
+                    m -> Assertions.fail("the route handles it"), echo).toCompletableFuture();
+            Assertions.assertFalse(done.isDone());
+            Assertions.assertFalse(echo.body.hasField(128));
+            echo.body.setType(0x830);
+            echo.body.setValue(39, "00", IsoType.ALPHA, 2);
+            later.complete(null);
+            Assertions.assertTrue(done.isDone());
+            Assertions.assertTrue(echo.body.hasField(128));
+            Assertions.assertEquals("00", echo.body.getObjectValue(39));
+            //no route of its own: the business handler runs, then the MAC goes on
+            Message request = UpiTestMessages.message(0x200, "000002", "101");
+            List<Message> handled = new ArrayList<>();
+            Assertions.assertTrue(TestServer.innerHandlerAsync(handled::add, request).toCompletableFuture().isDone());
+            Assertions.assertEquals(1, handled.size());
+            Assertions.assertTrue(request.body.hasField(128));
+        } finally {
+            TestServer.setCheckUpiMac(false);
+            TestServer.setHandlerRegistry(saved);
+        }
+        //with the check off no MAC is added
+        Message request = UpiTestMessages.message(0x200, "000003", "101");
+        TestServer.innerHandlerAsync(m -> {
+        }, request);
+        Assertions.assertFalse(request.body.hasField(128));
+    }
+}
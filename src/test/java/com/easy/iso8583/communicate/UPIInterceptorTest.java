@@ -0,0 +1,144 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.communicate.netty.UpiServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class UPIInterceptorTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    //the callers wait for responses, so they don't take the threads the server answers on
+    private final ExecutorService callers = Executors.newFixedThreadPool(8);
+    private final AtomicInteger ownConnections = new AtomicInteger();
+    private UpiServer server;
+    private UPIInterceptor interceptor;
+
+    @AfterEach
+    void stop() {
+        interceptor.close();
+        server.close();
+        executor.shutdown();
+        callers.shutdown();
+    }
+
+    /* Starts the server and an interceptor whose own connections go to it */
+    private void start(boolean answer) throws InterruptedException {
+        server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+            if (answer) {
+                msg.body.setType(msg.body.getType() + 0x10);
+                msg.body.setValue(39, "00", IsoType.ALPHA, 2);
+            }
+        }, executor);
+        final int port = ((InetSocketAddress) server.start().sync().channel().localAddress()).getPort();
+        interceptor = new UPIInterceptor() {
+            @Override
+            Object callOnce(Message message, boolean reply) throws Exception {
+                ownConnections.incrementAndGet();
+                try (Socket socket = new Socket("127.0.0.1", port)) {
+                    return exchange(socket, message, reply);
+                }
+            }
+        };
+        interceptor.setAddress(new InetSocketAddress("127.0.0.1", port));
+        interceptor.setPoolSize(2);
+    }
+
+    private void awaitPool() throws InterruptedException {
+        for (int i = 0; i < 250 && (interceptor.getPool() == null
+                || !interceptor.getPool().getLinks().stream().allMatch(ConnectManager.Link::isActive)); i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertNotNull(interceptor.getPool());
+        for (ConnectManager.Link link : interceptor.getPool().getLinks()) {
+            Assertions.assertTrue(link.isActive());
+        }
+    }
+
+    private Message call(Message request) throws Exception {
+        try {
+            return (Message) interceptor.intercept(null, new Object[]{request, Boolean.TRUE}, null);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void testConnectionPerCall() throws Exception {
+        start(true);
+        for (int i = 1; i <= 3; i++) {
+            Message response = call(UpiTestMessages.echo(i));
+            Assertions.assertEquals(0x830, response.body.getType());
+            Assertions.assertEquals(String.format("%06d", i), response.body.getObjectValue(11).toString());
+        }
+        Assertions.assertEquals(3, ownConnections.get());
+        Assertions.assertNull(interceptor.getPool());
+    }
+
+    @Test
+    void testPooledAndMultiplexed() throws Exception {
+        start(true);
+        interceptor.setMultiplexed(true);
+        //the first call opens the pool, and has a connection of its own until the pool is open
+        Assertions.assertEquals(0x830, call(UpiTestMessages.echo(1)).body.getType());
+        Assertions.assertEquals(1, ownConnections.get());
+        awaitPool();
+        //the connection of the first call is closed
+        for (int i = 0; i < 250 && server.getConnectionCount() > 2; i++) {
+            Thread.sleep(20);
+        }
+        Assertions.assertEquals(2, server.getConnectionCount());
+        //calls from many threads at once share the pooled connections, each gets its own response
+        List<Future<Message>> responses = new ArrayList<>();
+        for (int i = 10; i < 50; i++) {
+            final int stan = i;
+            responses.add(callers.submit(() -> call(UpiTestMessages.echo(stan))));
+        }
+        for (int i = 10; i < 50; i++) {
+            Message response = responses.get(i - 10).get(5, TimeUnit.SECONDS);
+            Assertions.assertEquals(String.format("%06d", i), response.body.getObjectValue(11).toString());
+        }
+        Assertions.assertEquals(1, ownConnections.get());
+        Assertions.assertEquals(2, server.getConnectionCount());
+        for (ConnectManager.Link link : interceptor.getPool().getLinks()) {
+            Assertions.assertEquals(0, link.getInFlight());
+        }
+        //with the pool turned off, calls fall back to connections of their own
+        interceptor.setMultiplexed(false);
+        Assertions.assertNull(interceptor.getPool());
+        Assertions.assertEquals(0x830, call(UpiTestMessages.echo(2)).body.getType());
+        Assertions.assertEquals(2, ownConnections.get());
+    }
+
+    @Test
+    void testPooledTimeout() throws Throwable {
+        start(false);
+        interceptor.setMultiplexed(true);
+        interceptor.setResponseTimeoutMillis(200);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> interceptor.setResponseTimeoutMillis(0));
+        //no response is waited for, so the server that never answers is no problem
+        Assertions.assertNull(interceptor.intercept(null, new Object[]{UpiTestMessages.echo(1)}, null));
+        awaitPool();
+        long start = System.nanoTime();
+        Assertions.assertThrows(TimeoutException.class, () -> call(UpiTestMessages.echo(2)));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        for (ConnectManager.Link link : interceptor.getPool().getLinks()) {
+            Assertions.assertEquals(0, link.getClient().getPendingCount());
+            Assertions.assertEquals(0, link.getInFlight());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.parse.ConfigParser;
+import com.gd.magic.util.StringUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.Arrays;
+
+class UpiFrameReaderTest {
+
+    static final String MSG_0200 = "2E82303334313434313930343430202020303030313033343420202000000001313030303030303000303030303030323030E23E64C1A8E09810000000001000008031363632313039343730303030303030323133303030303030353138313330383537313036383739313330383537303531383330313030393032363031313135363032313032303630383030303030303030303830303030303030303036313131313131303030303030303035323733303030313030303130303135383430353331313030303154657374696E67206D65726368616E742032202020202020205368656E5A68656E2020202043484E3434363C77B8E654636C383236303030303030303030303030303030323730303030303230303031303030303030303030303030323131303230383434313930343430303330353131202020202020202020202020202020202020202020202020202020";
+
+    static MessageFactory<IsoMessage> factory;
+
+    @BeforeAll
+    static void init() throws IOException {
+        factory = ConfigParser.createFromClasspathConfig("conf/j8583.xml");
+        factory.setBinaryFields(false);
+        factory.setForceStringEncoding(true);
+        factory.setVariableLengthFieldsInHex(false);
+    }
+
+    @Test
+    void testUpiFrameReader() throws IOException, ParseException {
+        byte[] frame = UpiFrame.encode(new Message(new MsgHead(StringUtil.hexStrToBytes(MSG_0200)),
+                factory.parseMessage(StringUtil.hexStrToBytes(MSG_0200), 0x2e)));
+        byte[] body = Arrays.copyOfRange(frame, 4, frame.length);
+        byte[] stream = new byte[frame.length * 2 + 4];
+        System.arraycopy(frame, 0, stream, 0, frame.length);
+        System.arraycopy("0000".getBytes(), 0, stream, frame.length, 4);
+        System.arraycopy(frame, 0, stream, frame.length + 4, frame.length);
+        //everything at once, into a buffer that has to grow
+        UpiFrameReader reader = new UpiFrameReader(new ByteArrayInputStream(stream), 16);
+        Assertions.assertArrayEquals(body, reader.next());
+        Assertions.assertEquals(0, reader.next().length);
+        Assertions.assertArrayEquals(body, reader.next());
+        Assertions.assertNull(reader.next());
+        //three bytes per read
+        InputStream trickle = new ByteArrayInputStream(stream) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        };
+        reader = new UpiFrameReader(trickle);
+        Assertions.assertArrayEquals(body, reader.next());
+        Assertions.assertEquals(0, reader.next().length);
+        Assertions.assertArrayEquals(body, reader.next());
+        Assertions.assertNull(reader.next());
+        trickle.reset();
+        Assertions.assertArrayEquals(body, UpiFrameReader.readFrame(trickle));
+        Assertions.assertEquals(stream.length - frame.length, trickle.available());
+        Assertions.assertThrows(EOFException.class, () -> new UpiFrameReader(
+                new ByteArrayInputStream(Arrays.copyOf(frame, frame.length - 1))).next());
+        Assertions.assertThrows(IOException.class, () -> new UpiFrameReader(
+                new ByteArrayInputStream("12x4".getBytes())).next());
+    }
+}
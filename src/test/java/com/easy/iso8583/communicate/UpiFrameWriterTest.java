@@ -0,0 +1,79 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.parse.ConfigParser;
+import com.gd.magic.util.StringUtil;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class UpiFrameWriterTest {
+
+    static final String MSG_0200 = "2E82303334313434313930343430202020303030313033343420202000000001313030303030303000303030303030323030E23E64C1A8E09810000000001000008031363632313039343730303030303030323133303030303030353138313330383537313036383739313330383537303531383330313030393032363031313135363032313032303630383030303030303030303830303030303030303036313131313131303030303030303035323733303030313030303130303135383430353331313030303154657374696E67206D65726368616E742032202020202020205368656E5A68656E2020202043484E3434363C77B8E654636C383236303030303030303030303030303030323730303030303230303031303030303030303030303030323131303230383434313930343430303330353131202020202020202020202020202020202020202020202020202020";
+
+    static MessageFactory<IsoMessage> factory;
+
+    @BeforeAll
+    static void init() throws IOException {
+        factory = ConfigParser.createFromClasspathConfig("conf/j8583.xml");
+        factory.setBinaryFields(false);
+        factory.setForceStringEncoding(true);
+        factory.setVariableLengthFieldsInHex(false);
+    }
+
+    @Test
+    void testUpiFrameWriter() throws Exception {
+        Message message = new Message(new MsgHead(StringUtil.hexStrToBytes(MSG_0200)),
+                factory.parseMessage(StringUtil.hexStrToBytes(MSG_0200), 0x2e));
+        byte[] frame = UpiFrame.encode(message);
+        AtomicInteger writes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes.incrementAndGet();
+                super.write(b, off, len);
+            }
+        };
+        UpiFrameWriter writer = new UpiFrameWriter(out);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        writer.write(i % 10 == 0 ? Message.NullMessage : message);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assertions.assertEquals(0, writer.pending());
+        Assertions.assertTrue(writes.get() <= 800);
+        //every frame arrives whole, none interleaved with another
+        UpiFrameReader reader = new UpiFrameReader(new ByteArrayInputStream(out.toByteArray()));
+        int frames = 0;
+        int heartbeats = 0;
+        for (byte[] f = reader.next(); f != null; f = reader.next()) {
+            if (f.length == 0) {
+                heartbeats++;
+            } else {
+                Assertions.assertArrayEquals(Arrays.copyOfRange(frame, 4, frame.length), f);
+                frames++;
+            }
+        }
+        Assertions.assertEquals(720, frames);
+        Assertions.assertEquals(80, heartbeats);
+    }
+}
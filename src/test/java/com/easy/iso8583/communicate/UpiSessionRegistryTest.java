@@ -0,0 +1,61 @@
+package com.easy.iso8583.communicate;
+
+import org.apache.mina.core.session.DummySession;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.HashSet;
+
+class UpiSessionRegistryTest {
+
+    /* The destination ID in the encoded frame */
+    private static String destination(byte[] frame) {
+        return new String(frame, UpiFrame.LENGTH_DIGITS + 6, 11, StandardCharsets.US_ASCII).trim();
+    }
+
+    @Test
+    void testSessionRegistry() throws IOException, ParseException {
+        UpiSessionRegistry registry = new UpiSessionRegistry();
+        Assertions.assertNull(registry.lookup("00010344"));
+        DummySession a = new DummySession();
+        DummySession b = new DummySession();
+        Message answer = UpiTestMessages.message("000002");
+        answer.body.setType(0x830);
+        ByteArrayOutputStream outA = new ByteArrayOutputStream();
+        ByteArrayOutputStream outB = new ByteArrayOutputStream();
+        UpiSessionRegistry.UpiSession sa = registry.session(a,
+                new ByteArrayInputStream(UpiFrame.encode(answer)), outA);
+        registry.register(sa, UpiTestMessages.head("00010000", "00010344"));
+        UpiSessionRegistry.UpiSession sb = registry.session(b, new ByteArrayInputStream(new byte[0]), outB);
+        registry.register(sb, UpiTestMessages.head("00010000", "00010345"));
+        Assertions.assertSame(sa, registry.session(a, null, null));
+        Assertions.assertEquals(2, registry.getInstitutions().size());
+
+        //messages carry the head they answer: the source ID goes to the destination of the frame
+        Message toB = new Message(UpiTestMessages.head("00010000", "00010345"), UpiTestMessages.message("000001").body);
+        Assertions.assertSame(sb, registry.route(toB));
+        registry.route(toB).send(toB);
+        Assertions.assertArrayEquals(UpiFrame.encode(toB), outB.toByteArray());
+        Assertions.assertEquals("00010345", destination(outB.toByteArray()));
+        Assertions.assertEquals(0, outA.size());
+
+        Message toA = new Message(UpiTestMessages.head("00010000", "00010344"), UpiTestMessages.message("000002").body);
+        Message reply = registry.route(toA).request(toA, UpiTestMessages.factory());
+        Assertions.assertEquals(0x830, reply.body.getType());
+        Assertions.assertArrayEquals(UpiFrame.encode(toA), outA.toByteArray());
+        Assertions.assertEquals("00010344", destination(outA.toByteArray()));
+
+        //unknown institutions go to the session that received last, a, since session(a) was called last
+        Assertions.assertSame(sa, registry.lookup("00019999"));
+        a.close(true);
+        Assertions.assertSame(sb, registry.route(toB));
+        Assertions.assertNull(registry.lookup("00010344"));
+        Assertions.assertEquals(Collections.singleton("00010345"), new HashSet<>(registry.getInstitutions()));
+    }
+}
@@ -0,0 +1,86 @@
+package com.easy.iso8583.communicate;
+
+import com.easy.iso8583.IsoMessage;
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.MessageFactory;
+import com.easy.iso8583.MsgHead;
+import com.easy.iso8583.ProtocolFactory;
+import com.gd.magic.util.StringUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The factory and the messages of the UPI tests.
+ */
+public final class UpiTestMessages {
+
+    /**
+     * A message head from institution 00010344.
+     */
+    public static final String HEAD = "2e823030393534343139303434302020203030303130333434202020000000013130303030303030003030303030";
+
+    private static final MessageFactory<IsoMessage> FACTORY;
+
+    static {
+        try {
+            FACTORY = ProtocolFactory.createUPIFactory("conf/j8583.xml");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private UpiTestMessages() {
+    }
+
+    /**
+     * Returns the UPI factory, the one the interceptors parse with.
+     */
+    public static MessageFactory<IsoMessage> factory() {
+        return FACTORY;
+    }
+
+    /**
+     * Returns a new {@link #HEAD}.
+     */
+    public static MsgHead head() {
+        return new MsgHead(StringUtil.hexStrToBytes(HEAD));
+    }
+
+    /**
+     * Returns a head with the destination and source IDs.
+     */
+    public static MsgHead head(String destination, String source) {
+        byte[] head = StringUtil.hexStrToBytes(HEAD);
+        System.arraycopy(String.format("%-11s", destination).getBytes(StandardCharsets.US_ASCII), 0, head, 6, 11);
+        System.arraycopy(String.format("%-11s", source).getBytes(StandardCharsets.US_ASCII), 0, head, 17, 11);
+        return new MsgHead(head);
+    }
+
+    /**
+     * Returns a message of the type with the STAN, forwarding institution 00010344 and the network
+     * management code.
+     */
+    public static Message message(int type, String stan, String code) {
+        IsoMessage body = FACTORY.newMessage(type);
+        body.setValue(11, stan, IsoType.NUMERIC, 6);
+        body.setValue(33, "00010344", IsoType.LLVAR, 0);
+        body.setValue(70, code, IsoType.NUMERIC, 3);
+        return new Message(head(), body);
+    }
+
+    /**
+     * Returns an 0800 with the STAN and code 101, a key exchange.
+     */
+    public static Message message(String stan) {
+        return message(0x800, stan, "101");
+    }
+
+    /**
+     * Returns an 0820 echo test with the STAN.
+     */
+    public static Message echo(int stan) {
+        return message(0x820, String.format("%06d", stan), "301");
+    }
+}
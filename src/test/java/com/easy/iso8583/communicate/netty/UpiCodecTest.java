@@ -0,0 +1,110 @@
+package com.easy.iso8583.communicate.netty;
+
+import com.easy.iso8583.IsoType;
+import com.easy.iso8583.communicate.Message;
+import com.easy.iso8583.communicate.UpiFrame;
+import com.easy.iso8583.communicate.UpiTestMessages;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.timeout.IdleStateEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+class UpiCodecTest {
+
+    @Test
+    void testDecode() throws IOException {
+        EmbeddedChannel ch = new EmbeddedChannel(new UpiFrameDecoder(), new UpiMessageCodec(UpiTestMessages.factory()),
+                new UpiHeartbeatHandler());
+        byte[] first = UpiFrame.encode(UpiTestMessages.message("000001"));
+        byte[] second = UpiFrame.encode(UpiTestMessages.message("000002"));
+        ByteBuf in = Unpooled.buffer();
+        in.writeBytes(first).writeBytes("0000".getBytes()).writeBytes(second);
+        //the first frame and the heartbeat, with the second frame cut in two
+        ch.writeInbound(in.readRetainedSlice(first.length + 4 + 10));
+        Message m = ch.readInbound();
+        Assertions.assertEquals("000001", m.body.getObjectValue(11).toString());
+        Assertions.assertEquals("00010344", m.head.getDestinationId());
+        Assertions.assertNull(ch.readInbound());
+        ch.writeInbound(in);
+        m = ch.readInbound();
+        Assertions.assertEquals("000002", m.body.getObjectValue(11).toString());
+        Assertions.assertEquals("101", m.body.getObjectValue(70).toString());
+        Assertions.assertNull(ch.readInbound());
+        Assertions.assertThrows(DecoderException.class,
+                () -> ch.writeInbound(Unpooled.wrappedBuffer("00x1".getBytes())));
+    }
+
+    @Test
+    void testEncode() throws IOException {
+        EmbeddedChannel ch = new EmbeddedChannel(new UpiMessageCodec(UpiTestMessages.factory()));
+        Message m = UpiTestMessages.message("000003");
+        ch.writeOutbound(m, Message.NullMessage);
+        ByteBuf frame = ch.readOutbound();
+        Assertions.assertArrayEquals(UpiFrame.encode(m), ByteBufUtil.getBytes(frame));
+        frame.release();
+        ByteBuf heartbeat = ch.readOutbound();
+        Assertions.assertEquals("0000", heartbeat.toString(StandardCharsets.US_ASCII));
+        heartbeat.release();
+    }
+
+    @Test
+    void testHeartbeat() {
+        EmbeddedChannel ch = new EmbeddedChannel(new UpiMessageCodec(UpiTestMessages.factory()), new UpiHeartbeatHandler());
+        ch.pipeline().fireUserEventTriggered(IdleStateEvent.WRITER_IDLE_STATE_EVENT);
+        ByteBuf heartbeat = ch.readOutbound();
+        Assertions.assertEquals("0000", heartbeat.toString(StandardCharsets.US_ASCII));
+        heartbeat.release();
+        Assertions.assertTrue(ch.isOpen());
+        //nothing read for too long: the peer is gone
+        ch.pipeline().fireUserEventTriggered(IdleStateEvent.READER_IDLE_STATE_EVENT);
+        Assertions.assertFalse(ch.isOpen());
+    }
+
+    @Test
+    void testClientServer() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        UpiServer server = new UpiServer(0, UpiTestMessages.factory(), msg -> {
+            msg.body.setType(msg.body.getType() + 0x10);
+            msg.body.setValue(39, "00", IsoType.ALPHA, 2);
+        }, executor);
+        BlockingQueue<Message> responses = new LinkedBlockingQueue<>();
+        UpiClient client = null;
+        try {
+            SocketAddress address = server.start().sync().channel().localAddress();
+            client = new UpiClient(new InetSocketAddress("127.0.0.1", ((InetSocketAddress) address).getPort()),
+                    UpiTestMessages.factory(), responses::add);
+            client.start();
+            for (int i = 0; i < 50 && !client.isActive(); i++) {
+                Thread.sleep(20);
+            }
+            Message request = UpiTestMessages.message("000004");
+            request.body.setType(0x820);
+            client.send(request).sync();
+            Message response = responses.poll(5, TimeUnit.SECONDS);
+            Assertions.assertNotNull(response);
+            Assertions.assertEquals("000004", response.body.getObjectValue(11).toString());
+            Assertions.assertEquals("00", response.body.getObjectValue(39));
+            Assertions.assertEquals(1, server.getConnectionCount());
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            server.close();
+            executor.shutdown();
+        }
+    }
+}
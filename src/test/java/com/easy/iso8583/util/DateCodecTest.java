@@ -0,0 +1,65 @@
+package com.easy.iso8583.util;
+
+import com.easy.iso8583.IsoType;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.TimeZone;
+
+class DateCodecTest {
+
+    @Test
+    void testCivilDays() {
+        for (LocalDate d = LocalDate.of(1899, 12, 1); d.getYear() < 2101; d = d.plusDays(1)) {
+            Assertions.assertEquals(d.toEpochDay(), DateCodec.daysFromCivil(d.getYear(), d.getMonthValue(), d.getDayOfMonth()));
+            Assertions.assertEquals(d.getYear() * 10000 + d.getMonthValue() * 100 + d.getDayOfMonth(),
+                    DateCodec.civilFromDays(d.toEpochDay()));
+        }
+        //lenient like Calendar
+        Assertions.assertEquals(LocalDate.of(2021, 3, 1).toEpochDay(), DateCodec.daysFromCivil(2021, 2, 29));
+        Assertions.assertEquals(LocalDate.of(2022, 1, 5).toEpochDay(), DateCodec.daysFromCivil(2021, 13, 5));
+    }
+
+    @Test
+    void testEpochMillis() {
+        for (String id : new String[]{"Asia/Shanghai", "America/New_York", "UTC"}) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            LocalDateTime t = LocalDateTime.of(2021, 3, 14, 12, 30, 15);
+            Assertions.assertEquals(t.atZone(ZoneId.of(id)).toInstant().toEpochMilli(),
+                    ZoneClock.of(tz).toEpochMillis(2021, 3, 14, 12, 30, 15), id);
+            LocalDate today = LocalDate.now(ZoneId.of(id));
+            int date = ZoneClock.of(tz).getDate();
+            //unless the date changed in between
+            if (today.equals(LocalDate.now(ZoneId.of(id)))) {
+                Assertions.assertEquals(today.getYear() * 10000 + today.getMonthValue() * 100 + today.getDayOfMonth(), date, id);
+            }
+        }
+    }
+
+    @Test
+    void testFormat() {
+        IsoType[] types = {IsoType.DATE10, IsoType.DATE4, IsoType.DATE_EXP, IsoType.TIME,
+                IsoType.DATE12, IsoType.DATE14, IsoType.DATE6};
+        String[] patterns = {"MMddHHmmss", "MMdd", "yyMM", "HHmmss", "yyMMddHHmmss", "yyyyMMddHHmmss", "yyMMdd"};
+        long[] dates = {System.currentTimeMillis(), 1609459199000L, 951782400000L, 1710385815123L};
+        for (String id : new String[]{"Asia/Shanghai", "America/New_York"}) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            for (long millis : dates) {
+                for (int i = 0; i < types.length; i++) {
+                    SimpleDateFormat sdf = new SimpleDateFormat(patterns[i]);
+                    sdf.setTimeZone(tz);
+                    String expected = sdf.format(new Date(millis));
+                    Assertions.assertEquals(expected, types[i].format(new Date(millis), tz), types[i] + " " + id);
+                    byte[] bcd = new byte[expected.length() / 2];
+                    types[i].format(millis, tz, bcd, 0, true);
+                    Assertions.assertEquals(expected, HexCodec.hexEncode(bcd), types[i] + " " + id);
+                }
+            }
+        }
+    }
+}